@@ -0,0 +1,122 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import com.example.s2s.voipgateway.nova.event.AudioInputEvent;
+import com.example.s2s.voipgateway.nova.event.NovaSonicEvent;
+import com.example.s2s.voipgateway.nova.observer.InteractObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sweeps AUDIO_INPUT_WINDOW_MS over the caller audio path.  Each operation writes one second of caller audio, as 50
+ * RTP frames, into a NovaAudioOutputStream, so the score is the CPU time per second of call.
+ *
+ * The frames are written back to back, but each is stamped with the time it would have arrived on a real call, one
+ * frame every 20 ms.  When the stream sends an event, every frame in it is charged the time from its arrival to the
+ * send: the arrival of the frame that filled the window, or the deadline for a batch flushed by the timer.  The events
+ * per second of call and the mean and worst added latency are printed at the end of each run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioInputWindowBenchmark {
+    private static final int FRAME_MILLIS = 20;
+    private static final int FRAME_BYTES = FRAME_MILLIS * 8;
+    private static final int FRAMES_PER_SECOND = 1000 / FRAME_MILLIS;
+
+    @Param({"20", "40", "60", "80", "120"})
+    public int windowMillis;
+
+    private final byte[][] frames = new byte[FRAMES_PER_SECOND][FRAME_BYTES];
+    private NovaAudioOutputStream stream;
+    // Frames written, and the index of the first frame not yet sent
+    private long written;
+    private long firstUnsent;
+    private Thread writer;
+    private long events;
+    private long charged;
+    private long latencyMillis;
+    private long maxLatencyMillis;
+
+    @Setup
+    public void setUp() {
+        // Speech-like audio, so no batch takes the cached silence path
+        Random random = new Random(42);
+        for (byte[] audio : frames) {
+            random.nextBytes(audio);
+        }
+        stream = new NovaAudioOutputStream(new InteractObserver<NovaSonicEvent>() {
+            @Override
+            public void onNext(NovaSonicEvent event) {
+                if (event instanceof AudioInputEvent) {
+                    sent(((AudioInputEvent) event).getAudioInput().getContent());
+                }
+            }
+
+            @Override
+            public void onComplete() {
+            }
+
+            @Override
+            public void onError(Exception error) {
+            }
+        }, "benchmark", null, windowMillis);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        // The call ends with its last frame, which sends the rest
+        writer = Thread.currentThread();
+        stream.close();
+        System.out.printf("%n%d ms window: %.1f events per call second, added latency mean %.1f ms, max %d ms%n",
+                windowMillis, events * (double) FRAMES_PER_SECOND / written, latencyMillis / (double) charged,
+                maxLatencyMillis);
+    }
+
+    @Benchmark
+    public void callSecond() throws Exception {
+        writer = Thread.currentThread();
+        for (byte[] audio : frames) {
+            stream.write(audio, 0, FRAME_BYTES);
+            written++;
+        }
+        writer = null;
+    }
+
+    /**
+     * Charges the frames in an event with their wait.  Called under the stream's lock, from the writer or the timer.
+     * @param content The event's Base64 PCM, two bytes per frame byte.
+     */
+    private void sent(String content) {
+        int padding = content.endsWith("==") ? 2 : content.endsWith("=") ? 1 : 0;
+        long last = firstUnsent + (content.length() / 4 * 3 - padding) / 2 / FRAME_BYTES - 1;
+        // A write that fills the window, or the close, sends the batch as its last frame arrives; otherwise the batch
+        // went at its deadline
+        long sentAt = Thread.currentThread() == writer
+                ? last * FRAME_MILLIS
+                : firstUnsent * FRAME_MILLIS + windowMillis;
+        for (long i = firstUnsent; i <= last; i++) {
+            long wait = sentAt - i * FRAME_MILLIS;
+            latencyMillis += wait;
+            maxLatencyMillis = Math.max(maxLatencyMillis, wait);
+            charged++;
+        }
+        events++;
+        firstUnsent = last + 1;
+    }
+}
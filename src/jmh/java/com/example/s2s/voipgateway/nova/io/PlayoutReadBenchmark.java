@@ -0,0 +1,78 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading outbound RTP frames from the playout stream, as the RTP sender does, in packets per second.  bulk uses
+ * read(byte[], int, int); perByte reads the frame a byte at a time, which is what InputStream's default
+ * read(byte[], int, int) did before the stream overrode it.
+ *
+ * On a buffered line each frame of Nova audio is appended before it is read, so that the buffer never runs dry and
+ * both methods pay the same append cost; on an idle line nothing is buffered and every frame is silence.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayoutReadBenchmark {
+    /** One 20 ms frame of 8 kHz μ-law. */
+    private static final int FRAME_BYTES = 160;
+
+    @Param({"buffered", "idle"})
+    public String line;
+
+    private final byte[] audio = new byte[FRAME_BYTES];
+    private final byte[] frame = new byte[FRAME_BYTES];
+    private QueuedUlawInputStream stream;
+    private boolean buffered;
+
+    @Setup
+    public void setUp() {
+        stream = new QueuedUlawInputStream();
+        buffered = "buffered".equals(line);
+        for (int i = 0; i < audio.length; i++) {
+            audio[i] = (byte) (i * 7);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        stream.close();
+    }
+
+    @Benchmark
+    public byte[] bulk() throws Exception {
+        if (buffered) {
+            stream.appendUlaw(audio, 0, FRAME_BYTES);
+        }
+        stream.read(frame, 0, FRAME_BYTES);
+        return frame;
+    }
+
+    @Benchmark
+    public byte[] perByte() throws Exception {
+        if (buffered) {
+            stream.appendUlaw(audio, 0, FRAME_BYTES);
+        }
+        for (int i = 0; i < FRAME_BYTES; i++) {
+            frame[i] = (byte) stream.read();
+        }
+        return frame;
+    }
+}
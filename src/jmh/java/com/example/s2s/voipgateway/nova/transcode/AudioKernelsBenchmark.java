@@ -0,0 +1,94 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.CompilerControl;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scalar audio kernels against the Vector API kernels, on four seconds of speech-like audio.
+ * Scores are millions of samples per second.  Each call is kept out of JMH's loop, as the gateway makes one per
+ * frame; inlined into the OSR-compiled loop, C2 boxes the µ-law sum of squares and it runs slower than scalar.
+ *
+ * The vector kernels need JDK 17 with the vector-kernels profile and the incubator module in the forked JVM:
+ * mvn -P benchmark test-compile exec:exec@jmh -Djmh.args="AudioKernelsBenchmark -f 1 -jvmArgsAppend --add-modules=jdk.incubator.vector"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(AudioKernelsBenchmark.SAMPLES)
+public class AudioKernelsBenchmark {
+    /** Four seconds of 8 kHz audio. */
+    static final int SAMPLES = 32000;
+
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    private boolean vector;
+    private byte[] pcm;
+    private byte[] ulaw;
+    private byte[] decoded;
+
+    @Setup
+    public void setUp() {
+        vector = "vector".equals(kernels);
+        if (vector && "scalar".equals(AudioKernels.implementation())) {
+            throw new IllegalStateException("Vector kernels are unavailable; run on JDK 17 with "
+                    + "-jvmArgsAppend --add-modules=jdk.incubator.vector");
+        }
+        pcm = new byte[SAMPLES * 2];
+        ulaw = new byte[SAMPLES];
+        decoded = new byte[SAMPLES * 2];
+        // A few tones with noise, so the samples spread over the segments the way speech does
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            double value = 6000 * Math.sin(i * 0.07) + 2500 * Math.sin(i * 0.31) + random.nextGaussian() * 800;
+            short sample = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            pcm[i * 2] = (byte) sample;
+            pcm[i * 2 + 1] = (byte) (sample >> 8);
+        }
+        PcmToULawTranscoder.transcodeBytes(pcm, 0, pcm.length, ulaw, 0);
+    }
+
+    @Benchmark
+    @CompilerControl(CompilerControl.Mode.DONT_INLINE)
+    public byte[] ulawToPcm() {
+        if (vector) {
+            AudioKernels.ulawToPcm(ulaw, 0, ulaw.length, decoded, 0);
+        } else {
+            ScalarKernels.ulawToPcm(ulaw, 0, ulaw.length, decoded, 0);
+        }
+        return decoded;
+    }
+
+    @Benchmark
+    @CompilerControl(CompilerControl.Mode.DONT_INLINE)
+    public long pcmSumOfSquares() {
+        return vector
+                ? AudioKernels.pcmSumOfSquares(pcm, 0, pcm.length)
+                : ScalarKernels.pcmSumOfSquares(pcm, 0, pcm.length);
+    }
+
+    @Benchmark
+    @CompilerControl(CompilerControl.Mode.DONT_INLINE)
+    public long ulawSumOfSquares() {
+        return vector
+                ? AudioKernels.ulawSumOfSquares(ulaw, 0, ulaw.length)
+                : ScalarKernels.ulawSumOfSquares(ulaw, 0, ulaw.length);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PCM to μ-law encoding through the 64K lookup table against the reference G.711 algorithm, on speech-like audio.
+ * Scores are frames per microsecond; multiply by the frame's sample count for samples per microsecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PcmToULawBenchmark {
+    /** Frame size in bytes of 8 kHz PCM: one 20 ms RTP packet, and a 240 ms block of Nova Sonic output. */
+    @Param({"320", "3840"})
+    public int frameBytes;
+
+    private byte[] pcm;
+    private byte[] ulaw;
+
+    @Setup
+    public void setUp() {
+        pcm = new byte[frameBytes];
+        ulaw = new byte[frameBytes / 2];
+        // A few tones with noise, so the samples spread over the segments the way speech does
+        Random random = new Random(42);
+        for (int i = 0; i < frameBytes / 2; i++) {
+            double value = 6000 * Math.sin(i * 0.07) + 2500 * Math.sin(i * 0.31) + random.nextGaussian() * 800;
+            short sample = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            pcm[i * 2] = (byte) sample;
+            pcm[i * 2 + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    @Benchmark
+    public byte[] table() {
+        PcmToULawTranscoder.transcodeBytes(pcm, 0, pcm.length, ulaw, 0);
+        return ulaw;
+    }
+
+    @Benchmark
+    public byte[] reference() {
+        for (int i = 0, out = 0; i < pcm.length; i += 2) {
+            ulaw[out++] = PcmToULawTranscoder.linearToULaw((short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8)));
+        }
+        return ulaw;
+    }
+}
@@ -1,6 +1,8 @@
 package com.example.s2s.voipgateway;
 
+import com.example.s2s.voipgateway.nova.CallTimings;
 import com.example.s2s.voipgateway.nova.NovaS2SEventHandler;
+import org.mjsip.media.MediaDesc;
 import org.mjsip.media.RtpStreamSender;
 import org.mjsip.media.RtpStreamSenderListener;
 import org.mjsip.media.tx.AudioTXHandle;
@@ -16,7 +18,9 @@ import org.zoolu.sound.CodecType;
 import org.zoolu.util.Encoder;
 
 import javax.sound.sampled.AudioFormat;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * mjSIP AudioTransmitter implementation for Nova Sonic
@@ -24,8 +28,35 @@ import java.io.IOException;
 public class NovaSonicAudioInput implements AudioTransmitter {
     private static final Logger LOG = LoggerFactory.getLogger(NovaSonicAudioInput.class);
     private final NovaS2SEventHandler handler;
+    private final CallTimings callTimings;
+    private final RtpSilenceMode silenceMode;
+    private final int comfortNoisePayloadType;
     public NovaSonicAudioInput(NovaS2SEventHandler handler) {
+        this(handler, null);
+    }
+
+    /**
+     * Creates a transmitter for a peer whose SDP isn't known, so comfort noise is never sent.
+     * @param handler The event handler whose audio is sent to the caller.
+     * @param callTimings The call's setup timings, which record when the first packet is sent, or null.
+     */
+    public NovaSonicAudioInput(NovaS2SEventHandler handler, CallTimings callTimings) {
+        this(handler, callTimings, null);
+    }
+
+    /**
+     * @param handler The event handler whose audio is sent to the caller.
+     * @param callTimings The call's setup timings, which record when the first packet is sent, or null.
+     * @param remoteMediaDescs The caller's media descriptions from its SDP, which decide whether comfort noise may be
+     *                         sent, or null if they aren't known.
+     */
+    public NovaSonicAudioInput(NovaS2SEventHandler handler, CallTimings callTimings, MediaDesc[] remoteMediaDescs) {
         this.handler = handler;
+        this.callTimings = callTimings;
+        RtpSilenceMode configured = RtpSilenceMode.fromEnvironment();
+        this.comfortNoisePayloadType = configured == RtpSilenceMode.CN
+                ? RtpSilenceMode.comfortNoisePayloadType(remoteMediaDescs) : -1;
+        this.silenceMode = configured.negotiate(comfortNoisePayloadType);
     }
 
 
@@ -36,9 +67,38 @@ public class NovaSonicAudioInput implements AudioTransmitter {
                                       int packet_size, String remote_addr, int remote_port,
                                       RtpStreamSenderListener listener, RtpControl rtpControl) throws IOException {
         LOG.info("Creating RTP stream sender with payloadType={} payloadFormat={} sampleRate={} channels={}", payload_type, payloadFormat, sample_rate, channels);
-        RtpStreamSender sender = new RtpStreamSender(options, handler.getAudioInputStream(), true, payload_type, payloadFormat,
+        if (silenceMode != RtpSilenceMode.OFF) {
+            if (additional_encoder == null) {
+                LOG.info("Using silence mode {}", silenceMode);
+                int payloadSize = packet_size > 0 ? packet_size : (int) (sample_rate * packet_time / 1000);
+                return new SilenceSuppressingRtpSender(audioStream(), udp_socket, remote_addr,
+                        remote_port, payload_type, comfortNoisePayloadType, payloadSize, packet_time, silenceMode);
+            }
+            LOG.warn("Silence mode {} is not supported with an additional encoder, sending continuously", silenceMode);
+        }
+        RtpStreamSender sender = new RtpStreamSender(options, audioStream(), true, payload_type, payloadFormat,
                 sample_rate, channels, packet_time, packet_size, additional_encoder, udp_socket, remote_addr,
                 remote_port, rtpControl, listener);
         return new RtpAudioTxHandle(sender);
     }
+
+    /**
+     * @return The outbound audio, which marks the first RTP packet out in the call timings when it is first read.
+     */
+    private InputStream audioStream() {
+        InputStream audio = handler.getAudioInputStream();
+        if (callTimings == null) {
+            return audio;
+        }
+        return new FilterInputStream(audio) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    callTimings.mark(CallTimings.Stage.FIRST_RTP_OUT);
+                }
+                return read;
+            }
+        };
+    }
 }
@@ -1,5 +1,6 @@
 package com.example.s2s.voipgateway;
 
+import com.example.s2s.voipgateway.nova.CallTimings;
 import com.example.s2s.voipgateway.nova.NovaStreamerFactory;
 import org.mjsip.config.OptionParser;
 import org.mjsip.media.MediaDesc;
@@ -33,7 +34,7 @@ public class NovaSonicVoipGateway extends RegisteringMultipleUAS {
     // Instance variables
     protected final NovaMediaConfig mediaConfig;
     protected final UAConfig uaConfig;
-    private StreamerFactory streamerFactory;
+    private NovaStreamerFactory streamerFactory;
     private RegistrationClient _rc;
     private SipKeepAlive keep_alive;
 
@@ -107,7 +108,12 @@ public class NovaSonicVoipGateway extends RegisteringMultipleUAS {
             public void onUaIncomingCall(UserAgent ua, NameAddress callee, NameAddress caller,
                                          MediaDesc[] media_descs) {
                 LOG.info("Incomming call from: {}", callee.getAddress());
-                ua.accept(new MediaAgent(mediaConfig.getMediaDescs(), streamerFactory));
+                CallTimings callTimings = new CallTimings(String.valueOf(caller.getAddress()));
+                // The Nova session starts connecting now, while the call is answered.  There is no early media:
+                // the UserAgent can only answer the call, not send a 183 with SDP first.
+                StreamerFactory callStreamerFactory = streamerFactory.prepareCall(callTimings, media_descs);
+                ua.accept(new MediaAgent(mediaConfig.getMediaDescs(), callStreamerFactory));
+                callTimings.mark(CallTimings.Stage.ANSWERED);
             }
         };
     }
@@ -192,19 +198,23 @@ public class NovaSonicVoipGateway extends RegisteringMultipleUAS {
     }
 
     /**
-     * Creates the default media descriptions.
+     * Creates the default media descriptions.  Comfort noise is offered alongside PCMU when RTP_SILENCE_MODE is cn,
+     * and only sent on calls whose SDP includes it too.
      * @return
      */
     private static MediaDesc[] createDefaultMediaDescs() {
+        MediaSpec pcmu = new MediaSpec(0,
+                "PCMU",
+                8000,
+                1,
+                160);
+        MediaSpec[] specs = RtpSilenceMode.fromEnvironment() == RtpSilenceMode.CN
+                ? new MediaSpec[]{pcmu, new MediaSpec(RtpSilenceMode.CN_PAYLOAD_TYPE, "CN", 8000, 1, 1)}
+                : new MediaSpec[]{pcmu};
         return new MediaDesc[]{new MediaDesc("audio",
                 4000,
                 "RTP/AVP",
-                new MediaSpec[]{
-                        new MediaSpec(0,
-                                "PCMU",
-                                8000,
-                                1,
-                                160)})};
+                specs)};
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+package com.example.s2s.voipgateway;
+
+import org.mjsip.media.MediaDesc;
+import org.mjsip.media.MediaSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+
+/**
+ * How outbound RTP is sent while Nova is not speaking.  Configured with the RTP_SILENCE_MODE environment variable.
+ */
+public enum RtpSilenceMode {
+    /** Send a full packet of silence every packet time, as a plain G.711 endpoint does. */
+    OFF,
+    /** Send nothing while the line is silent. */
+    SUPPRESS,
+    /**
+     * Send RFC 3389 comfort noise at the start of, and periodically during, silence.  Only used with a peer whose SDP
+     * includes CN/8000; with any other peer silence is suppressed instead.
+     */
+    CN;
+
+    private static final Logger LOG = LoggerFactory.getLogger(RtpSilenceMode.class);
+
+    /** The static payload type for comfort noise from RFC 3551. */
+    public static final int CN_PAYLOAD_TYPE = 13;
+
+    // Read once, so an unknown value is only reported once rather than on every call
+    private static final RtpSilenceMode CONFIGURED = parse(System.getenv().getOrDefault("RTP_SILENCE_MODE", "off"));
+
+    /**
+     * @return The mode configured in the environment, OFF if not set or not recognised.
+     */
+    public static RtpSilenceMode fromEnvironment() {
+        return CONFIGURED;
+    }
+
+    /**
+     * @return The named mode.  An unknown value is logged and OFF used instead, rather than failing every call.
+     */
+    private static RtpSilenceMode parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Unknown RTP_SILENCE_MODE {}, using off", value);
+            return OFF;
+        }
+    }
+
+    /**
+     * Finds comfort noise among a peer's audio media descriptions.
+     * @param mediaDescs The peer's media descriptions, or null if they aren't known.
+     * @return The payload type the peer uses for CN/8000, or -1 if it doesn't support it.
+     */
+    public static int comfortNoisePayloadType(MediaDesc[] mediaDescs) {
+        if (mediaDescs == null) {
+            return -1;
+        }
+        for (MediaDesc mediaDesc : mediaDescs) {
+            if (!"audio".equalsIgnoreCase(mediaDesc.getMedia()) || mediaDesc.getMediaSpecs() == null) {
+                continue;
+            }
+            for (MediaSpec spec : mediaDesc.getMediaSpecs()) {
+                if ("CN".equalsIgnoreCase(spec.getCodec()) && spec.getSampleRate() == 8000) {
+                    return spec.getAVP();
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Settles the mode for a call.  Comfort noise needs the peer to have agreed to it in SDP; a peer that answered
+     * PCMU only would get packets of an unknown payload type, so silence is suppressed instead.
+     * @param comfortNoisePayloadType The peer's CN payload type, or -1 if it has none.
+     * @return The mode to use.
+     */
+    public RtpSilenceMode negotiate(int comfortNoisePayloadType) {
+        if (this == CN && comfortNoisePayloadType < 0) {
+            LOG.info("Peer did not negotiate CN/8000, suppressing silence instead of sending comfort noise");
+            return SUPPRESS;
+        }
+        return this;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.s2s.voipgateway;
+
+import org.mjsip.media.tx.AudioTXHandle;
+import org.mjsip.rtp.RtpPacket;
+import org.mjsip.rtp.RtpSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zoolu.net.SocketAddress;
+import org.zoolu.net.UdpSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paced G.711 RTP sender that stops sending, or sends comfort noise, while the outbound audio is silent.
+ *
+ * Frames are read from the input stream every packet time as usual.  A frame made up entirely of µ-law zero
+ * samples counts as silence: in SUPPRESS mode nothing is sent for it, in CN mode a comfort noise packet is sent
+ * when silence starts and every CN_REFRESH_MILLIS after.  The RTP timestamp keeps advancing through silence and the
+ * first packet of each talkspurt carries the marker bit, as RFC 3551 requires.
+ */
+public class SilenceSuppressingRtpSender implements AudioTXHandle, Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(SilenceSuppressingRtpSender.class);
+    private static final int RTP_HEADER_LENGTH = 12;
+    private static final long CN_REFRESH_MILLIS = 1000;
+    // Comfort noise level in -dBov; 127 is the quietest level, matching the digital silence it stands in for
+    private static final byte CN_NOISE_LEVEL = 127;
+    // If the sender falls further behind than this, it resynchronizes instead of bursting to catch up
+    private static final int MAX_LATE_PACKETS = 5;
+    private final InputStream audio;
+    private final RtpSocket rtpSocket;
+    private final RtpSilenceMode mode;
+    private final int payloadType;
+    private final int comfortNoisePayloadType;
+    private final int packetSize;
+    private final long packetNanos;
+    private final byte[] buffer;
+    private volatile boolean running;
+    private long suppressedPackets;
+
+    /**
+     * Creates the sender.
+     *
+     * @param audio The outbound μ-law audio.
+     * @param udpSocket The socket to send from.
+     * @param remoteAddress The remote media address.
+     * @param remotePort The remote media port.
+     * @param payloadType The negotiated audio payload type.
+     * @param comfortNoisePayloadType The negotiated comfort noise payload type, used in CN mode.
+     * @param packetSize The payload size of a packet in bytes.
+     * @param packetTime The packet time in milliseconds.
+     * @param mode How to treat silence, as negotiated with the peer.
+     */
+    public SilenceSuppressingRtpSender(InputStream audio, UdpSocket udpSocket, String remoteAddress, int remotePort,
+                                       int payloadType, int comfortNoisePayloadType, int packetSize, long packetTime,
+                                       RtpSilenceMode mode) {
+        this.audio = audio;
+        this.rtpSocket = new RtpSocket(udpSocket, new SocketAddress(remoteAddress, remotePort));
+        this.mode = mode;
+        this.payloadType = payloadType;
+        this.comfortNoisePayloadType = comfortNoisePayloadType;
+        this.packetSize = packetSize;
+        this.packetNanos = TimeUnit.MILLISECONDS.toNanos(packetTime);
+        this.buffer = new byte[RTP_HEADER_LENGTH + packetSize];
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        Thread thread = new Thread(this, "rtp-sender");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void halt() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        // RtpPacket picks a random sequence number, timestamp and SSRC for the stream
+        RtpPacket packet = new RtpPacket(buffer, 0);
+        long nextDeparture = System.nanoTime();
+        boolean talking = false;
+        long lastComfortNoise = 0;
+        try {
+            while (running) {
+                int length = audio.read(buffer, RTP_HEADER_LENGTH, packetSize);
+                if (length < 0) {
+                    break;
+                }
+                long now = System.nanoTime();
+                if (!isSilent(buffer, RTP_HEADER_LENGTH, length)) {
+                    packet.setPayloadType(payloadType);
+                    packet.setMarker(!talking);
+                    packet.setPayloadLength(length);
+                    rtpSocket.send(packet);
+                    packet.setSequenceNumber(packet.getSequenceNumber() + 1);
+                    talking = true;
+                } else if (mode == RtpSilenceMode.CN
+                        && (talking || now - lastComfortNoise >= TimeUnit.MILLISECONDS.toNanos(CN_REFRESH_MILLIS))) {
+                    buffer[RTP_HEADER_LENGTH] = CN_NOISE_LEVEL;
+                    packet.setPayloadType(comfortNoisePayloadType);
+                    packet.setMarker(false);
+                    packet.setPayloadLength(1);
+                    rtpSocket.send(packet);
+                    packet.setSequenceNumber(packet.getSequenceNumber() + 1);
+                    lastComfortNoise = now;
+                    talking = false;
+                } else {
+                    suppressedPackets++;
+                    talking = false;
+                }
+                // The timestamp counts samples, so it advances through silence whether or not a packet was sent
+                packet.setTimestamp(packet.getTimestamp() + length);
+
+                nextDeparture += packetNanos;
+                long delay = nextDeparture - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                } else if (-delay > MAX_LATE_PACKETS * packetNanos) {
+                    nextDeparture = System.nanoTime();
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                LOG.error("RTP sender failed", e);
+            }
+        } finally {
+            running = false;
+            LOG.info("RTP sender stopped, {} silent packets suppressed", suppressedPackets);
+        }
+    }
+
+    /**
+     * Checks whether a frame is digital silence, i.e. every sample is a µ-law zero (0xFF or 0x7F).
+     */
+    private static boolean isSilent(byte[] frame, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if ((frame[i] & 0x7F) != 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,35 +1,45 @@
 package com.example.s2s.voipgateway.nova;
 
 import com.example.s2s.voipgateway.nova.event.*;
+import com.example.s2s.voipgateway.nova.io.CallRecorder;
 import com.example.s2s.voipgateway.nova.io.QueuedUlawInputStream;
 import com.example.s2s.voipgateway.nova.observer.InteractObserver;
+import com.example.s2s.voipgateway.nova.tools.ToolRegistry;
 import com.example.s2s.voipgateway.nova.VoiceActivityDetector;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.*;
-import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Common NovaS2SEventHandler functionality.
  */
 public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler {
     private static final Logger log = LoggerFactory.getLogger(AbstractNovaS2SEventHandler.class);
-    private static final Base64.Decoder decoder = Base64.getDecoder();
-    private static final String ERROR_AUDIO_FILE = "error.wav";
+    static final String ERROR_AUDIO_FILE = "error.wav";
+    static final String GREETING_FILENAME = System.getenv().getOrDefault("GREETING_FILENAME", "hello-how.wav");
     private final QueuedUlawInputStream audioStream = new QueuedUlawInputStream();
+    private final CallRecorder callRecorder = CallRecorder.create();
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final VoiceActivityDetector voiceDetector = new VoiceActivityDetector();
     private final ConversationLogger conversationLogger = new ConversationLogger();
+    private final Object toolResultLock = new Object();
+    private final AtomicBoolean greetingPlayed = new AtomicBoolean();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicInteger pendingTools = new AtomicInteger();
+    private final ConversationHistory conversationHistory = new ConversationHistory();
+    private final boolean overridesToolInvocation = overridesToolInvocation(getClass());
+    private volatile SessionRollover sessionRollover;
+    private volatile CallTimings callTimings = new CallTimings("unknown");
     private InteractObserver<NovaSonicEvent> outbound;
     private String promptName;
     private boolean debugAudioOutput;
@@ -44,6 +54,7 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
 
     public AbstractNovaS2SEventHandler(InteractObserver<NovaSonicEvent> outbound) {
         this.outbound = outbound;
+        audioStream.setRecorder(callRecorder);
         debugAudioOutput = "true".equalsIgnoreCase(System.getenv().getOrDefault("DEBUG_AUDIO_OUTPUT", "false"));
     }
 
@@ -60,7 +71,7 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
 
     @Override
     public void handleContentStart(JsonNode node) {
-
+        conversationHistory.onContentStart(node);
     }
 
     @Override
@@ -77,6 +88,7 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
 
     @Override
     public void handleTextOutput(JsonNode node) {
+        conversationHistory.onTextOutput(node);
         String content = node.get("content").asText();
         String role = node.get("role").asText();
         
@@ -89,6 +101,7 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
 
     @Override
     public void handleAudioOutput(JsonNode node) {
+        callTimings.mark(CallTimings.Stage.FIRST_NOVA_AUDIO);
         String content = node.get("content").asText();
         String role = node.get("role").asText();
         if (debugAudioOutput) {
@@ -101,9 +114,29 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
             return;
         }
         
-        byte[] data = decoder.decode(content);
         try {
-            audioStream.append(data);
+            audioStream.appendBase64(content);
+        } catch (InterruptedException e) {
+            log.error("Failed to append audio data to queued input stream", e);
+        }
+    }
+
+    @Override
+    public void handleAudioOutput(String role, CharSequence base64) {
+        callTimings.mark(CallTimings.Stage.FIRST_NOVA_AUDIO);
+        if (debugAudioOutput) {
+            log.info("Received {} characters of audio output from {}", base64.length(), role);
+        }
+
+        // Don't append audio if we're interrupted
+        if (audioStream.isInterrupted()) {
+            log.debug("Skipping audio output due to interruption");
+            return;
+        }
+
+        try {
+            // Decoded straight to μ-law, without an intermediate PCM buffer
+            audioStream.appendBase64(base64);
         } catch (InterruptedException e) {
             log.error("Failed to append audio data to queued input stream", e);
         }
@@ -112,16 +145,22 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
     @Override
     public void handleContentEnd(JsonNode node) {
         log.info("Content end for node: {}", node);
-        String contentId = node.get("contentId").asText();
+        String contentId = node.path("contentId").asText();
         String stopReason = node.has("stopReason") ? node.get("stopReason").asText() : "";
         log.info("Content ended: {} with reason: {}", contentId, stopReason);
+        conversationHistory.onContentEnd(node);
+        SessionRollover rollover = sessionRollover;
+        if (rollover != null && "AUDIO".equals(node.path("type").asText()) && "END_TURN".equals(stopReason)) {
+            rollover.turnEnded();
+        }
     }
 
     @Override
     public void handleCompletionEnd(JsonNode node) {
         log.info("Completion end for node: {}", node);
         String stopReason = node.has("stopReason") ? node.get("stopReason").asText() : "";
-        log.info("Completion ended with reason: {}", stopReason);
+        log.info("Completion ended with reason: {}, {} ms of audio buffered for playout", stopReason,
+                audioStream.getBufferedMillis());
         isNovaGenerating = false;
         
         // Resume audio stream and reset voice detector for next interaction
@@ -135,13 +174,31 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
 
     @Override
     public void onStart() {
-        log.info("Session started, playing greeting.");
+        if (!started.compareAndSet(false, true)) {
+            // A successor session taking over the call
+            log.info("Session renewed");
+            conversationLogger.logSystemMessage("Nova Sonic session renewed");
+            return;
+        }
+        log.info("Session started");
+        callTimings.mark(CallTimings.Stage.STREAM_OPEN);
         conversationLogger.logSystemMessage("Call connected - Nova Sonic session started");
-        
-        String greetingFilename = System.getenv().getOrDefault("GREETING_FILENAME","hello-how.wav");
-        try { playAudioFile(greetingFilename); }
+        playGreeting();
+    }
+
+    /**
+     * Queues the greeting, unless it has already been played.  The greeting is cached, so it can be played as soon
+     * as the call is set up, while the Nova Sonic session is still connecting; otherwise it is played when the
+     * session starts.
+     */
+    public void playGreeting() {
+        if (!greetingPlayed.compareAndSet(false, true)) {
+            return;
+        }
+        log.info("Playing greeting");
+        try { playAudioFile(GREETING_FILENAME); }
         catch (FileNotFoundException e) {
-            log.info("{} not found, no greeting will be sent", greetingFilename);
+            log.info("{} not found, no greeting will be sent", GREETING_FILENAME);
         }
     }
 
@@ -178,7 +235,9 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
     @Override
     public void onComplete() {
         log.info("Stream complete");
+        callTimings.logBreakdown();
         conversationLogger.logConversationEnd();
+        callRecorder.close();
         
         // Send prompt end event to properly close the session
         if (outbound != null && promptName != null) {
@@ -192,77 +251,200 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
         return audioStream;
     }
 
+    /**
+     * @return The setup timings for this call.
+     */
+    public CallTimings getCallTimings() {
+        return callTimings;
+    }
+
+    /**
+     * @param callTimings The setup timings for this call, started when its INVITE arrived.
+     */
+    public void setCallTimings(CallTimings callTimings) {
+        this.callTimings = callTimings;
+    }
+
+    /**
+     * @return The recorder for this call, which does nothing unless call recording is enabled.
+     */
+    public CallRecorder getCallRecorder() {
+        return callRecorder;
+    }
+
     @Override
     public void setOutbound(InteractObserver<NovaSonicEvent> outbound) {
         this.outbound = outbound;
     }
 
+    /**
+     * @param sessionRollover The call's session rollover, which is told when Nova ends a spoken turn.
+     */
+    void setSessionRollover(SessionRollover sessionRollover) {
+        this.sessionRollover = sessionRollover;
+    }
+
+    /**
+     * @return The transcript of the call so far, for a successor session.
+     */
+    ConversationHistory getConversationHistory() {
+        return conversationHistory;
+    }
+
+    /**
+     * @return true if a tool is running, whose result must go to the session that asked for it.
+     */
+    boolean hasPendingTools() {
+        return pendingTools.get() > 0;
+    }
+
+    /**
+     * Invokes a tool.  By default tools come from the {@link ToolRegistry}; override to supply them some other way.
+     * A subclass that still overrides {@link #handleToolInvocation} has its tools run through that instead.
+     * @param toolUseId The tool use id.
+     * @param toolName The tool name.
+     * @param content Content provided as a parameter to the invocation.
+     * @return The tool's output, which is sent to Nova Sonic as JSON.  If it fails, Nova Sonic is sent an error
+     * result instead.
+     */
+    protected CompletableFuture<Map<String, Object>> invokeTool(String toolUseId, String toolName, String content) {
+        if (!overridesToolInvocation) {
+            return ToolRegistry.getDefault().invoke(toolName, content);
+        }
+        // Run inline, as tools always were before invokeTool
+        CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+        try {
+            Map<String, Object> output = new HashMap<>();
+            handleToolInvocation(toolUseId, toolName, content, output);
+            result.complete(output);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
     /**
      * Handles the actual invocation of a tool.
      * @param toolUseId The tool use id.
      * @param toolName The tool name.
      * @param content Content provided as a parameter to the invocation.
      * @param output The output node.
+     * @deprecated Override {@link #invokeTool} instead, which doesn't tie up the call while the tool runs.  This
+     * waits for invokeTool, or for the {@link ToolRegistry} when called by an override of this method.
      */
-    protected abstract void handleToolInvocation(String toolUseId, String toolName, String content, Map<String,Object> output);
+    @Deprecated
+    protected void handleToolInvocation(String toolUseId, String toolName, String content, Map<String,Object> output) {
+        CompletableFuture<Map<String, Object>> result = overridesToolInvocation
+                ? ToolRegistry.getDefault().invoke(toolName, content)
+                : invokeTool(toolUseId, toolName, content);
+        output.putAll(result.join());
+    }
+
+    /**
+     * @return true if the class, or a superclass below this one, overrides handleToolInvocation.
+     */
+    private static boolean overridesToolInvocation(Class<?> type) {
+        for (Class<?> c = type; c != AbstractNovaS2SEventHandler.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("handleToolInvocation", String.class, String.class, String.class, Map.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Not in this class
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the tools offered to Nova Sonic, by default those in the {@link ToolRegistry}.  NovaStreamerFactory asks
+     * a handler from its createEventHandler() once, before its first session, so an override must give every call
+     * the same tools.
+     */
+    @Override
+    public PromptStartEvent.ToolConfiguration getToolConfiguration() {
+        return ToolRegistry.getDefault().getToolConfiguration();
+    }
 
     @Override
     public void handleToolUse(JsonNode node, String toolUseId, String toolName, String content) {
         log.info("Tool {} invoked with id={}, content={}", toolName, toolUseId, content);
+        // Tools run asynchronously, so other events, and other tools, are handled while this one works
+        String toolPromptName = promptName;
+        // Counted until the result is sent, so the call isn't moved to a session that never asked for it
+        pendingTools.incrementAndGet();
+        // The result is sent from the call's event executor, in order with its other events, rather than from
+        // whichever thread completed the tool
+        Executor events = SerialExecutor.current();
+        CompletableFuture<Map<String, Object>> result;
+        try {
+            result = invokeTool(toolUseId, toolName, content);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenCompleteAsync((contentNode, error) -> {
+            try {
+                if (error != null) {
+                    // Nova Sonic is still waiting for an answer, and the session itself is fine
+                    log.error("Tool {} failed, sending an error result", toolName, error);
+                }
+                sendToolResult(toolPromptName, toolUseId, toolName, error == null ? contentNode : toolError(toolName));
+            } catch (RuntimeException e) {
+                log.error("Failed to send the result of tool {}", toolName, e);
+            } finally {
+                pendingTools.decrementAndGet();
+            }
+        }, events != null ? events : Runnable::run);
+    }
+
+    /**
+     * @return The result sent to Nova Sonic when a tool fails.
+     */
+    private static Map<String, Object> toolError(String toolName) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("error", "The " + toolName + " tool is not available right now.");
+        return result;
+    }
+
+    /**
+     * Sends a tool result as its own content block.
+     */
+    private void sendToolResult(String toolPromptName, String toolUseId, String toolName, Map<String, Object> contentNode) {
         String contentName = UUID.randomUUID().toString();
+        ToolResultEvent toolResultEvent = new ToolResultEvent();
+        Map<String,Object> toolResult = toolResultEvent.getToolResult().getProperties();
+        toolResult.put("promptName", toolPromptName);
+        toolResult.put("contentName", contentName);
+        toolResult.put("role", "TOOL");
         try {
-            Map<String, Object> contentNode = new HashMap<>();
-            handleToolInvocation(toolUseId, toolName, content, contentNode);
-
-            ToolResultEvent toolResultEvent = new ToolResultEvent();
-            Map<String,Object> toolResult = toolResultEvent.getToolResult().getProperties();
-            toolResult.put("promptName", promptName);
-            toolResult.put("contentName", contentName);
-            toolResult.put("role", "TOOL");
             toolResult.put("content", objectMapper.writeValueAsString(contentNode)); // Ensure proper escaping
+        } catch (IOException e) {
+            log.error("Result of tool {} can't be written as JSON, sending an error result", toolName, e);
+            toolResult.put("content", objectMapper.valueToTree(toolError(toolName)).toString());
+        }
 
-            sendToolContentStart(toolUseId, contentName);
+        // Results of parallel tools must not interleave their content blocks
+        synchronized (toolResultLock) {
+            sendToolContentStart(toolPromptName, toolUseId, contentName);
             outbound.onNext(toolResultEvent);
-            outbound.onNext(ContentEndEvent.create(promptName, contentName));
-        } catch (Exception e) {
-            throw new RuntimeException("Error creating JSON payload for toolResult", e);
+            outbound.onNext(ContentEndEvent.create(toolPromptName, contentName));
         }
     }
 
     /**
-     * Plays an audio file, either relative to the working directory or from the classpath.
+     * Plays an audio file, either relative to the working directory or from the classpath.  The file is decoded
+     * once per process by the {@link PromptLibrary}.
      * @param filename The file name of the file to play.
      */
     protected void playAudioFile(String filename) throws FileNotFoundException {
-        InputStream is = null;
-        File file = new File(filename);
-        if (file.exists()) {
-            try { is = new FileInputStream(file); }
-            catch (FileNotFoundException e) {
-                // we already checked if it exists ... this should never happen
-            }
-        } else {
-            is = getClass().getClassLoader().getResourceAsStream(filename);
-        }
-        if (is != null) {
-            try {
-                AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(new BufferedInputStream(is));
-                AudioInputStream transcodedStream = AudioSystem.getAudioInputStream(new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 8000, 16, 1, 2, 8000, false), audioInputStream);
-                audioStream.append(transcodedStream.readAllBytes());
-                log.debug("Wrote audio from {} to output stream ...", filename);
-            } catch (RuntimeException e) {
-                log.error("Runtime exception while playing audio from {}", filename, e);
-            } catch (InterruptedException e) {
-                log.error("Interrupted while appending audio to queued input stream", e);
-            } catch (IOException | UnsupportedAudioFileException e) {
-                log.error("Failed to load {}", filename, e);
-            }
-        } else {
-            throw new FileNotFoundException("Could not find "+filename);
+        try {
+            PromptLibrary.getInstance().play(filename, audioStream);
+        } catch (InterruptedException e) {
+            log.error("Interrupted while appending audio to queued input stream", e);
         }
     }
 
-    private void sendToolContentStart(String toolUseId, String contentName) {
+    private void sendToolContentStart(String toolPromptName, String toolUseId, String contentName) {
         Map<String,Object> toolResultInputConfig=new HashMap<>();
         toolResultInputConfig.put("toolUseId", toolUseId);
         toolResultInputConfig.put("type", "TEXT");
@@ -270,7 +452,7 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
 
         outbound.onNext(ContentStartEvent.builder()
                 .contentStart(ContentStartEvent.ContentStart.builder()
-                        .promptName(promptName)
+                        .promptName(toolPromptName)
                         .contentName(contentName)
                         .interactive(false)
                         .type("TOOL")
@@ -287,12 +469,43 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
      * @param audioData PCM audio data from the user
      */
     public void processUserAudio(byte[] audioData) {
+        processUserAudio(audioData, 0, audioData.length);
+    }
+
+    /**
+     * Processes a region of a user audio buffer for voice activity detection and barge-in.
+     *
+     * @param audioData PCM audio data from the user
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     */
+    public void processUserAudio(byte[] audioData, int offset, int length) {
         if (!bargeInEnabled || !isNovaGenerating || audioStream.isInterrupted()) {
             return;
         }
         
         // Check for voice activity
-        if (voiceDetector.detectVoiceActivity(audioData)) {
+        if (voiceDetector.detectVoiceActivity(audioData, offset, length)) {
+            log.info("Barge-in detected: User started speaking while Nova was generating");
+            conversationLogger.logSystemMessage("User interrupted Nova (barge-in detected)");
+            handleBargeIn();
+        }
+    }
+    
+    /**
+     * Processes a region of a µ-law user audio buffer for voice activity detection and barge-in.
+     *
+     * @param ulawData µ-law audio data from the user
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     */
+    public void processUserUlawAudio(byte[] ulawData, int offset, int length) {
+        if (!bargeInEnabled || !isNovaGenerating || audioStream.isInterrupted()) {
+            return;
+        }
+
+        // Check for voice activity
+        if (voiceDetector.detectUlawVoiceActivity(ulawData, offset, length)) {
             log.info("Barge-in detected: User started speaking while Nova was generating");
             conversationLogger.logSystemMessage("User interrupted Nova (barge-in detected)");
             handleBargeIn();
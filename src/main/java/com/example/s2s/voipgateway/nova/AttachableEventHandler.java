@@ -0,0 +1,164 @@
+package com.example.s2s.voipgateway.nova;
+
+import com.example.s2s.voipgateway.nova.event.NovaSonicEvent;
+import com.example.s2s.voipgateway.nova.event.PromptStartEvent;
+import com.example.s2s.voipgateway.nova.observer.InteractObserver;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An event handler a session can be opened with before the call it will serve exists.  Events that arrive before a
+ * handler is attached are held, and handed to it in order when it is; after that events go straight through until
+ * the session is detached from the call, when the session is replaced by a successor.
+ */
+class AttachableEventHandler implements NovaS2SEventHandler {
+    private final List<Consumer<NovaS2SEventHandler>> pending = new ArrayList<>();
+    private volatile NovaS2SEventHandler target;
+    private volatile boolean closed;
+    private boolean detached;
+
+    /**
+     * Attaches the handler for the call, replaying any events held so far.
+     * @param handler The handler.
+     */
+    void attach(NovaS2SEventHandler handler) {
+        synchronized (pending) {
+            for (Consumer<NovaS2SEventHandler> event : pending) {
+                event.accept(handler);
+            }
+            pending.clear();
+            target = handler;
+        }
+    }
+
+    /**
+     * Detaches the call's handler.  Events from then on, such as the end of the stream, are dropped.
+     */
+    void detach() {
+        synchronized (pending) {
+            detached = true;
+            pending.clear();
+            target = null;
+        }
+    }
+
+    /**
+     * @return true if the stream has failed or completed.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    private void dispatch(Consumer<NovaS2SEventHandler> event) {
+        NovaS2SEventHandler handler = target;
+        if (handler == null) {
+            synchronized (pending) {
+                handler = target;
+                if (detached) {
+                    return;
+                }
+                if (handler == null) {
+                    pending.add(event);
+                    return;
+                }
+            }
+        }
+        event.accept(handler);
+    }
+
+    private NovaS2SEventHandler attached() {
+        NovaS2SEventHandler handler = target;
+        if (handler == null) {
+            throw new IllegalStateException("No event handler attached");
+        }
+        return handler;
+    }
+
+    @Override
+    public void onStart() {
+        dispatch(NovaS2SEventHandler::onStart);
+    }
+
+    @Override
+    public void handleCompletionStart(JsonNode node) {
+        dispatch(handler -> handler.handleCompletionStart(node));
+    }
+
+    @Override
+    public void handleContentStart(JsonNode node) {
+        dispatch(handler -> handler.handleContentStart(node));
+    }
+
+    @Override
+    public void handleTextInput(JsonNode node) {
+        dispatch(handler -> handler.handleTextInput(node));
+    }
+
+    @Override
+    public void handleTextOutput(JsonNode node) {
+        dispatch(handler -> handler.handleTextOutput(node));
+    }
+
+    @Override
+    public void handleAudioOutput(JsonNode node) {
+        dispatch(handler -> handler.handleAudioOutput(node));
+    }
+
+    @Override
+    public void handleAudioOutput(String role, CharSequence base64) {
+        NovaS2SEventHandler handler = target;
+        if (handler != null) {
+            handler.handleAudioOutput(role, base64);
+            return;
+        }
+        // The buffer is reused for the next event, so a held event needs its own copy
+        String copy = base64.toString();
+        dispatch(attached -> attached.handleAudioOutput(role, copy));
+    }
+
+    @Override
+    public void handleContentEnd(JsonNode node) {
+        dispatch(handler -> handler.handleContentEnd(node));
+    }
+
+    @Override
+    public void handleCompletionEnd(JsonNode node) {
+        dispatch(handler -> handler.handleCompletionEnd(node));
+    }
+
+    @Override
+    public void handleToolUse(JsonNode node, String toolUseId, String toolName, String content) {
+        dispatch(handler -> handler.handleToolUse(node, toolUseId, toolName, content));
+    }
+
+    @Override
+    public void onError(Exception e) {
+        closed = true;
+        dispatch(handler -> handler.onError(e));
+    }
+
+    @Override
+    public void onComplete() {
+        closed = true;
+        dispatch(NovaS2SEventHandler::onComplete);
+    }
+
+    @Override
+    public void setOutbound(InteractObserver<NovaSonicEvent> outbound) {
+        attached().setOutbound(outbound);
+    }
+
+    @Override
+    public InputStream getAudioInputStream() {
+        return attached().getAudioInputStream();
+    }
+
+    @Override
+    public PromptStartEvent.ToolConfiguration getToolConfiguration() {
+        return attached().getToolConfiguration();
+    }
+}
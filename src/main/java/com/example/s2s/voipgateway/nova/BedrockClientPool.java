@@ -0,0 +1,88 @@
+package com.example.s2s.voipgateway.nova;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.http.Protocol;
+import software.amazon.awssdk.http.ProtocolNegotiation;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide Bedrock clients shared by every call.  Each Nova Sonic session is an HTTP/2 stream, so calls are
+ * multiplexed over the clients' connections rather than each opening its own client, event loop and TLS session.
+ *
+ * BEDROCK_CLIENTS clients are created, sessions are spread across them round robin, and they share one Netty event
+ * loop group.  Everything is closed by a shutdown hook.
+ */
+public class BedrockClientPool {
+    private static final Logger log = LoggerFactory.getLogger(BedrockClientPool.class);
+    private static final int CLIENTS = Integer.parseInt(System.getenv().getOrDefault("BEDROCK_CLIENTS", "1"));
+    private static final int MAX_CONCURRENCY = Integer.parseInt(System.getenv().getOrDefault("BEDROCK_MAX_CONCURRENCY", "100"));
+    private static final int EVENT_LOOP_THREADS = Integer.parseInt(System.getenv().getOrDefault("BEDROCK_EVENT_LOOP_THREADS", "0"));
+    private static final BedrockClientPool INSTANCE = new BedrockClientPool();
+    private final SdkEventLoopGroup eventLoopGroup;
+    private final List<BedrockRuntimeAsyncClient> clients = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    private BedrockClientPool() {
+        SdkEventLoopGroup.Builder eventLoopBuilder = SdkEventLoopGroup.builder();
+        if (EVENT_LOOP_THREADS > 0) {
+            eventLoopBuilder.numberOfThreads(EVENT_LOOP_THREADS);
+        }
+        this.eventLoopGroup = eventLoopBuilder.build();
+        for (int i = 0; i < Math.max(1, CLIENTS); i++) {
+            NettyNioAsyncHttpClient.Builder nettyBuilder = NettyNioAsyncHttpClient.builder()
+                    .readTimeout(Duration.of(180, ChronoUnit.SECONDS))
+                    .maxConcurrency(MAX_CONCURRENCY)
+                    .eventLoopGroup(eventLoopGroup)
+                    .protocol(Protocol.HTTP2)
+                    .protocolNegotiation(ProtocolNegotiation.ALPN);
+
+            clients.add(BedrockRuntimeAsyncClient.builder()
+                    .region(Region.US_EAST_1)
+                    .httpClientBuilder(nettyBuilder)
+                    .build());
+        }
+        log.info("Created {} Bedrock client(s) for up to {} concurrent sessions each", clients.size(), MAX_CONCURRENCY);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "bedrock-client-shutdown"));
+    }
+
+    /**
+     * @return The process wide client pool.
+     */
+    public static BedrockClientPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return The client to open the next session on.
+     */
+    public BedrockRuntimeAsyncClient next() {
+        return clients.get(Math.floorMod(next.getAndIncrement(), clients.size()));
+    }
+
+    /**
+     * Closes the clients and their event loop group.
+     */
+    private void close() {
+        log.info("Closing Bedrock clients");
+        for (BedrockRuntimeAsyncClient client : clients) {
+            try {
+                client.close();
+            } catch (RuntimeException e) {
+                log.warn("Failed to close Bedrock client", e);
+            }
+        }
+        // The clients don't own a group they were given, so it is shut down here
+        eventLoopGroup.eventLoopGroup().shutdownGracefully(0, 5, TimeUnit.SECONDS).awaitUninterruptibly();
+    }
+}
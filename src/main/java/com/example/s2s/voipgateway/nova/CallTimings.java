@@ -0,0 +1,90 @@
+package com.example.s2s.voipgateway.nova;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times the stages of a call's setup from the moment its INVITE arrived, so that it is clear where setup time goes.
+ * Each stage is logged when it is first reached, and the whole breakdown when the call ends.
+ */
+public class CallTimings {
+    private static final Logger log = LoggerFactory.getLogger(CallTimings.class);
+    private final String call;
+    private final long start = System.nanoTime();
+    private final AtomicLongArray reached = new AtomicLongArray(Stage.values().length);
+
+    /**
+     * The stages of call setup, in the order they normally happen.  The first Nova audio usually comes after the
+     * first RTP packet, since Nova Sonic waits for the caller to speak while the greeting is played locally.
+     */
+    public enum Stage {
+        ANSWERED("answered"),
+        STREAM_OPEN("stream open"),
+        FIRST_RTP_OUT("first RTP out"),
+        FIRST_NOVA_AUDIO("first Nova audio");
+
+        private final String description;
+
+        Stage(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * Starts timing a call.
+     * @param call The call, as it should appear in log messages.
+     */
+    public CallTimings(String call) {
+        this.call = call;
+    }
+
+    /**
+     * Records that a stage has been reached.  Only the first time counts.
+     * @param stage The stage.
+     */
+    public void mark(Stage stage) {
+        if (reached.get(stage.ordinal()) != 0) {
+            return;
+        }
+        // Never 0, which means not reached
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        if (reached.compareAndSet(stage.ordinal(), 0, elapsed)) {
+            log.info("Call {}: {} {} ms after INVITE", call, stage, elapsed / 1_000_000);
+        }
+    }
+
+    /**
+     * @param stage The stage.
+     * @return Milliseconds from the INVITE to the stage, or -1 if it hasn't been reached.
+     */
+    public long getMillis(Stage stage) {
+        long elapsed = reached.get(stage.ordinal());
+        return elapsed != 0 ? elapsed / 1_000_000 : -1;
+    }
+
+    /**
+     * Logs the breakdown of every stage reached.
+     */
+    public void logBreakdown() {
+        if (log.isInfoEnabled()) {
+            log.info("Call {} setup: {}", call, this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder breakdown = new StringBuilder("INVITE");
+        for (Stage stage : Stage.values()) {
+            long millis = getMillis(stage);
+            breakdown.append(", ").append(stage).append(' ').append(millis >= 0 ? millis + " ms" : "not reached");
+        }
+        return breakdown.toString();
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.s2s.voipgateway.nova;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A compact transcript of a call, built from the text Nova Sonic sends back, so that a successor session can be told
+ * what has been said so far.  Only final text is kept: the caller's transcribed speech and what Nova actually said,
+ * not its speculative text or interruption markers.  Consecutive text from the same speaker is merged into one turn,
+ * and the oldest turns are dropped once the transcript exceeds NOVA_ROLLOVER_HISTORY_CHARS.
+ */
+class ConversationHistory {
+    static final int MAX_CHARS = Integer.parseInt(System.getenv().getOrDefault("NOVA_ROLLOVER_HISTORY_CHARS", "8000"));
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String ROLE_USER = "USER";
+    private static final String ROLE_ASSISTANT = "ASSISTANT";
+    private final int maxChars;
+    private final ArrayDeque<Turn> turns = new ArrayDeque<>();
+    // The text content blocks in progress, by content id, and whether each is final
+    private final Map<String, Boolean> textContent = new HashMap<>();
+    private int chars;
+
+    ConversationHistory() {
+        this(MAX_CHARS);
+    }
+
+    ConversationHistory(int maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Notes a contentStart event, to tell final text from speculative.
+     * @param node The contentStart event.
+     */
+    synchronized void onContentStart(JsonNode node) {
+        if (!node.has("contentId") || !"TEXT".equals(node.path("type").asText())) {
+            return;
+        }
+        textContent.put(node.get("contentId").asText(), !"SPECULATIVE".equals(generationStage(node)));
+    }
+
+    /**
+     * Records a textOutput event, if its text is final and from the caller or Nova.
+     * @param node The textOutput event.
+     */
+    synchronized void onTextOutput(JsonNode node) {
+        String contentId = node.path("contentId").asText(null);
+        // Text from a content block that wasn't seen starting is taken as final
+        if (contentId != null && !textContent.getOrDefault(contentId, true)) {
+            return;
+        }
+        String role = node.path("role").asText("").toUpperCase(Locale.ROOT);
+        if (!ROLE_USER.equals(role) && !ROLE_ASSISTANT.equals(role)) {
+            return;
+        }
+        String content = node.path("content").asText("").trim();
+        if (content.isEmpty() || isInterruption(content)) {
+            return;
+        }
+        add(role, content);
+    }
+
+    /**
+     * Notes a contentEnd event, which ends a text content block.
+     * @param node The contentEnd event.
+     */
+    synchronized void onContentEnd(JsonNode node) {
+        textContent.remove(node.path("contentId").asText());
+    }
+
+    /**
+     * @return A copy of the turns, oldest first.
+     */
+    synchronized List<Turn> getTurns() {
+        List<Turn> copy = new ArrayList<>(turns.size());
+        for (Turn turn : turns) {
+            copy.add(new Turn(turn.role, turn.content));
+        }
+        return copy;
+    }
+
+    private void add(String role, String content) {
+        Turn last = turns.peekLast();
+        if (last != null && last.role.equals(role)) {
+            chars -= last.content.length();
+            last.content = last.content + " " + content;
+            chars += last.content.length();
+        } else {
+            turns.add(new Turn(role, content));
+            chars += content.length();
+        }
+        while (chars > maxChars && turns.size() > 1) {
+            chars -= turns.removeFirst().content.length();
+        }
+        Turn newest = turns.peekLast();
+        if (chars > maxChars) {
+            // A single turn longer than the limit keeps its end
+            newest.content = newest.content.substring(newest.content.length() - maxChars);
+            chars = maxChars;
+        }
+    }
+
+    /**
+     * Reads the generation stage from a contentStart event's additionalModelFields, which is JSON in a string.
+     */
+    private static String generationStage(JsonNode node) {
+        JsonNode fields = node.get("additionalModelFields");
+        if (fields == null || !fields.isTextual()) {
+            return null;
+        }
+        try {
+            return OBJECT_MAPPER.readTree(fields.asText()).path("generationStage").asText(null);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks for the marker Nova Sonic sends in place of text when the caller barges in.
+     */
+    private static boolean isInterruption(String content) {
+        if (!content.startsWith("{")) {
+            return false;
+        }
+        try {
+            return OBJECT_MAPPER.readTree(content).path("interrupted").asBoolean(false);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * What one speaker said, between turns of the other.
+     */
+    static class Turn {
+        private final String role;
+        private String content;
+
+        Turn(String role, String content) {
+            this.role = role;
+            this.content = content;
+        }
+
+        String getRole() {
+            return role;
+        }
+
+        String getContent() {
+            return content;
+        }
+    }
+}
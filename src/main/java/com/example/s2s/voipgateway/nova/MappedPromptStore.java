@@ -0,0 +1,241 @@
+package com.example.s2s.voipgateway.nova;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A read-only store of pre-transcoded μ-law prompts packed into a single file, which is memory-mapped rather than
+ * read onto the heap.  Prompts are served as read-only slices of the mapping, so gateway processes on the same host
+ * share one copy through the page cache and nothing is decoded at startup.
+ *
+ * File layout (big-endian): magic "ULAW", version, prompt count, then for each prompt its UTF-8 name (length
+ * prefixed), data offset and data length, followed by the audio data.  Stores are limited to 2 GB and names to
+ * 65535 bytes.
+ *
+ * Prompts are named by their path relative to the root the store was packed from, with '/' separators, so that
+ * tenants/a/greeting.wav and tenants/b/greeting.wav are different prompts.  The gateway looks prompts up by the file
+ * name it would otherwise read relative to its working directory, or from the classpath, so the root is normally the
+ * directory the gateway runs in or the resources directory.
+ *
+ * Stores are built with {@link #pack(Path, Path, List)}, or from the command line:
+ * <pre>java -cp s2s-voip-gateway.jar com.example.s2s.voipgateway.nova.MappedPromptStore [-root dir] prompts.ulaw *.wav</pre>
+ */
+public class MappedPromptStore {
+    private static final int MAGIC = 0x554C4157;
+    private static final int VERSION = 1;
+    // Names are prefixed by an unsigned 16-bit length
+    private static final int MAX_NAME_BYTES = 0xFFFF;
+    private final Path path;
+    private final Map<String, ByteBuffer> prompts;
+
+    private MappedPromptStore(Path path, Map<String, ByteBuffer> prompts) {
+        this.path = path;
+        this.prompts = prompts;
+    }
+
+    /**
+     * Maps a prompt store.
+     *
+     * @param path The store file.
+     * @return The store.
+     * @throws IOException If the file can't be read or is not a prompt store.
+     */
+    public static MappedPromptStore open(Path path) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+                throw new IOException(path + " is not a version " + VERSION + " prompt store");
+            }
+            int count = data.getInt();
+            Map<String, ByteBuffer> prompts = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[data.getShort() & 0xFFFF];
+                data.get(name);
+                int offset = data.getInt();
+                int length = data.getInt();
+                ByteBuffer prompt = data.duplicate();
+                prompt.position(offset);
+                prompt.limit(offset + length);
+                prompts.put(new String(name, StandardCharsets.UTF_8), prompt.slice().asReadOnlyBuffer());
+            }
+            return new MappedPromptStore(path, Collections.unmodifiableMap(prompts));
+        } catch (RuntimeException e) {
+            throw new IOException(path + " is not a valid prompt store", e);
+        }
+    }
+
+    /**
+     * Looks up a prompt by file name.
+     *
+     * @param filename The prompt file name, relative to the working directory or the classpath.
+     * @return A read-only buffer of the μ-law audio, positioned at its start, or null if the store doesn't have it.
+     */
+    public ByteBuffer get(String filename) {
+        ByteBuffer prompt = prompts.get(nameOf(filename));
+        return prompt != null ? prompt.duplicate() : null;
+    }
+
+    /**
+     * @return The names of the prompts in the store.
+     */
+    public Set<String> names() {
+        return prompts.keySet();
+    }
+
+    @Override
+    public String toString() {
+        return path + " (" + prompts.size() + " prompts)";
+    }
+
+    /**
+     * Transcodes audio files and packs them into a new prompt store, naming each by its path relative to the working
+     * directory.
+     *
+     * @param store The store file to write.
+     * @param files The audio files, in any format AudioSystem can convert to 8000 Hz PCM.
+     * @throws IOException If a file can't be read, is outside the working directory, a name is longer than 65535
+     * bytes, or the store can't be written.
+     * @throws UnsupportedAudioFileException If a file is not a supported audio format.
+     */
+    public static void pack(Path store, List<Path> files) throws IOException, UnsupportedAudioFileException {
+        pack(store, Paths.get(""), files);
+    }
+
+    /**
+     * Transcodes audio files and packs them into a new prompt store, naming each by its path relative to a root.
+     *
+     * @param store The store file to write.
+     * @param root The directory prompt names are relative to.
+     * @param files The audio files, in any format AudioSystem can convert to 8000 Hz PCM.
+     * @throws IOException If a file can't be read, is outside the root, two files have the same name, a name is longer
+     * than 65535 bytes, or the store can't be written.
+     * @throws UnsupportedAudioFileException If a file is not a supported audio format.
+     */
+    public static void pack(Path store, Path root, List<Path> files) throws IOException, UnsupportedAudioFileException {
+        Path base = root.toAbsolutePath().normalize();
+        Map<String, byte[]> audio = new LinkedHashMap<>();
+        for (Path file : files) {
+            Path relative = base.relativize(file.toAbsolutePath().normalize());
+            if (relative.startsWith("..")) {
+                throw new IOException(file + " is not under " + base);
+            }
+            String name = nameOf(relative);
+            if (audio.containsKey(name)) {
+                throw new IOException("More than one prompt is named " + name);
+            }
+            if (name.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES) {
+                throw new IOException("Prompt name is longer than " + MAX_NAME_BYTES + " bytes: "
+                        + name.substring(0, 64) + "...");
+            }
+            try (InputStream is = Files.newInputStream(file)) {
+                audio.put(name, PromptLibrary.decode(is));
+            }
+        }
+
+        long offset = 12;
+        for (String name : audio.keySet()) {
+            offset += 2 + name.getBytes(StandardCharsets.UTF_8).length + 8;
+        }
+        // Written alongside and moved into place, so a gateway with the old store mapped never sees it truncated.
+        // Not Files.createTempFile, whose owner-only permissions would keep other users' gateways from the store.
+        Path temporary = store.toAbsolutePath().resolveSibling(store.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            write(temporary, audio, offset);
+            Files.move(temporary, store, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Writes the header and audio of a prompt store.
+     *
+     * @param offset The offset of the first prompt's audio, just past the header.
+     */
+    private static void write(Path store, Map<String, byte[]> audio, long offset) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(store, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(audio.size());
+            for (Map.Entry<String, byte[]> entry : audio.entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                if (offset + entry.getValue().length > Integer.MAX_VALUE) {
+                    throw new IOException("Prompt store would exceed 2 GB");
+                }
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeInt((int) offset);
+                out.writeInt(entry.getValue().length);
+                offset += entry.getValue().length;
+            }
+            for (byte[] data : audio.values()) {
+                out.write(data);
+            }
+        }
+    }
+
+    /**
+     * Builds a prompt store from the command line.
+     * @param args Optionally -root and the directory prompt names are relative to, then the store file, followed by
+     *             the audio files to pack.
+     */
+    public static void main(String[] args) throws Exception {
+        Path root = Paths.get("");
+        int first = 0;
+        if (args.length > 1 && "-root".equals(args[0])) {
+            root = Paths.get(args[1]);
+            first = 2;
+        }
+        if (args.length - first < 2) {
+            System.err.println("Usage: MappedPromptStore [-root <dir>] <store file> <audio file>...");
+            System.exit(1);
+        }
+        List<Path> files = new ArrayList<>();
+        for (int i = first + 1; i < args.length; i++) {
+            files.add(Paths.get(args[i]));
+        }
+        pack(Paths.get(args[first]), root, files);
+        System.out.println("Wrote " + open(Paths.get(args[first])));
+    }
+
+    /**
+     * Names the prompt for a file name as the gateway is given it.  Absolute names under the working directory are
+     * made relative to it.
+     */
+    private static String nameOf(String filename) {
+        Path path = Paths.get(filename).normalize();
+        if (path.isAbsolute()) {
+            Path workingDirectory = Paths.get("").toAbsolutePath();
+            if (path.startsWith(workingDirectory)) {
+                path = workingDirectory.relativize(path);
+            }
+        }
+        return nameOf(path);
+    }
+
+    /**
+     * Joins a relative path with '/', whatever the platform's separator, so stores are portable.
+     */
+    private static String nameOf(Path relative) {
+        StringJoiner name = new StringJoiner("/");
+        for (Path part : relative) {
+            name.add(part.toString());
+        }
+        return name.toString();
+    }
+}
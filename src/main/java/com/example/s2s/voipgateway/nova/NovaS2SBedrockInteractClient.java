@@ -2,18 +2,17 @@ package com.example.s2s.voipgateway.nova;
 
 
 import com.example.s2s.voipgateway.nova.event.*;
+import com.example.s2s.voipgateway.nova.observer.BootstrapTemplate;
+import com.example.s2s.voipgateway.nova.observer.InputEventPublisher;
 import com.example.s2s.voipgateway.nova.observer.InputEventsInteractObserver;
 import com.example.s2s.voipgateway.nova.observer.InteractObserver;
-import io.reactivex.rxjava3.processors.ReplayProcessor;
-import io.reactivex.rxjava3.schedulers.Schedulers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
-import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidirectionalStreamInput;
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidirectionalStreamRequest;
 
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Client for setting up Nova Sonic asynchronous streams.
@@ -30,58 +29,46 @@ public class NovaS2SBedrockInteractClient {
 
     /**
      * Opens a new bidirectional stream with Nova Sonic.
-     * @param sessionStartEvent The SessionStartEvent
-     * @param promptStartEvent The PromptStartEvent
-     * @param systemPrompt The system prompt
+     * @param bootstrapEvents The serialized events that open the session: session start, prompt start and the
+     *                        system prompt, as rendered from a {@link BootstrapTemplate}.
      * @param eventHandler The event handler for the session.
      * @return An observer for outbound events.
      */
     public InteractObserver<NovaSonicEvent> interactMultimodal(
-            SessionStartEvent sessionStartEvent,
-            PromptStartEvent promptStartEvent,
-            TextInputEvent systemPrompt,
+            List<byte[]> bootstrapEvents,
             NovaS2SEventHandler eventHandler
     ) {
         InvokeModelWithBidirectionalStreamRequest request = InvokeModelWithBidirectionalStreamRequest.builder()
                 .modelId(modelId)
                 .build();
 
-        // we expire the messages after one minute to save memory after connection as this is aligned with the timeout
-        ReplayProcessor<InvokeModelWithBidirectionalStreamInput> publisher = ReplayProcessor.createWithTime(
-                1, TimeUnit.MINUTES, Schedulers.io()
-        );
+        // Holds events only until the SDK asks for them, apart from the bootstrap events
+        InputEventPublisher publisher = new InputEventPublisher();
+        InputEventsInteractObserver inputObserver = new InputEventsInteractObserver(publisher);
         NovaS2SResponseHandler responseHandler = new NovaS2SResponseHandler(eventHandler);
         log.info("Invoking model with bidirectional stream ...");
-        CompletableFuture<Void> completableFuture = bedrockClient.invokeModelWithBidirectionalStream(request, publisher, responseHandler);
+        CompletableFuture<Void> completableFuture = bedrockClient.invokeModelWithBidirectionalStream(request, publisher,
+                responseHandler);
 
         // if the request fails make sure to tell the publisher to close down properly
         completableFuture.exceptionally(throwable -> {
             log.error("Bedrock error:", throwable);
-            publisher.onError(throwable);
+            publisher.fail(throwable);
             return null;
         });
 
         // if the request finishes make sure to close the publisher properly
         completableFuture.thenApply(result -> {
-            publisher.onComplete();
+            publisher.complete();
             return result;
         });
 
-        InputEventsInteractObserver inputObserver = new InputEventsInteractObserver(publisher);
-
-        // send the session start
-        log.info("Sending session start event ...");
-        inputObserver.onNext(sessionStartEvent);
-        log.info("Sending prompt start event ...");
-        inputObserver.onNext(promptStartEvent);
-
-        log.info("Sending system prompt ...");
-        inputObserver.onNext(ContentStartEvent.createTextContentStart(systemPrompt.getTextInput().getPromptName(),
-                systemPrompt.getTextInput().getContentName()));
-        inputObserver.onNext(systemPrompt);
-        inputObserver.onNext(ContentEndEvent.create(systemPrompt.getTextInput().getPromptName(),
-                systemPrompt.getTextInput().getContentName()));
-
+        // send the session start, prompt start and system prompt
+        log.info("Sending session bootstrap events ...");
+        for (byte[] event : bootstrapEvents) {
+            inputObserver.onNext(event);
+        }
+        inputObserver.endBootstrap();
 
         log.info("Input observer ready");
         return inputObserver;
@@ -4,6 +4,8 @@ import com.example.s2s.voipgateway.nova.event.PromptStartEvent;
 import com.example.s2s.voipgateway.nova.event.NovaSonicEvent;
 import com.example.s2s.voipgateway.nova.observer.InteractObserver;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.io.InputStream;
 
@@ -45,6 +47,20 @@ public interface NovaS2SEventHandler {
      */
     void handleAudioOutput(JsonNode node);
 
+    /**
+     * Handles the audio of an audioOutput event, read without building a JsonNode or a String.  This is the callback
+     * the response handler uses; the default implementation passes the content and role to
+     * {@link #handleAudioOutput(JsonNode)}, so handlers that only implement that keep working.
+     * @param role The role, or null if the event has none.
+     * @param base64 The Base64 encoded 16 bit little endian PCM audio, which is only valid until this method returns.
+     */
+    default void handleAudioOutput(String role, CharSequence base64) {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("content", base64.toString());
+        node.put("role", role);
+        handleAudioOutput(node);
+    }
+
     /**
      * Handles a contentEnd event.
      * @param node
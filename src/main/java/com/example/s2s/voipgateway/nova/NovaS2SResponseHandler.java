@@ -2,8 +2,13 @@ package com.example.s2s.voipgateway.nova;
 
 import static software.amazon.awssdk.thirdparty.io.netty.util.internal.ObjectUtil.checkNotNull;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.async.SdkPublisher;
@@ -12,8 +17,10 @@ import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidir
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidirectionalStreamResponse;
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidirectionalStreamResponseHandler;
 
+import java.io.IOException;
+import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Asynchronous response handler for Amazon Nova Sonic sessions.
@@ -21,8 +28,25 @@ import java.util.concurrent.CompletableFuture;
 public class NovaS2SResponseHandler implements InvokeModelWithBidirectionalStreamResponseHandler {
     private static final Logger log = LoggerFactory.getLogger(NovaS2SResponseHandler.class);
     public static final String TYPE_TOOL = "TOOL";
+    private static final int EVENT_WINDOW = Integer.parseInt(System.getenv().getOrDefault("RESPONSE_EVENT_WINDOW", "32"));
+    private static final AtomicInteger SESSION_COUNT = new AtomicInteger();
     private final NovaS2SEventHandler handler;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    // Events are handled here rather than on the SDK's I/O thread, which is shared with other calls
+    private final SerialExecutor events = new SerialExecutor("nova-session-" + SESSION_COUNT.incrementAndGet());
+    // Only used by the event executor, one event at a time.  Only grows to the largest audio chunk Nova Sonic sends.
+    private CharBuffer audioText = CharBuffer.allocate(16384);
+    private final Visitor chunkVisitor = new Visitor() {
+        @Override
+        public void visitChunk(BidirectionalOutputPayloadPart event) {
+            // Parsed in place; the SDK doesn't reuse the array
+            byte[] payload = event.bytes().asByteArrayUnsafe();
+            if (debugResponses) {
+                log.debug("Received chunk: {}", new String(payload, StandardCharsets.UTF_8));
+            }
+            handleJsonResponse(payload);
+        }
+    };
     private String toolUseId;
     private String toolUseContent;
     private String toolName;
@@ -41,74 +65,45 @@ public class NovaS2SResponseHandler implements InvokeModelWithBidirectionalStrea
     @Override
     public void onEventStream(SdkPublisher<InvokeModelWithBidirectionalStreamOutput> sdkPublisher) {
         log.info("Bedrock Nova S2S event stream received");
-        CompletableFuture<Void> completableFuture = sdkPublisher.subscribe((output) -> output.accept(new Visitor() {
-            @Override
-            public void visitChunk(BidirectionalOutputPayloadPart event) {
-                String payloadString =
-                        StandardCharsets.UTF_8.decode((event.bytes().asByteBuffer().rewind().duplicate())).toString();
-                if (debugResponses) {
-                    log.debug("Received chunk: {}", payloadString);
-                }
-                handleJsonResponse(payloadString);
-            }
-        }));
-
-        // if any of the chunks fail to parse or be handled ensure to send an error or they will get lost
-        completableFuture.exceptionally(t -> {
-            log.error("Event stream error", t);
-            handler.onError(new Exception(t));
-            return null;
-        });
-
-        handler.onStart();
+        events.execute(handler::onStart);
+        sdkPublisher.subscribe(new EventSubscriber());
     }
 
     @Override
     public void exceptionOccurred(Throwable t) {
-        log.error("Event stream error, exception occurred", t);
-        handler.onError(new Exception(t));
+        events.execute(() -> {
+            log.error("Event stream error, exception occurred", t);
+            handler.onError(new Exception(t));
+        });
     }
 
     @Override
     public void complete() {
-        log.info("Event stream complete");
-        handler.onComplete();
+        // Queued behind any events still being handled
+        events.execute(() -> {
+            log.info("Event stream complete");
+            handler.onComplete();
+        });
     }
 
     /**
-     * Handles a JSON response from the event stream.
-     * @param msg The JSON string to be handled
+     * Handles a JSON response from the event stream.  The payload is read with a streaming parser, so audioOutput
+     * content is copied as Base64 text into a reusable buffer, for the handler to decode straight to μ-law, without
+     * ever becoming a String or a JsonNode.  Other events are small and are read into a JsonNode for the handler.
+     * @param payload The UTF-8 JSON payload.
      */
-    private void handleJsonResponse(String msg) {
-        try {
-            JsonNode rootNode = objectMapper.readTree(msg);
-            JsonNode eventNode = rootNode.get("event");
-
-            if (eventNode != null) {
-                if (eventNode.has("completionStart")) {
-                    handler.handleCompletionStart(eventNode.get("completionStart"));
-                } else if (eventNode.has("contentStart")) {
-                    handler.handleContentStart(eventNode.get("contentStart"));
-                } else if (eventNode.has("textInput")) {
-                    handler.handleTextInput(eventNode.get("textInput"));
-                } else if (eventNode.has("textOutput")) {
-                    handler.handleTextOutput(eventNode.get("textOutput"));
-                } else if (eventNode.has("audioOutput")) {
-                    handler.handleAudioOutput(eventNode.get("audioOutput"));
-                } else if (eventNode.has("toolUse")) {
-                    toolUseId = eventNode.get("toolUse").get("toolUseId").asText();
-                    toolName = eventNode.get("toolUse").get("toolName").asText();
-                    toolUseContent = eventNode.get("toolUse").get("content").asText();
-                } else if (eventNode.has("contentEnd")) {
-                    if (TYPE_TOOL.equals(eventNode.get("contentEnd").get("type").asText())) {
-                        handler.handleToolUse(eventNode, toolUseId, toolName, toolUseContent);
-                    }
-                } else if (eventNode.has("contentEnd")) {
-                    handler.handleContentEnd(eventNode.get("contentEnd"));
-                } else if (eventNode.has("completionEnd")) {
-                    handler.handleCompletionEnd(eventNode.get("completionEnd"));
+    private void handleJsonResponse(byte[] payload) {
+        try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                log.info("Unhandled response: {}", new String(payload, StandardCharsets.UTF_8));
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                if (parser.nextToken() == JsonToken.START_OBJECT && "event".equals(field)) {
+                    handleEvent(parser);
                 } else {
-                    log.info("Unhandled event: {}", eventNode);
+                    parser.skipChildren();
                 }
             }
         } catch (Exception e) {
@@ -116,4 +111,135 @@ public class NovaS2SResponseHandler implements InvokeModelWithBidirectionalStrea
             handler.onError(e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Dispatches the members of an event object, which is normally just one, by their type.
+     */
+    private void handleEvent(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String type = parser.currentName();
+            parser.nextToken();
+            if ("audioOutput".equals(type)) {
+                handleAudioOutput(parser);
+                continue;
+            }
+            JsonNode node = objectMapper.readTree(parser);
+            switch (type) {
+                case "completionStart":
+                    handler.handleCompletionStart(node);
+                    break;
+                case "contentStart":
+                    handler.handleContentStart(node);
+                    break;
+                case "textInput":
+                    handler.handleTextInput(node);
+                    break;
+                case "textOutput":
+                    handler.handleTextOutput(node);
+                    break;
+                case "toolUse":
+                    toolUseId = node.get("toolUseId").asText();
+                    toolName = node.get("toolName").asText();
+                    toolUseContent = node.get("content").asText();
+                    break;
+                case "contentEnd":
+                    handler.handleContentEnd(node);
+                    if (TYPE_TOOL.equals(node.path("type").asText())) {
+                        ObjectNode eventNode = objectMapper.createObjectNode();
+                        eventNode.set("contentEnd", node);
+                        handler.handleToolUse(eventNode, toolUseId, toolName, toolUseContent);
+                    }
+                    break;
+                case "completionEnd":
+                    handler.handleCompletionEnd(node);
+                    break;
+                default:
+                    log.info("Unhandled event: {} {}", type, node);
+            }
+        }
+    }
+
+    /**
+     * Reads an audioOutput event.  Fields other than content and role are skipped.  The content is held until the
+     * end of the event, since the role may follow it.
+     */
+    private void handleAudioOutput(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        String role = null;
+        boolean hasContent = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_STRING && "content".equals(field)) {
+                // The parser's own characters, which are only valid until the next token
+                int length = parser.getTextLength();
+                if (audioText.capacity() < length) {
+                    audioText = CharBuffer.allocate(length);
+                }
+                audioText.clear();
+                audioText.put(parser.getTextCharacters(), parser.getTextOffset(), length);
+                audioText.flip();
+                hasContent = true;
+            } else if (token == JsonToken.VALUE_STRING && "role".equals(field)) {
+                role = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (hasContent) {
+            handler.handleAudioOutput(role, audioText);
+        }
+    }
+
+    /**
+     * Takes events off the SDK's I/O thread.  At most RESPONSE_EVENT_WINDOW events are requested ahead of the ones
+     * being handled, so a call that falls behind stops reading from its stream instead of queueing without bound.
+     */
+    private class EventSubscriber implements Subscriber<InvokeModelWithBidirectionalStreamOutput> {
+        private Subscription subscription;
+        // Only used by the event executor
+        private boolean failed;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            // Demand is always signalled from the executor, so requests and cancellation never overlap
+            events.execute(() -> subscription.request(EVENT_WINDOW));
+        }
+
+        @Override
+        public void onNext(InvokeModelWithBidirectionalStreamOutput output) {
+            events.execute(() -> {
+                if (failed) {
+                    return;
+                }
+                try {
+                    output.accept(chunkVisitor);
+                } catch (RuntimeException e) {
+                    // if any of the chunks fail to be handled ensure to send an error or they will get lost
+                    failed = true;
+                    subscription.cancel();
+                    log.error("Event stream error", e);
+                    handler.onError(e);
+                    return;
+                }
+                subscription.request(1);
+            });
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            events.execute(() -> {
+                log.error("Event stream error", t);
+                handler.onError(new Exception(t));
+            });
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
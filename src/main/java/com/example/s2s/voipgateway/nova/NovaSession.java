@@ -0,0 +1,74 @@
+package com.example.s2s.voipgateway.nova;
+
+import com.example.s2s.voipgateway.nova.event.NovaSonicEvent;
+import com.example.s2s.voipgateway.nova.event.PromptEndEvent;
+import com.example.s2s.voipgateway.nova.observer.InteractObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An open Nova Sonic session that has been sent its bootstrap events, and may not have a call yet.
+ */
+class NovaSession {
+    private static final Logger log = LoggerFactory.getLogger(NovaSession.class);
+    private final String promptName;
+    private final InteractObserver<NovaSonicEvent> outbound;
+    private final AttachableEventHandler eventHandler;
+    private final long openedAt = System.nanoTime();
+
+    NovaSession(String promptName, InteractObserver<NovaSonicEvent> outbound, AttachableEventHandler eventHandler) {
+        this.promptName = promptName;
+        this.outbound = outbound;
+        this.eventHandler = eventHandler;
+    }
+
+    String getPromptName() {
+        return promptName;
+    }
+
+    InteractObserver<NovaSonicEvent> getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Hands the session to a call.  Events held since the session opened, such as the start of the event stream,
+     * are delivered to the handler before this returns.
+     * @param handler The call's event handler.  Its outbound observer should already be set.
+     */
+    void attach(NovaS2SEventHandler handler) {
+        eventHandler.attach(handler);
+    }
+
+    /**
+     * Stops delivering the session's events to its call, once a successor has taken over.
+     */
+    void detach() {
+        eventHandler.detach();
+    }
+
+    /**
+     * @return true if the stream has failed or completed.
+     */
+    boolean isClosed() {
+        return eventHandler.isClosed();
+    }
+
+    /**
+     * @return Milliseconds since the session was opened.
+     */
+    long getAgeMillis() {
+        return (System.nanoTime() - openedAt) / 1_000_000;
+    }
+
+    /**
+     * Ends a session that was never given to a call, or that has been detached from it.
+     */
+    void close() {
+        try {
+            outbound.onNext(PromptEndEvent.create(promptName));
+            outbound.onComplete();
+        } catch (RuntimeException e) {
+            log.warn("Failed to close session {}", promptName, e);
+        }
+    }
+}
@@ -8,9 +8,12 @@ import com.example.s2s.voipgateway.nova.tools.DateTimeNovaS2SEventHandler;
 import com.example.s2s.voipgateway.NovaMediaConfig;
 import com.example.s2s.voipgateway.NovaSonicAudioInput;
 import com.example.s2s.voipgateway.NovaSonicAudioOutput;
+import com.example.s2s.voipgateway.nova.observer.BootstrapTemplate;
 import com.example.s2s.voipgateway.nova.observer.InteractObserver;
+import com.example.s2s.voipgateway.nova.transcode.AudioKernels;
 import org.mjsip.media.AudioStreamer;
 import org.mjsip.media.FlowSpec;
+import org.mjsip.media.MediaDesc;
 import org.mjsip.media.MediaStreamer;
 import org.mjsip.media.StreamerOptions;
 import org.mjsip.media.rx.AudioReceiver;
@@ -18,16 +21,13 @@ import org.mjsip.media.tx.AudioTransmitter;
 import org.mjsip.ua.streamer.StreamerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.http.Protocol;
-import software.amazon.awssdk.http.ProtocolNegotiation;
-import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
-
-import java.time.Duration;
-import java.time.temporal.ChronoUnit;
+
 import java.util.*;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * StreamerFactory implementation for Amazon Nova Sonic.
@@ -35,59 +35,165 @@ import java.util.concurrent.Executor;
 public class NovaStreamerFactory implements StreamerFactory {
     private static final Logger log = LoggerFactory.getLogger(NovaStreamerFactory.class);
     private static final String ROLE_SYSTEM = "SYSTEM";
+    private static final String MODEL_ID = "amazon.nova-sonic-v1:0";
+    // The SIP transaction timeout, 64 * T1; a call that has no media by then never will
+    private static final long SETUP_TIMEOUT_SECONDS = 32;
+    private static final ScheduledExecutorService SETUP_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "nova-call-setup");
+        thread.setDaemon(true);
+        return thread;
+    });
     private final NovaMediaConfig mediaConfig;
+    private final WarmSessionPool sessionPool;
+    private BootstrapTemplate bootstrapTemplate;
 
     public NovaStreamerFactory(NovaMediaConfig mediaConfig) {
         this.mediaConfig = mediaConfig;
+        log.info("Using {} audio kernels", AudioKernels.implementation());
+        // Created up front so the first call doesn't pay for it
+        BedrockClientPool.getInstance();
+        PromptLibrary.getInstance().preload(AbstractNovaS2SEventHandler.GREETING_FILENAME,
+                AbstractNovaS2SEventHandler.ERROR_AUDIO_FILE);
+        this.sessionPool = WarmSessionPool.SIZE > 0 ? new WarmSessionPool(this::openSession) : null;
     }
 
     @Override
     public MediaStreamer createMediaStreamer(Executor executor, FlowSpec flowSpec) {
-        log.info("Creating Nova streamer ...");
-        NettyNioAsyncHttpClient.Builder nettyBuilder = NettyNioAsyncHttpClient.builder()
-                .readTimeout(Duration.of(180, ChronoUnit.SECONDS))
-                .maxConcurrency(20)
-                .protocol(Protocol.HTTP2)
-                .protocolNegotiation(ProtocolNegotiation.ALPN);
-
-        BedrockRuntimeAsyncClient client = BedrockRuntimeAsyncClient.builder()
-                .region(Region.US_EAST_1)
-                .httpClientBuilder(nettyBuilder)
-                .build();
+        return prepareCall(new CallTimings("unknown"), null).createMediaStreamer(executor, flowSpec);
+    }
 
-        String promptName = UUID.randomUUID().toString();
+    /**
+     * Starts setting up a call as soon as its INVITE arrives.  The Nova Sonic session is taken or opened and the
+     * call's event handler attached straight away, so the stream connects while the call is answered and SDP is
+     * negotiated rather than after, and the cached greeting is queued before the first RTP packet goes out.
+     * @param callTimings The call's setup timings.
+     * @param remoteMediaDescs The caller's media descriptions from its SDP offer, or null if they aren't known.
+     * @return The streamer factory to answer the call with.
+     */
+    public StreamerFactory prepareCall(CallTimings callTimings, MediaDesc[] remoteMediaDescs) {
+        return new CallSetup(callTimings, remoteMediaDescs);
+    }
 
-        NovaS2SBedrockInteractClient novaClient = new NovaS2SBedrockInteractClient(client, "amazon.nova-sonic-v1:0");
-        DateTimeNovaS2SEventHandler eventHandler = new DateTimeNovaS2SEventHandler();
+    /**
+     * Opens a Nova Sonic session and sends its bootstrap events.  The session's events are held until a call's
+     * event handler is attached.
+     * @return The session.
+     */
+    private NovaSession openSession() {
+        return openSession(UUID.randomUUID().toString());
+    }
 
+    /**
+     * Opens a Nova Sonic session with a given prompt name, such as a successor to a call's session, which keeps the
+     * call's prompt name so its audio can move across unchanged.
+     * @param promptName The prompt name, a UUID.
+     * @return The session.
+     */
+    private NovaSession openSession(String promptName) {
+        NovaS2SBedrockInteractClient novaClient = new NovaS2SBedrockInteractClient(BedrockClientPool.getInstance().next(),
+                MODEL_ID);
         log.info("Using system prompt: {}", mediaConfig.getNovaPrompt());
-
+        AttachableEventHandler eventHandler = new AttachableEventHandler();
         InteractObserver<NovaSonicEvent> inputObserver = novaClient.interactMultimodal(
-                createSessionStartEvent(),
-                createPromptStartEvent(promptName, eventHandler),
-                createSystemPrompt(promptName, mediaConfig.getNovaPrompt()),
+                getBootstrapTemplate().render(promptName, UUID.randomUUID().toString()),
                 eventHandler);
+        return new NovaSession(promptName, inputObserver, eventHandler);
+    }
 
-        eventHandler.setOutbound(inputObserver);
-        AudioTransmitter tx = new NovaSonicAudioInput(eventHandler);
-        AudioReceiver rx = new NovaSonicAudioOutput(inputObserver, promptName, eventHandler);
+    /**
+     * Gets the template for the events that open each session.  Everything in them but the prompt and content names
+     * comes from this factory's configuration and the tool configuration, so they are serialized once, for the first
+     * session, rather than at every INVITE.
+     * @return The template.
+     */
+    private synchronized BootstrapTemplate getBootstrapTemplate() {
+        if (bootstrapTemplate == null) {
+            // Sessions may be opened before their call, so the tools come from a handler made for the purpose
+            PromptStartEvent.ToolConfiguration toolConfiguration = createEventHandler().getToolConfiguration();
+            bootstrapTemplate = new BootstrapTemplate((promptName, contentName) -> Arrays.asList(
+                    createSessionStartEvent(),
+                    createPromptStartEvent(promptName, toolConfiguration),
+                    ContentStartEvent.createTextContentStart(promptName, contentName),
+                    createSystemPrompt(promptName, contentName, mediaConfig.getNovaPrompt()),
+                    ContentEndEvent.create(promptName, contentName)));
+        }
+        return bootstrapTemplate;
+    }
 
-        StreamerOptions options = StreamerOptions.builder()
-                .setRandomEarlyDrop(mediaConfig.getRandomEarlyDropRate())
-                .setSymmetricRtp(mediaConfig.isSymmetricRtp())
-                .build();
+    /**
+     * Creates the event handler for a call.  Override to use a handler of your own.  Sessions are opened before their
+     * calls, so every session is offered the tools from getToolConfiguration() on a handler created once, for the
+     * first session; a handler's tools must not depend on its call.
+     * @return The event handler.
+     */
+    protected AbstractNovaS2SEventHandler createEventHandler() {
+        return new DateTimeNovaS2SEventHandler();
+    }
 
-        log.debug("Created AudioStreamer");
-        return new AudioStreamer(executor, flowSpec, tx, rx, options);
+    /**
+     * A call's Nova Sonic session, set up ahead of its media.
+     */
+    private class CallSetup implements StreamerFactory {
+        private final CallTimings callTimings;
+        private final MediaDesc[] remoteMediaDescs;
+        private final SessionRollover session;
+        private final AbstractNovaS2SEventHandler eventHandler = createEventHandler();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        CallSetup(CallTimings callTimings, MediaDesc[] remoteMediaDescs) {
+            this.callTimings = callTimings;
+            this.remoteMediaDescs = remoteMediaDescs;
+            NovaSession warm = sessionPool != null ? sessionPool.take() : null;
+            if (warm == null) {
+                warm = openSession();
+            } else {
+                log.info("Using warm session {}, opened {} ms ago", warm.getPromptName(), warm.getAgeMillis());
+            }
+            // The call's events go through the rollover, which moves them to a successor session when this one ages
+            this.session = new SessionRollover(warm, eventHandler, NovaStreamerFactory.this::openSession);
+            eventHandler.setCallTimings(callTimings);
+            eventHandler.setOutbound(session);
+            eventHandler.setSessionRollover(session);
+            warm.attach(eventHandler);
+            eventHandler.playGreeting();
+            // A call that is cancelled or fails before its media starts must not leave its session open
+            SETUP_TIMER.schedule(this::abandon, SETUP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public MediaStreamer createMediaStreamer(Executor executor, FlowSpec flowSpec) {
+            if (!claimed.compareAndSet(false, true)) {
+                // The session has been used or abandoned; a later media session gets one of its own
+                return prepareCall(callTimings, remoteMediaDescs).createMediaStreamer(executor, flowSpec);
+            }
+            log.info("Creating Nova streamer ...");
+            AudioTransmitter tx = new NovaSonicAudioInput(eventHandler, callTimings, remoteMediaDescs);
+            AudioReceiver rx = new NovaSonicAudioOutput(session, session.getPromptName(), eventHandler);
+
+            StreamerOptions options = StreamerOptions.builder()
+                    .setRandomEarlyDrop(mediaConfig.getRandomEarlyDropRate())
+                    .setSymmetricRtp(mediaConfig.isSymmetricRtp())
+                    .build();
+
+            log.debug("Created AudioStreamer");
+            return new AudioStreamer(executor, flowSpec, tx, rx, options);
+        }
+
+        private void abandon() {
+            if (claimed.compareAndSet(false, true)) {
+                log.info("No media for session {} after {} s, closing it", session.getPromptName(), SETUP_TIMEOUT_SECONDS);
+                session.close();
+            }
+        }
     }
 
     /**
      * Creates the PromptStart event.
      * @param promptName The prompt name for the session.
-     * @param eventHandler The event handler for the session.
+     * @param toolConfiguration The tools available to the session.
      * @return The PromptStartEvent
      */
-    private PromptStartEvent createPromptStartEvent(String promptName, NovaS2SEventHandler eventHandler) {
+    private PromptStartEvent createPromptStartEvent(String promptName, PromptStartEvent.ToolConfiguration toolConfiguration) {
         return new PromptStartEvent(PromptStartEvent.PromptStart.builder()
                 .promptName(promptName)
                 .textOutputConfiguration(MediaConfiguration.builder().mediaType(MediaTypes.TEXT_PLAIN).build())
@@ -101,7 +207,7 @@ public class NovaStreamerFactory implements StreamerFactory {
                         .audioType(SonicAudioTypes.SPEECH)
                         .build())
                 .toolUseOutputConfiguration(MediaConfiguration.builder().mediaType(MediaTypes.APPLICATION_JSON).build())
-                .toolConfiguration(eventHandler.getToolConfiguration())
+                .toolConfiguration(toolConfiguration)
                 .build());
     }
 
@@ -122,13 +228,14 @@ public class NovaStreamerFactory implements StreamerFactory {
     /**
      * Creates the system prompt.
      * @param promptName The prompt name for the session.
+     * @param contentName The content name for the system prompt.
      * @param systemPrompt The system prompt.
      * @return The system prompt as a TextInputEvent.
      */
-    private static TextInputEvent createSystemPrompt(String promptName, String systemPrompt) {
+    private static TextInputEvent createSystemPrompt(String promptName, String contentName, String systemPrompt) {
         return new TextInputEvent(TextInputEvent.TextInput.builder()
                 .promptName(promptName)
-                .contentName(UUID.randomUUID().toString())
+                .contentName(contentName)
                 .content(systemPrompt)
                 .role(ROLE_SYSTEM)
                 .build());
@@ -0,0 +1,154 @@
+package com.example.s2s.voipgateway.nova;
+
+import com.example.s2s.voipgateway.nova.io.QueuedUlawInputStream;
+import com.example.s2s.voipgateway.nova.transcode.PcmToULawTranscoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of prompt audio, such as the greeting and error sounds.  Each prompt file is read, converted
+ * and transcoded to μ-law once, either when preloaded at startup or on first use, and every call then plays the
+ * same immutable buffer without copying it.
+ *
+ * If PROMPT_STORE names a {@link MappedPromptStore}, prompts found there are played straight from the mapped file
+ * and are never decoded.
+ */
+public class PromptLibrary {
+    private static final Logger log = LoggerFactory.getLogger(PromptLibrary.class);
+    private static final AudioFormat PCM_FORMAT = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 8000, 16, 1, 2, 8000, false);
+    private static final PromptLibrary INSTANCE = new PromptLibrary();
+    // Never modified once stored
+    private final Map<String, byte[]> prompts = new ConcurrentHashMap<>();
+    private final MappedPromptStore store;
+
+    private PromptLibrary() {
+        this.store = openStore(System.getenv("PROMPT_STORE"));
+    }
+
+    /**
+     * @return The process wide prompt library.
+     */
+    public static PromptLibrary getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Loads prompts ahead of the first call.  Prompts that can't be found or decoded are logged and skipped.
+     * @param filenames The prompt file names, either relative to the working directory or in the classpath.
+     */
+    public void preload(String... filenames) {
+        for (String filename : filenames) {
+            if (store != null && store.get(filename) != null) {
+                continue;
+            }
+            try {
+                byte[] audio = get(filename);
+                if (audio != null) {
+                    log.info("Preloaded {} ({} ms)", filename, audio.length / 8);
+                }
+            } catch (FileNotFoundException e) {
+                log.info("{} not found, it will not be preloaded", filename);
+            }
+        }
+    }
+
+    /**
+     * Queues a prompt for playback.
+     * @param filename The prompt file name, either relative to the working directory or in the classpath.
+     * @param stream The stream to queue the prompt on.
+     * @throws FileNotFoundException If the prompt doesn't exist.
+     * @throws InterruptedException If interrupted while queueing the audio.
+     */
+    public void play(String filename, QueuedUlawInputStream stream) throws FileNotFoundException, InterruptedException {
+        ByteBuffer stored = store != null ? store.get(filename) : null;
+        if (stored != null) {
+            stream.appendUlaw(stored);
+            log.debug("Wrote audio from {} in {} to output stream ...", filename, store);
+            return;
+        }
+        byte[] audio = get(filename);
+        if (audio != null) {
+            stream.appendUlaw(ByteBuffer.wrap(audio).asReadOnlyBuffer());
+            log.debug("Wrote audio from {} to output stream ...", filename);
+        }
+    }
+
+    /**
+     * Gets a prompt, loading it if this is its first use.
+     * @return The μ-law audio, or null if the file couldn't be decoded.
+     */
+    private byte[] get(String filename) throws FileNotFoundException {
+        byte[] audio = prompts.get(filename);
+        if (audio == null) {
+            // Two calls racing on the first use may both load the file, which is harmless
+            audio = load(filename);
+            if (audio != null) {
+                prompts.putIfAbsent(filename, audio);
+            }
+        }
+        return audio;
+    }
+
+    /**
+     * Reads an audio file, either relative to the working directory or from the classpath, and transcodes it to μ-law.
+     */
+    private byte[] load(String filename) throws FileNotFoundException {
+        InputStream is;
+        File file = new File(filename);
+        if (file.exists()) {
+            is = new FileInputStream(file);
+        } else {
+            is = getClass().getClassLoader().getResourceAsStream(filename);
+        }
+        if (is == null) {
+            throw new FileNotFoundException("Could not find " + filename);
+        }
+        try (InputStream in = is) {
+            return decode(in);
+        } catch (RuntimeException e) {
+            log.error("Runtime exception while loading audio from {}", filename, e);
+        } catch (IOException | UnsupportedAudioFileException e) {
+            log.error("Failed to load {}", filename, e);
+        }
+        return null;
+    }
+
+    /**
+     * Converts audio in any format AudioSystem understands to 8000 Hz μ-law.
+     * @param is The audio file contents.
+     * @return The μ-law audio.
+     */
+    static byte[] decode(InputStream is) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(new BufferedInputStream(is));
+             AudioInputStream transcodedStream = AudioSystem.getAudioInputStream(PCM_FORMAT, audioInputStream)) {
+            return PcmToULawTranscoder.transcodeBytes(transcodedStream.readAllBytes());
+        }
+    }
+
+    /**
+     * Maps the configured prompt store, if any.
+     */
+    private static MappedPromptStore openStore(String path) {
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        try {
+            MappedPromptStore store = MappedPromptStore.open(Paths.get(path));
+            log.info("Using prompt store {}", store);
+            return store;
+        } catch (IOException e) {
+            log.error("Failed to open prompt store {}, prompts will be loaded from their files", path, e);
+            return null;
+        }
+    }
+}
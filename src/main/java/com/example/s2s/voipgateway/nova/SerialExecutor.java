@@ -0,0 +1,123 @@
+package com.example.s2s.voipgateway.nova;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time, in submission order, on a pool of worker threads shared by all calls.  Each call gets
+ * its own SerialExecutor, so its events are handled in order, while a call that is blocked - on a full playout
+ * buffer or the disk - only holds up its own tasks and never the SDK's I/O threads.
+ *
+ * The pool has at most NOVA_EVENT_THREADS workers.  A call only ever occupies one of them, so calls beyond that wait
+ * for a worker while others are busy or blocked; nothing is dropped.  Neither queue needs a bound of its own: the
+ * pool's queue holds at most one entry per SerialExecutor, since an executor only asks for a worker when it has none,
+ * and an executor's own queue is bounded by its callers, e.g. through reactive-streams demand.
+ */
+class SerialExecutor implements Executor {
+    private static final Logger log = LoggerFactory.getLogger(SerialExecutor.class);
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final int THREADS = Integer.parseInt(System.getenv().getOrDefault("NOVA_EVENT_THREADS", "100"));
+    private static final ThreadPoolExecutor WORKERS = workers();
+    private static final ThreadLocal<SerialExecutor> CURRENT = new ThreadLocal<>();
+    private final String name;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean running;
+
+    /**
+     * @param name A name for the executor, used in log messages.
+     */
+    SerialExecutor(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (tasks) {
+            tasks.add(task);
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        WORKERS.execute(this::drain);
+    }
+
+    /**
+     * @return The executor running the calling task, or null if the caller isn't one of its tasks.  Work that
+     * completes elsewhere, such as a tool, uses it to get back onto its call's executor.
+     */
+    static SerialExecutor current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs queued tasks until there are none left.
+     */
+    private void drain() {
+        CURRENT.set(this);
+        boolean drained = false;
+        try {
+            while (true) {
+                Runnable task;
+                synchronized (tasks) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        running = false;
+                        drained = true;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Uncaught exception in {}", name, e);
+                }
+            }
+        } finally {
+            CURRENT.remove();
+            if (!drained) {
+                // An Error is ending this worker; the tasks behind it carry on with another rather than never running
+                resume();
+            }
+        }
+    }
+
+    /**
+     * Hands the remaining tasks to another worker, or marks the executor idle if there are none.
+     */
+    private void resume() {
+        synchronized (tasks) {
+            if (tasks.isEmpty()) {
+                running = false;
+                return;
+            }
+        }
+        WORKERS.execute(this::drain);
+    }
+
+    /**
+     * @return The shared pool.  Idle workers are kept for a minute, so there is roughly one thread per active call.
+     */
+    private static ThreadPoolExecutor workers() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "nova-events-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.s2s.voipgateway.nova;
+
+import com.example.s2s.voipgateway.constants.MediaTypes;
+import com.example.s2s.voipgateway.nova.event.*;
+import com.example.s2s.voipgateway.nova.observer.InteractObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * A call's outbound observer, which carries the conversation over to a new Nova Sonic session before the current one
+ * reaches its time limit.
+ *
+ * Once the current session is NOVA_SESSION_ROLLOVER_MS old, a successor is opened under the same prompt name and
+ * bootstrapped with the system prompt.  At the next turn boundary - the first caller audio after Nova ends a spoken
+ * turn - the successor is sent the conversation so far as history, the call's audio content is restarted on it, and
+ * the call switches over between one audio event and the next.  Nova's last response is already buffered for
+ * playout, so the caller hears no gap.  If no turn boundary comes within NOVA_WARM_SESSION_MAX_AGE_MS, before the
+ * idle successor would time out, the call is cut over anyway as soon as no tool is running.
+ *
+ * Successors are only ever opened on the timer thread, never on the caller's audio thread.  If one fails to open, or
+ * has closed by the time it is needed, another is opened with a backoff and the call stays on its current session.
+ */
+class SessionRollover implements InteractObserver<NovaSonicEvent> {
+    private static final Logger log = LoggerFactory.getLogger(SessionRollover.class);
+    static final long ROLLOVER_MILLIS = Long.parseLong(System.getenv().getOrDefault("NOVA_SESSION_ROLLOVER_MS", "420000"));
+    private static final long FORCE_RETRY_MILLIS = 1000;
+    // Retries of a successor that failed to open back off from the first delay to the last
+    private static final long PREPARE_RETRY_MILLIS = 1000;
+    private static final long MAX_PREPARE_RETRY_MILLIS = 30000;
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "nova-session-rollover");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final String promptName;
+    private final AbstractNovaS2SEventHandler eventHandler;
+    private final Function<String, NovaSession> sessionOpener;
+    private final long callStartedAt = System.nanoTime();
+    private NovaSession current;
+    private NovaSession successor;
+    // The call's open audio content, which is restarted on the successor
+    private StartAudioContent audioStart;
+    private ScheduledFuture<?> timer;
+    private int prepareFailures;
+    private volatile boolean turnEnded;
+    private boolean closed;
+
+    /**
+     * @param session The call's session.
+     * @param eventHandler The call's event handler, whose outbound observer this is.
+     * @param sessionOpener Opens and bootstraps a session with the given prompt name.
+     */
+    SessionRollover(NovaSession session, AbstractNovaS2SEventHandler eventHandler,
+                    Function<String, NovaSession> sessionOpener) {
+        this.current = session;
+        this.promptName = session.getPromptName();
+        this.eventHandler = eventHandler;
+        this.sessionOpener = sessionOpener;
+        schedulePrepare();
+    }
+
+    /**
+     * @return The call's prompt name, which every session it uses shares.
+     */
+    String getPromptName() {
+        return promptName;
+    }
+
+    /**
+     * Called when Nova ends a spoken turn.  The call is cut over, if a successor is ready, at the next caller audio.
+     */
+    void turnEnded() {
+        turnEnded = true;
+    }
+
+    @Override
+    public synchronized void onNext(NovaSonicEvent event) {
+        if (event instanceof StartAudioContent) {
+            audioStart = (StartAudioContent) event;
+        } else if (event instanceof EndAudioContent) {
+            audioStart = null;
+        } else if (event instanceof AudioInputEvent && turnEnded && successor != null
+                && !eventHandler.hasPendingTools()) {
+            cutOver();
+        }
+        current.getOutbound().onNext(event);
+    }
+
+    @Override
+    public synchronized void onComplete() {
+        closed = true;
+        cancelTimer();
+        if (successor != null) {
+            successor.close();
+            successor = null;
+        }
+        current.getOutbound().onComplete();
+    }
+
+    @Override
+    public void onError(Exception error) {
+        NovaSession session;
+        synchronized (this) {
+            session = current;
+        }
+        session.getOutbound().onError(error);
+    }
+
+    /**
+     * Ends a call that never started, closing its sessions.
+     */
+    synchronized void close() {
+        closed = true;
+        cancelTimer();
+        if (successor != null) {
+            successor.close();
+            successor = null;
+        }
+        current.close();
+    }
+
+    private synchronized void schedulePrepare() {
+        if (ROLLOVER_MILLIS <= 0 || closed) {
+            return;
+        }
+        // A warm session has been open a while before its call
+        long delay = Math.max(0, ROLLOVER_MILLIS - current.getAgeMillis());
+        timer = TIMER.schedule(this::prepare, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the successor.
+     */
+    private void prepare() {
+        NovaSession next;
+        try {
+            next = sessionOpener.apply(promptName);
+        } catch (RuntimeException e) {
+            retryPrepare(e);
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                next.close();
+                return;
+            }
+            prepareFailures = 0;
+            successor = next;
+            // Only a turn that ends from now on is a boundary; the caller may be talking by now
+            turnEnded = false;
+            timer = TIMER.schedule(this::force, WarmSessionPool.MAX_AGE_MILLIS, TimeUnit.MILLISECONDS);
+            log.info("Opened successor for session {} after {} ms, waiting for a turn boundary", promptName,
+                    current.getAgeMillis());
+        }
+    }
+
+    /**
+     * Schedules another attempt to open the successor, backing off while attempts keep failing.
+     */
+    private synchronized void retryPrepare(RuntimeException error) {
+        if (closed) {
+            return;
+        }
+        long delay = Math.min(MAX_PREPARE_RETRY_MILLIS, PREPARE_RETRY_MILLIS << Math.min(prepareFailures, 16));
+        prepareFailures++;
+        log.warn("Failed to open a successor for session {}, retrying in {} ms", promptName, delay, error);
+        timer = TIMER.schedule(this::prepare, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cuts over without waiting for a turn boundary any longer.
+     */
+    private synchronized void force() {
+        if (closed || successor == null) {
+            return;
+        }
+        if (eventHandler.hasPendingTools()) {
+            // A tool result has to go to the session that asked for it
+            timer = TIMER.schedule(this::force, FORCE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        log.warn("No turn boundary within {} ms for session {}, cutting over mid-turn", WarmSessionPool.MAX_AGE_MILLIS,
+                promptName);
+        cutOver();
+    }
+
+    /**
+     * Moves the call to the successor.  A successor that has closed is replaced from the timer thread, and the call
+     * stays on its current session until the replacement is ready.
+     */
+    private void cutOver() {
+        long start = System.nanoTime();
+        cancelTimer();
+        turnEnded = false;
+        NovaSession next = successor;
+        successor = null;
+        if (next.isClosed()) {
+            log.warn("Successor for session {} closed before the cut over, opening another", promptName);
+            timer = TIMER.schedule(this::prepare, 0, TimeUnit.MILLISECONDS);
+            return;
+        }
+        List<ConversationHistory.Turn> history = eventHandler.getConversationHistory().getTurns();
+        for (ConversationHistory.Turn turn : history) {
+            sendHistory(next.getOutbound(), turn);
+        }
+        if (audioStart != null) {
+            next.getOutbound().onNext(audioStart);
+        }
+        NovaSession previous = current;
+        previous.detach();
+        next.attach(eventHandler);
+        current = next;
+        if (audioStart != null) {
+            previous.getOutbound().onNext(new EndAudioContent(EndAudioContent.ContentEnd.builder()
+                    .promptName(promptName)
+                    .contentName(audioStart.getContentStart().getContentName())
+                    .build()));
+        }
+        previous.close();
+        log.info("Rolled session {} over to a new Nova Sonic session {} s into the call, with {} turns of history, in {} µs",
+                promptName, (System.nanoTime() - callStartedAt) / 1_000_000_000, history.size(),
+                (System.nanoTime() - start) / 1000);
+        schedulePrepare();
+    }
+
+    /**
+     * Sends one turn of the conversation so far as a non-interactive text content block.
+     */
+    private void sendHistory(InteractObserver<NovaSonicEvent> outbound, ConversationHistory.Turn turn) {
+        String contentName = UUID.randomUUID().toString();
+        outbound.onNext(ContentStartEvent.builder()
+                .contentStart(ContentStartEvent.ContentStart.builder()
+                        .promptName(promptName)
+                        .contentName(contentName)
+                        .type("TEXT")
+                        .interactive(false)
+                        .textInputConfiguration(MediaConfiguration.builder().mediaType(MediaTypes.TEXT_PLAIN).build())
+                        .property("role", turn.getRole())
+                        .build())
+                .build());
+        outbound.onNext(new TextInputEvent(TextInputEvent.TextInput.builder()
+                .promptName(promptName)
+                .contentName(contentName)
+                .content(turn.getContent())
+                .role(turn.getRole())
+                .build()));
+        outbound.onNext(ContentEndEvent.create(promptName, contentName));
+    }
+
+    private void cancelTimer() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+}
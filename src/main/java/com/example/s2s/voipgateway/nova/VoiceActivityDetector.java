@@ -1,5 +1,6 @@
 package com.example.s2s.voipgateway.nova;
 
+import com.example.s2s.voipgateway.nova.transcode.AudioKernels;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,12 +29,51 @@ public class VoiceActivityDetector {
      * @return true if speech is detected, false otherwise
      */
     public boolean detectVoiceActivity(byte[] audioData) {
-        if (audioData == null || audioData.length == 0) {
+        if (audioData == null) {
+            return false;
+        }
+        return detectVoiceActivity(audioData, 0, audioData.length);
+    }
+
+    /**
+     * Analyzes a region of a PCM buffer to detect voice activity.
+     *
+     * @param audioData The PCM audio data to analyze
+     * @param offset Offset of the first byte to analyze
+     * @param length Number of bytes to analyze
+     * @return true if speech is detected, false otherwise
+     */
+    public boolean detectVoiceActivity(byte[] audioData, int offset, int length) {
+        if (audioData == null || length == 0) {
             return false;
         }
         
-        double energy = calculateEnergy(audioData);
-        
+        return updateState(calculateEnergy(audioData, offset, length));
+    }
+
+    /**
+     * Analyzes a region of a µ-law buffer to detect voice activity, without converting it to PCM first.
+     *
+     * @param ulawData The µ-law audio data to analyze
+     * @param offset Offset of the first byte to analyze
+     * @param length Number of bytes to analyze
+     * @return true if speech is detected, false otherwise
+     */
+    public boolean detectUlawVoiceActivity(byte[] ulawData, int offset, int length) {
+        if (ulawData == null || length == 0) {
+            return false;
+        }
+
+        return updateState(calculateUlawEnergy(ulawData, offset, length));
+    }
+
+    /**
+     * Updates the speech/silence frame counters with the energy of the latest frame.
+     *
+     * @param energy The energy of the frame
+     * @return true if speech has just been detected, false otherwise
+     */
+    private boolean updateState(double energy) {
         if (energy > ENERGY_THRESHOLD) {
             speechFrames++;
             silenceFrames = 0;
@@ -61,23 +101,30 @@ public class VoiceActivityDetector {
      * Calculates the energy (RMS) of the audio signal.
      * 
      * @param audioData PCM audio data (16-bit samples)
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
      * @return The calculated energy
      */
-    private double calculateEnergy(byte[] audioData) {
-        long sum = 0;
-        int sampleCount = audioData.length / 2; // 16-bit samples
-        
-        for (int i = 0; i < audioData.length - 1; i += 2) {
-            // Convert bytes to 16-bit sample
-            short sample = (short) ((audioData[i + 1] << 8) | (audioData[i] & 0xFF));
-            sum += sample * sample;
-        }
+    private double calculateEnergy(byte[] audioData, int offset, int length) {
+        int sampleCount = length / 2; // 16-bit samples
         
         if (sampleCount == 0) {
             return 0.0;
         }
         
-        return Math.sqrt((double) sum / sampleCount);
+        return Math.sqrt((double) AudioKernels.pcmSumOfSquares(audioData, offset, length) / sampleCount);
+    }
+    
+    /**
+     * Calculates the energy (RMS) of a µ-law encoded signal.
+     *
+     * @param ulawData µ-law audio data
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     * @return The calculated energy
+     */
+    private double calculateUlawEnergy(byte[] ulawData, int offset, int length) {
+        return Math.sqrt((double) AudioKernels.ulawSumOfSquares(ulawData, offset, length) / length);
     }
     
     /**
@@ -0,0 +1,158 @@
+package com.example.s2s.voipgateway.nova;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Nova Sonic sessions opened and bootstrapped ahead of incoming calls, so a call can start on a session that is
+ * already streaming instead of waiting for the stream to open.  Published over JMX as
+ * com.example.s2s.voipgateway:type=WarmSessions.
+ *
+ * NOVA_WARM_SESSIONS sessions are kept ready.  The pool is refilled in the background whenever a session is taken,
+ * and sessions that reach NOVA_WARM_SESSION_MAX_AGE_MS unused are closed and replaced before Nova Sonic times them
+ * out.
+ */
+class WarmSessionPool implements WarmSessionPoolMXBean {
+    private static final Logger log = LoggerFactory.getLogger(WarmSessionPool.class);
+    private static final String OBJECT_NAME = "com.example.s2s.voipgateway:type=WarmSessions";
+    static final int SIZE = Integer.parseInt(System.getenv().getOrDefault("NOVA_WARM_SESSIONS", "0"));
+    static final long MAX_AGE_MILLIS = Long.parseLong(System.getenv().getOrDefault("NOVA_WARM_SESSION_MAX_AGE_MS", "45000"));
+    private static final long SWEEP_MILLIS = 1000;
+    private final Supplier<NovaSession> opener;
+    private final ArrayDeque<NovaSession> ready = new ArrayDeque<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "nova-warm-sessions");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long hits;
+    private long misses;
+    private long recycled;
+    private long attachedAgeMillis;
+
+    /**
+     * Creates the pool and starts filling it.
+     * @param opener Opens and bootstraps a session.
+     */
+    WarmSessionPool(Supplier<NovaSession> opener) {
+        this.opener = opener;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException | RuntimeException e) {
+            log.warn("Failed to register warm session metrics", e);
+        }
+        scheduler.scheduleWithFixedDelay(this::sweep, 0, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        log.info("Keeping {} warm Nova sessions", SIZE);
+    }
+
+    /**
+     * Takes a ready session.
+     * @return The session, or null if none is ready.
+     */
+    NovaSession take() {
+        NovaSession session;
+        synchronized (ready) {
+            while ((session = ready.poll()) != null && session.isClosed()) {
+                recycled++;
+            }
+            if (session == null) {
+                misses++;
+            } else {
+                hits++;
+                attachedAgeMillis += session.getAgeMillis();
+            }
+        }
+        scheduler.execute(this::refill);
+        return session;
+    }
+
+    /**
+     * Closes sessions that are too old or have ended, then tops the pool up.
+     */
+    private void sweep() {
+        synchronized (ready) {
+            for (Iterator<NovaSession> iterator = ready.iterator(); iterator.hasNext(); ) {
+                NovaSession session = iterator.next();
+                if (session.isClosed() || session.getAgeMillis() >= MAX_AGE_MILLIS) {
+                    iterator.remove();
+                    recycled++;
+                    if (!session.isClosed()) {
+                        session.close();
+                    }
+                }
+            }
+        }
+        refill();
+    }
+
+    /**
+     * Opens sessions until the pool is full.  Only ever run by the scheduler, so refills never overlap.
+     */
+    private void refill() {
+        while (getReadySessions() < SIZE) {
+            NovaSession session;
+            try {
+                session = opener.get();
+            } catch (RuntimeException e) {
+                log.warn("Failed to open a warm session, will retry", e);
+                return;
+            }
+            synchronized (ready) {
+                ready.add(session);
+            }
+        }
+    }
+
+    @Override
+    public int getReadySessions() {
+        synchronized (ready) {
+            return ready.size();
+        }
+    }
+
+    @Override
+    public long getHits() {
+        synchronized (ready) {
+            return hits;
+        }
+    }
+
+    @Override
+    public long getMisses() {
+        synchronized (ready) {
+            return misses;
+        }
+    }
+
+    @Override
+    public long getRecycled() {
+        synchronized (ready) {
+            return recycled;
+        }
+    }
+
+    @Override
+    public long getOldestSessionMillis() {
+        synchronized (ready) {
+            NovaSession oldest = ready.peek();
+            return oldest != null ? oldest.getAgeMillis() : 0;
+        }
+    }
+
+    @Override
+    public long getMeanAgeAtAttachMillis() {
+        synchronized (ready) {
+            return hits > 0 ? attachedAgeMillis / hits : 0;
+        }
+    }
+}
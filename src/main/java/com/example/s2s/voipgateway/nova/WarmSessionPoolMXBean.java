@@ -0,0 +1,36 @@
+package com.example.s2s.voipgateway.nova;
+
+/**
+ * JMX view of the pool of Nova Sonic sessions opened ahead of incoming calls.
+ */
+public interface WarmSessionPoolMXBean {
+    /**
+     * @return The number of sessions ready for a call.
+     */
+    int getReadySessions();
+
+    /**
+     * @return Calls given a ready session since startup.
+     */
+    long getHits();
+
+    /**
+     * @return Calls that had to open their own session since startup.
+     */
+    long getMisses();
+
+    /**
+     * @return Ready sessions closed unused, because they got too old or their stream ended, since startup.
+     */
+    long getRecycled();
+
+    /**
+     * @return The age in milliseconds of the oldest ready session.
+     */
+    long getOldestSessionMillis();
+
+    /**
+     * @return The mean age in milliseconds of sessions when they were given to a call.
+     */
+    long getMeanAgeAtAttachMillis();
+}
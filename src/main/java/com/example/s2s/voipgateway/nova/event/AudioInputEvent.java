@@ -8,9 +8,10 @@ import lombok.Builder;
  */
 @Builder
 public class AudioInputEvent implements NovaSonicEvent {
-    private AudioInput audioInput = new AudioInput();
+    private AudioInput audioInput;
 
     public AudioInputEvent() {
+        this.audioInput = new AudioInput();
     }
 
     public AudioInputEvent(AudioInput audioInput) {
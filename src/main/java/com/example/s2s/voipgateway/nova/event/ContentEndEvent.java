@@ -8,9 +8,11 @@ import lombok.Builder;
  */
 @Builder
 public class ContentEndEvent implements NovaSonicEvent {
-    private ContentEnd contentEnd = new ContentEnd();
+    private ContentEnd contentEnd;
 
-    public ContentEndEvent() { }
+    public ContentEndEvent() {
+        this.contentEnd = new ContentEnd();
+    }
     public ContentEndEvent(ContentEnd contentEnd) {
         this.contentEnd = contentEnd;
     }
@@ -13,9 +13,10 @@ import java.util.Map;
  */
 @Builder
 public class ContentStartEvent implements NovaSonicEvent {
-    private ContentStart contentStart=new ContentStart();
+    private ContentStart contentStart;
 
     public ContentStartEvent() {
+        this.contentStart = new ContentStart();
     }
 
     public ContentStartEvent(ContentStart contentStart) {
@@ -37,11 +38,13 @@ public class ContentStartEvent implements NovaSonicEvent {
         private String contentName;
         private String type;
         private boolean interactive;
-        private MediaConfiguration textInputConfiguration=new MediaConfiguration();
+        private MediaConfiguration textInputConfiguration;
         @Singular
-        private Map<String, Object> properties =new HashMap<>();
+        private Map<String, Object> properties;
 
         public ContentStart() {
+            this.textInputConfiguration = new MediaConfiguration();
+            this.properties = new HashMap<>();
         }
 
         public ContentStart(String promptName, String contentName, String type, boolean interactive, MediaConfiguration textInputConfiguration, Map<String, Object> toolResultInputConfiguration) {
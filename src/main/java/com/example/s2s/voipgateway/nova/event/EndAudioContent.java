@@ -8,9 +8,10 @@ import lombok.Builder;
  */
 @Builder
 public class EndAudioContent implements NovaSonicEvent {
-    private ContentEnd contentEnd = new ContentEnd();
+    private ContentEnd contentEnd;
 
     public EndAudioContent() {
+        this.contentEnd = new ContentEnd();
     }
 
     public EndAudioContent(ContentEnd contentEnd) {
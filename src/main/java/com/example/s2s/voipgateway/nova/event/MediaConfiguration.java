@@ -15,7 +15,7 @@ import java.util.Map;
 public class MediaConfiguration {
     private String mediaType;
     @Singular
-    private Map<String,String> properties=new HashMap<>();
+    private Map<String,String> properties;
 
     public MediaConfiguration(String mediaType, Map<String, String> properties) {
         this.mediaType = mediaType;
@@ -23,10 +23,11 @@ public class MediaConfiguration {
     }
 
     public MediaConfiguration() {
+        this.properties = new HashMap<>();
     }
 
     public MediaConfiguration(String mediaType) {
-        this.mediaType = mediaType;
+        this(mediaType, new HashMap<>());
     }
 
     @JsonGetter
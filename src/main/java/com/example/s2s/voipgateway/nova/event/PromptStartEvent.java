@@ -13,9 +13,10 @@ import java.util.Map;
  */
 @Builder
 public class PromptStartEvent implements NovaSonicEvent {
-    private PromptStart promptStart = new PromptStart();
+    private PromptStart promptStart;
 
     public PromptStartEvent() {
+        this.promptStart = new PromptStart();
     }
 
     public PromptStartEvent(PromptStart promptStart) {
@@ -34,12 +35,16 @@ public class PromptStartEvent implements NovaSonicEvent {
     @Builder
     public static class PromptStart {
         private String promptName;
-        private MediaConfiguration textOutputConfiguration = new MediaConfiguration();
-        private AudioOutputConfiguration audioOutputConfiguration = new AudioOutputConfiguration();
-        private MediaConfiguration toolUseOutputConfiguration = new MediaConfiguration();
-        private ToolConfiguration toolConfiguration = new ToolConfiguration();
+        private MediaConfiguration textOutputConfiguration;
+        private AudioOutputConfiguration audioOutputConfiguration;
+        private MediaConfiguration toolUseOutputConfiguration;
+        private ToolConfiguration toolConfiguration;
 
         public PromptStart() {
+            this.textOutputConfiguration = new MediaConfiguration();
+            this.audioOutputConfiguration = new AudioOutputConfiguration();
+            this.toolUseOutputConfiguration = new MediaConfiguration();
+            this.toolConfiguration = new ToolConfiguration();
         }
 
         public PromptStart(String promptName, MediaConfiguration textOutputConfiguration, AudioOutputConfiguration audioOutputConfiguration, MediaConfiguration toolUseOutputConfiguration, ToolConfiguration toolConfiguration) {
@@ -184,9 +189,10 @@ public class PromptStartEvent implements NovaSonicEvent {
     }
     @Builder
     public static class ToolConfiguration {
-        private List<Tool> tools = new ArrayList<>();
+        private List<Tool> tools;
 
         public ToolConfiguration() {
+            this.tools = new ArrayList<>();
         }
 
         public ToolConfiguration(List<Tool> tools) {
@@ -204,9 +210,10 @@ public class PromptStartEvent implements NovaSonicEvent {
     }
     @Builder
     public static class Tool {
-        private ToolSpec toolSpec = new ToolSpec();
+        private ToolSpec toolSpec;
 
         public Tool() {
+            this.toolSpec = new ToolSpec();
         }
 
         public Tool(ToolSpec toolSpec) {
@@ -226,9 +233,10 @@ public class PromptStartEvent implements NovaSonicEvent {
     public static class ToolSpec {
         private String name;
         private String description;
-        private Map<String, String> inputSchema = new HashMap<>();
+        private Map<String, String> inputSchema;
 
         public ToolSpec() {
+            this.inputSchema = new HashMap<>();
         }
 
         public ToolSpec(String name, String description, Map<String, String> inputSchema) {
@@ -267,10 +275,12 @@ public class PromptStartEvent implements NovaSonicEvent {
     @Builder
     public static class ToolSchema {
         private String type;
-        private Map<String, Object> properties = new HashMap<>();
-        private List<Object> required = new ArrayList<>();
+        private Map<String, Object> properties;
+        private List<Object> required;
 
         public ToolSchema() {
+            this.properties = new HashMap<>();
+            this.required = new ArrayList<>();
         }
 
         public ToolSchema(String type, Map<String, Object> properties, List<Object> required) {
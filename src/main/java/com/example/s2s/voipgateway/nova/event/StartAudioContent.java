@@ -9,9 +9,10 @@ import lombok.Builder;
 @Builder
 public class StartAudioContent implements NovaSonicEvent {
     public static final String TYPE_AUDIO="AUDIO";
-    private ContentStart contentStart=new ContentStart();
+    private ContentStart contentStart;
 
     public StartAudioContent() {
+        this.contentStart = new ContentStart();
     }
 
     public StartAudioContent(ContentStart contentStart) {
@@ -31,11 +32,14 @@ public class StartAudioContent implements NovaSonicEvent {
     public static class ContentStart {
         private String promptName;
         private String contentName;
-        private String type=TYPE_AUDIO;
-        private boolean interactive=true;
-        private AudioInputConfiguration audioInputConfiguration=new AudioInputConfiguration();
+        private String type;
+        private boolean interactive;
+        private AudioInputConfiguration audioInputConfiguration;
 
         public ContentStart() {
+            this.type = TYPE_AUDIO;
+            this.interactive = true;
+            this.audioInputConfiguration = new AudioInputConfiguration();
         }
 
         public ContentStart(String promptName, String contentName, String type, boolean interactive, AudioInputConfiguration audioInputConfiguration) {
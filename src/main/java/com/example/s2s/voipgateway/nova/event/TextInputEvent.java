@@ -8,8 +8,10 @@ import lombok.Builder;
  */
 @Builder
 public class TextInputEvent implements NovaSonicEvent {
-    private TextInput textInput = new TextInput();
-    public TextInputEvent() {}
+    private TextInput textInput;
+    public TextInputEvent() {
+        this.textInput = new TextInput();
+    }
     public TextInputEvent(TextInput textInput) {
         this.textInput = textInput;
     }
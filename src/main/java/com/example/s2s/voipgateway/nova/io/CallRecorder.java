@@ -0,0 +1,408 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import com.example.s2s.voipgateway.nova.transcode.UlawToPcmTranscoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records a call as a stereo WAV file, 8000 Hz 16-bit PCM, with the caller on the left channel and Nova on the
+ * right.  Enabled with ENABLE_CALL_RECORDING; when disabled every method returns immediately.
+ *
+ * The media threads only copy their μ-law frames into pooled buffers and hand them to a bounded queue.  A single
+ * background thread, shared by all calls, decodes and interleaves the two legs and writes them through a
+ * FileChannel.  If the disk falls behind and the queue or pool runs dry, frames are dropped rather than holding up
+ * the media threads.
+ *
+ * The legs are aligned by arrival time: a leg that goes quiet, e.g. a caller using silence suppression, is padded
+ * with silence when its next frame arrives.
+ */
+public class CallRecorder {
+    private static final Logger log = LoggerFactory.getLogger(CallRecorder.class);
+    private static final boolean ENABLED = "true".equalsIgnoreCase(System.getenv().getOrDefault("ENABLE_CALL_RECORDING", "false"));
+    private static final String RECORDING_DIR = System.getenv().getOrDefault("RECORDING_DIR", "recordings");
+    private static final int QUEUE_FRAMES = Integer.parseInt(System.getenv().getOrDefault("RECORDING_QUEUE_FRAMES", "2000"));
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final AtomicInteger RECORDING_COUNT = new AtomicInteger();
+    private static final int SAMPLE_RATE = 8000;
+    private static final int FRAME_SIZE = 320;
+    private static final int WAV_HEADER_SIZE = 44;
+    private static final int CALLER = 0;
+    private static final int NOVA = 1;
+    // Arrival jitter tolerated before a gap in a leg is filled with silence
+    private static final int GAP_SAMPLES = SAMPLE_RATE / 20;
+    // How far one leg may run ahead before the other is assumed stalled and padded
+    private static final int MAX_SKEW_SAMPLES = SAMPLE_RATE * 2;
+    private static final CallRecorder DISABLED = new CallRecorder(null);
+
+    private final Path path;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile boolean closed;
+
+    // Writer thread state
+    private FileChannel channel;
+    private boolean failed;
+    // Set once finish() has run; frames that raced the close are dropped rather than reopening the file
+    private boolean finished;
+    private boolean opened;
+    private final PendingSamples[] legs = {new PendingSamples(), new PendingSamples()};
+    private final ByteBuffer output = ByteBuffer.allocateDirect(32 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    private long dataBytes;
+
+    private CallRecorder(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Creates a recorder for a new call.  The file is created by the writer thread when the first audio arrives.
+     *
+     * @return The recorder, which does nothing if call recording is disabled.
+     */
+    public static CallRecorder create() {
+        if (!ENABLED) {
+            return DISABLED;
+        }
+        String name = "call-" + LocalDateTime.now().format(FILE_TIMESTAMP) + "-" + RECORDING_COUNT.incrementAndGet() + ".wav";
+        return new CallRecorder(Paths.get(RECORDING_DIR, name));
+    }
+
+    /**
+     * Records μ-law audio received from the caller.
+     */
+    public void recordCaller(byte[] ulaw, int offset, int length) {
+        record(CALLER, ulaw, offset, length);
+    }
+
+    /**
+     * Records μ-law audio sent to the caller.
+     */
+    public void recordNova(byte[] ulaw, int offset, int length) {
+        record(NOVA, ulaw, offset, length);
+    }
+
+    /**
+     * Finishes the recording once the audio queued so far has been written.  Safe to call more than once.
+     */
+    public void close() {
+        if (path == null || closed) {
+            return;
+        }
+        closed = true;
+        Writer.INSTANCE.submitClose(this);
+        if (droppedFrames.get() > 0) {
+            log.warn("{} frames were dropped from recording {}", droppedFrames.get(), path);
+        }
+    }
+
+    private void record(int leg, byte[] ulaw, int offset, int length) {
+        if (path == null || closed) {
+            return;
+        }
+        Objects.checkFromIndexSize(offset, length, ulaw.length);
+        long nanos = System.nanoTime();
+        for (int position = offset; position < offset + length; position += FRAME_SIZE) {
+            int count = Math.min(FRAME_SIZE, offset + length - position);
+            if (!Writer.INSTANCE.submit(this, leg, nanos, ulaw, position, count)) {
+                droppedFrames.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Adds a frame to its leg and writes out whatever both legs now cover.  Writer thread only.
+     */
+    private void accept(Frame frame) {
+        if (failed || finished) {
+            return;
+        }
+        PendingSamples leg = legs[frame.leg];
+        long expectedStart = (frame.nanos - startNanos) * SAMPLE_RATE / TimeUnit.SECONDS.toNanos(1) - frame.length;
+        if (expectedStart > leg.total + GAP_SAMPLES) {
+            leg.addSilence((int) Math.min(expectedStart - leg.total, Integer.MAX_VALUE));
+        }
+        leg.add(frame.data, frame.length);
+
+        PendingSamples other = legs[1 - frame.leg];
+        if (leg.size() - other.size() > MAX_SKEW_SAMPLES) {
+            other.addSilence(leg.size() - other.size() - MAX_SKEW_SAMPLES);
+        }
+        writeInterleaved(Math.min(leg.size(), other.size()));
+    }
+
+    /**
+     * Writes out the rest of both legs and completes the WAV header.  Writer thread only.
+     */
+    private void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (failed) {
+            closeQuietly();
+            return;
+        }
+        if (legs[CALLER].size() > 0 || legs[NOVA].size() > 0) {
+            int longest = Math.max(legs[CALLER].size(), legs[NOVA].size());
+            legs[CALLER].addSilence(longest - legs[CALLER].size());
+            legs[NOVA].addSilence(longest - legs[NOVA].size());
+            writeInterleaved(longest);
+        }
+        if (failed || channel == null) {
+            closeQuietly();
+            return;
+        }
+        try {
+            flushOutput();
+            ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            size.putInt(0, (int) (36 + dataBytes));
+            channel.write(size, 4);
+            size.clear();
+            size.putInt(0, (int) dataBytes);
+            channel.write(size, 40);
+            channel.close();
+            log.info("Recorded {} ms to {}", dataBytes / 4 * 1000 / SAMPLE_RATE, path);
+        } catch (IOException e) {
+            log.error("Failed to finish recording {}", path, e);
+            closeQuietly();
+        }
+        channel = null;
+    }
+
+    private void closeQuietly() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Failed to close recording {}", path, e);
+            }
+            channel = null;
+        }
+    }
+
+    private void writeInterleaved(int samples) {
+        try {
+            if (channel == null) {
+                if (opened) {
+                    // Never reopen, which would truncate the finished recording
+                    return;
+                }
+                open();
+            }
+            for (int i = 0; i < samples; i++) {
+                if (output.remaining() < 4) {
+                    flushOutput();
+                }
+                output.putShort(legs[CALLER].take());
+                output.putShort(legs[NOVA].take());
+            }
+        } catch (IOException e) {
+            log.error("Failed to write recording {}, recording stopped", path, e);
+            failed = true;
+            legs[CALLER].clear();
+            legs[NOVA].clear();
+        }
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        opened = true;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        // Sizes are filled in by finish()
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952).putInt(36).putInt(0x45564157);          // "RIFF", size, "WAVE"
+        header.putInt(0x20746D66).putInt(16).putShort((short) 1)           // "fmt ", chunk size, PCM
+                .putShort((short) 2).putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 4)
+                .putShort((short) 4).putShort((short) 16);
+        header.putInt(0x61746164).putInt(0);                               // "data", size
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        log.info("Recording call to {}", path);
+    }
+
+    private void flushOutput() throws IOException {
+        output.flip();
+        dataBytes += output.remaining();
+        while (output.hasRemaining()) {
+            channel.write(output);
+        }
+        output.clear();
+    }
+
+    /**
+     * A pooled frame of μ-law audio on its way to the writer thread.
+     */
+    private static final class Frame {
+        private final byte[] data = new byte[FRAME_SIZE];
+        private CallRecorder recorder;
+        private int leg;
+        private long nanos;
+        private int length;
+    }
+
+    /**
+     * PCM samples of one leg waiting for the other leg to catch up.  Writer thread only.
+     */
+    private static final class PendingSamples {
+        private short[] samples = new short[SAMPLE_RATE];
+        private int head;
+        private int tail;
+        // Samples added since the start of the call, including silence
+        private long total;
+
+        int size() {
+            return tail - head;
+        }
+
+        void add(byte[] ulaw, int length) {
+            ensureCapacity(length);
+            for (int i = 0; i < length; i++) {
+                samples[tail++] = UlawToPcmTranscoder.decode(ulaw[i]);
+            }
+            total += length;
+        }
+
+        void addSilence(int length) {
+            ensureCapacity(length);
+            Arrays.fill(samples, tail, tail + length, (short) 0);
+            tail += length;
+            total += length;
+        }
+
+        short take() {
+            return samples[head++];
+        }
+
+        void clear() {
+            head = 0;
+            tail = 0;
+        }
+
+        private void ensureCapacity(int length) {
+            if (head > 0) {
+                System.arraycopy(samples, head, samples, 0, tail - head);
+                tail -= head;
+                head = 0;
+            }
+            if (tail + length > samples.length) {
+                samples = Arrays.copyOf(samples, Math.max(samples.length * 2, tail + length));
+            }
+        }
+    }
+
+    /**
+     * The background thread that writes every call's recording.
+     */
+    private static final class Writer implements Runnable {
+        private static final Writer INSTANCE = new Writer();
+        private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_FRAMES);
+        private final BlockingQueue<Frame> pool = new ArrayBlockingQueue<>(QUEUE_FRAMES);
+        // Closes go on their own unbounded queue, so they are never dropped and never wait for the disk
+        private final Queue<CallRecorder> closing = new ConcurrentLinkedQueue<>();
+        // Queued, without a recorder, to wake the writer for a close; never taken from the pool
+        private final Frame wakeup = new Frame();
+
+        private Writer() {
+            for (int i = 0; i < QUEUE_FRAMES; i++) {
+                pool.add(new Frame());
+            }
+            Thread thread = new Thread(this, "call-recorder");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        boolean submit(CallRecorder recorder, int leg, long nanos, byte[] ulaw, int offset, int length) {
+            Frame frame = pool.poll();
+            if (frame == null) {
+                return false;
+            }
+            System.arraycopy(ulaw, offset, frame.data, 0, length);
+            frame.recorder = recorder;
+            frame.leg = leg;
+            frame.nanos = nanos;
+            frame.length = length;
+            if (!queue.offer(frame)) {
+                frame.recorder = null;
+                pool.offer(frame);
+                return false;
+            }
+            return true;
+        }
+
+        void submitClose(CallRecorder recorder) {
+            closing.add(recorder);
+            // If the queue is full the writer is busy, and checks for closes once it has written what it took
+            queue.offer(wakeup);
+        }
+
+        @Override
+        public void run() {
+            List<Frame> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    write(batch);
+                    if (!closing.isEmpty()) {
+                        List<CallRecorder> closes = new ArrayList<>();
+                        for (CallRecorder recorder; (recorder = closing.poll()) != null; ) {
+                            closes.add(recorder);
+                        }
+                        // Audio queued before the closes is written first
+                        queue.drainTo(batch);
+                        write(batch);
+                        for (CallRecorder recorder : closes) {
+                            try {
+                                recorder.finish();
+                            } catch (RuntimeException e) {
+                                log.error("Failed to finish recording {}", recorder.path, e);
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void write(List<Frame> batch) {
+            for (Frame frame : batch) {
+                if (frame == wakeup) {
+                    continue;
+                }
+                try {
+                    frame.recorder.accept(frame);
+                } catch (RuntimeException e) {
+                    log.error("Failed to record audio for {}", frame.recorder.path, e);
+                }
+                frame.recorder = null;
+                pool.offer(frame);
+            }
+            batch.clear();
+        }
+    }
+}
@@ -9,6 +9,7 @@ import com.example.s2s.voipgateway.nova.event.NovaSonicEvent;
 import com.example.s2s.voipgateway.nova.event.PromptEndEvent;
 import com.example.s2s.voipgateway.nova.event.StartAudioContent;
 import com.example.s2s.voipgateway.nova.observer.InteractObserver;
+import com.example.s2s.voipgateway.nova.transcode.UlawToBase64Encoder;
 import com.example.s2s.voipgateway.nova.transcode.UlawToPcmTranscoder;
 import com.example.s2s.voipgateway.nova.AbstractNovaS2SEventHandler;
 import org.slf4j.Logger;
@@ -17,48 +18,86 @@ import org.slf4j.LoggerFactory;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Base64;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Abstracts Nova S2S outbound audio as an OutputStream.
+ *
+ * Consecutive RTP frames are coalesced into one AudioInputEvent per AUDIO_INPUT_WINDOW_MS of audio.  Separately,
+ * AUDIO_INPUT_MAX_DELAY_MS caps the latency batching adds: a write that finds the first frame of the batch has waited
+ * that long sends the batch, full or not, so irregular arrival never holds audio back longer.  If the caller stops
+ * sending altogether, e.g. with silence suppression, there is no next write, and a sweep across all calls once per
+ * AUDIO_INPUT_MAX_DELAY_MS sends the batch instead.  Barge-in detection and recording still see every frame as it
+ * arrives.
  */
 public class NovaAudioOutputStream extends OutputStream {
     private static final Logger log = LoggerFactory.getLogger(NovaAudioOutputStream.class);
+    private static final int WINDOW_MILLIS = Integer.parseInt(System.getenv().getOrDefault("AUDIO_INPUT_WINDOW_MS", "20"));
+    private static final int MAX_DELAY_MILLIS = Integer.parseInt(System.getenv().getOrDefault("AUDIO_INPUT_MAX_DELAY_MS",
+            String.valueOf(WINDOW_MILLIS)));
     private final InteractObserver<NovaSonicEvent> observer;
-    private final Base64.Encoder encoder = Base64.getEncoder();
     private final String promptName;
     private final String contentName;
+    private final int windowBytes;
+    private final long maxDelayNanos;
     private boolean startSent = false;
     private OutputStream audioFileOutput;
     private boolean debugAudioReceived = System.getenv().getOrDefault("DEBUG_AUDIO_RECEIVED", "false").equalsIgnoreCase("true");
     private AbstractNovaS2SEventHandler eventHandler;
+    private byte[] pcmBuffer = new byte[0];
+    private byte[] base64Buffer = new byte[0];
+    private byte[] batch;
+    private int batchLength;
+    // When the first frame of the current batch arrived
+    private long batchStartNanos;
+    private String silentContent;
+    private int silentLength;
 
     public NovaAudioOutputStream(InteractObserver<NovaSonicEvent> observer, String promptName) {
-        this.observer = observer;
-        this.promptName = promptName;
-        this.contentName = UUID.randomUUID().toString();
+        this(observer, promptName, null);
     }
     
     /**
      * Constructor that accepts an event handler for barge-in functionality.
      */
     public NovaAudioOutputStream(InteractObserver<NovaSonicEvent> observer, String promptName, AbstractNovaS2SEventHandler eventHandler) {
+        this(observer, promptName, eventHandler, WINDOW_MILLIS, MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * Constructor with an explicit window, in place of AUDIO_INPUT_WINDOW_MS, which also caps the latency.
+     */
+    NovaAudioOutputStream(InteractObserver<NovaSonicEvent> observer, String promptName,
+                          AbstractNovaS2SEventHandler eventHandler, int windowMillis) {
+        this(observer, promptName, eventHandler, windowMillis, windowMillis);
+    }
+
+    /**
+     * Constructor with an explicit window and latency cap, in place of AUDIO_INPUT_WINDOW_MS and
+     * AUDIO_INPUT_MAX_DELAY_MS.
+     */
+    NovaAudioOutputStream(InteractObserver<NovaSonicEvent> observer, String promptName,
+                          AbstractNovaS2SEventHandler eventHandler, int windowMillis, int maxDelayMillis) {
         this.observer = observer;
         this.promptName = promptName;
         this.contentName = UUID.randomUUID().toString();
         this.eventHandler = eventHandler;
+        this.windowBytes = windowMillis * 8;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.batch = new byte[windowBytes];
     }
 
     @Override
     public synchronized void write(byte[] b, int off, int len) throws IOException {
         Objects.checkFromIndexSize(off, len, b.length);
-        if (b.length != len) {
-            byte[] other = new byte[len];
-            System.arraycopy(b, off, other, 0, len);
-            b = other;
-        }
         if (!startSent) {
             sendStart();
             if (debugAudioReceived) {
@@ -66,28 +105,101 @@ public class NovaAudioOutputStream extends OutputStream {
             }
         }
 
-        byte[] pcmData = UlawToPcmTranscoder.convertByteArray(b);
         if (audioFileOutput != null) {
-            audioFileOutput.write(pcmData);
+            if (pcmBuffer.length < len * 2) {
+                pcmBuffer = new byte[len * 2];
+            }
+            int pcmLength = UlawToPcmTranscoder.convertByteArray(b, off, len, pcmBuffer, 0);
+            audioFileOutput.write(pcmBuffer, 0, pcmLength);
         }
         
         // Process audio for barge-in detection if event handler is available
         if (eventHandler != null) {
-            eventHandler.processUserAudio(pcmData);
+            eventHandler.processUserUlawAudio(b, off, len);
+            eventHandler.getCallRecorder().recordCaller(b, off, len);
+        }
+
+        long now = System.nanoTime();
+        if (batchLength == 0) {
+            batchStartNanos = now;
         }
+        if (batchLength + len > batch.length) {
+            batch = Arrays.copyOf(batch, batchLength + len);
+        }
+        System.arraycopy(b, off, batch, batchLength, len);
+        batchLength += len;
+        if (batchLength >= windowBytes || now - batchStartNanos >= maxDelayNanos) {
+            sendBatch();
+        }
+    }
+
+    /**
+     * Sends the batch if its first frame has waited as long as the latency cap allows.
+     */
+    private synchronized void sendExpiredBatch(long now) {
+        if (batchLength > 0 && now - batchStartNanos >= maxDelayNanos) {
+            sendBatch();
+        }
+    }
+
+    /**
+     * Sends the batched audio as a single AudioInputEvent.
+     */
+    private void sendBatch() {
+        String content;
+        if (isSilent(batch, batchLength)) {
+            // Digital silence always encodes the same, so it is encoded once and the observer sends a cached payload
+            if (silentContent == null || silentLength != batchLength) {
+                silentContent = encode(batch, batchLength);
+                silentLength = batchLength;
+            }
+            content = silentContent;
+        } else {
+            content = encode(batch, batchLength);
+        }
+        batchLength = 0;
 
         observer.onNext(new AudioInputEvent(AudioInputEvent.AudioInput.builder()
                 .promptName(promptName)
                 .contentName(contentName)
                 .role("USER")
-                .content(encoder.encodeToString(pcmData))
+                .content(content)
                 .build()));
     }
 
+    /**
+     * Encodes µ-law audio as the Base64 PCM content of an AudioInputEvent.
+     */
+    private String encode(byte[] ulaw, int length) {
+        // The batch size is fixed by the window, so the scratch buffer is only reallocated when the packetization
+        // changes
+        int encodedLength = UlawToBase64Encoder.encodedLength(length);
+        if (base64Buffer.length < encodedLength) {
+            base64Buffer = new byte[encodedLength];
+        }
+        int base64Length = UlawToBase64Encoder.encode(ulaw, 0, length, base64Buffer, 0);
+        return new String(base64Buffer, 0, base64Length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Checks whether audio is digital silence, i.e. every sample is a µ-law zero (0xFF or 0x7F).
+     */
+    private static boolean isSilent(byte[] ulaw, int length) {
+        for (int i = 0; i < length; i++) {
+            if ((ulaw[i] & 0x7F) != 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Sends the StartAudioContent event.
      */
     private void sendStart() {
+        if (windowBytes > 0) {
+            FlushSweep.register(this);
+        }
         // Notify event handler about the current content name for barge-in tracking
         if (eventHandler != null) {
             eventHandler.setCurrentUserContentName(contentName);
@@ -118,6 +230,15 @@ public class NovaAudioOutputStream extends OutputStream {
     @Override
     public void close() throws IOException {
         log.debug("Closing NovaAudioOutputStream for prompt: {}", promptName);
+
+        synchronized (this) {
+            if (startSent) {
+                FlushSweep.unregister(this);
+            }
+            if (batchLength > 0) {
+                sendBatch();
+            }
+        }
         
         // Send end audio content event first
         observer.onNext(new EndAudioContent(EndAudioContent.ContentEnd.builder()
@@ -143,8 +264,49 @@ public class NovaAudioOutputStream extends OutputStream {
             audioFileOutput.close();
             audioFileOutput=null;
         }
+        if (eventHandler != null) {
+            eventHandler.getCallRecorder().close();
+        }
         
         // Call onComplete after sending PromptEndEvent
         observer.onComplete();
     }
+
+    /**
+     * Sends partial batches that have outlived the latency cap because no further frames arrived.  One task shared by
+     * all calls, started with the first stream.
+     */
+    private static final class FlushSweep {
+        private static final Set<NovaAudioOutputStream> STREAMS = ConcurrentHashMap.newKeySet();
+        private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "audio-input-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        static {
+            long period = Math.max(1, MAX_DELAY_MILLIS);
+            TIMER.scheduleAtFixedRate(FlushSweep::sweep, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        static void register(NovaAudioOutputStream stream) {
+            STREAMS.add(stream);
+        }
+
+        static void unregister(NovaAudioOutputStream stream) {
+            STREAMS.remove(stream);
+        }
+
+        private static void sweep() {
+            long now = System.nanoTime();
+            for (NovaAudioOutputStream stream : STREAMS) {
+                try {
+                    stream.sendExpiredBatch(now);
+                } catch (RuntimeException e) {
+                    // Keeps the sweep scheduled for the other calls
+                    log.warn("Failed to send expired audio batch for prompt {}", stream.promptName, e);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,118 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the playout buffer of every call and publishes them over JMX as
+ * com.example.s2s.voipgateway:type=PlayoutBuffers.  Streams are held weakly, so a call that is never closed does not
+ * leak.
+ */
+public class PlayoutBufferMetrics implements PlayoutBufferMetricsMXBean {
+    private static final Logger log = LoggerFactory.getLogger(PlayoutBufferMetrics.class);
+    private static final String OBJECT_NAME = "com.example.s2s.voipgateway:type=PlayoutBuffers";
+    private static final int BYTES_PER_MILLI = 8;
+    private static final PlayoutBufferMetrics INSTANCE = new PlayoutBufferMetrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException | RuntimeException e) {
+            log.warn("Failed to register playout buffer metrics", e);
+        }
+    }
+
+    private final Set<QueuedUlawInputStream> streams = Collections.newSetFromMap(new WeakHashMap<>());
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+
+    private PlayoutBufferMetrics() {
+    }
+
+    /**
+     * @return The process wide metrics.
+     */
+    public static PlayoutBufferMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    void register(QueuedUlawInputStream stream) {
+        synchronized (streams) {
+            streams.add(stream);
+        }
+    }
+
+    void unregister(QueuedUlawInputStream stream) {
+        synchronized (streams) {
+            streams.remove(stream);
+        }
+    }
+
+    void recordDropped(int bytes) {
+        droppedBytes.addAndGet(bytes);
+    }
+
+    void recordSpilled(int bytes) {
+        spilledBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public int getActiveStreams() {
+        synchronized (streams) {
+            return streams.size();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> getBufferedMillis() {
+        Map<String, Integer> buffered = new TreeMap<>();
+        synchronized (streams) {
+            for (QueuedUlawInputStream stream : streams) {
+                buffered.put(stream.getName(), stream.getBufferedMillis());
+            }
+        }
+        return buffered;
+    }
+
+    @Override
+    public long getTotalBufferedMillis() {
+        long total = 0;
+        synchronized (streams) {
+            for (QueuedUlawInputStream stream : streams) {
+                total += stream.getBufferedMillis();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int getMaxBufferedMillis() {
+        int max = 0;
+        synchronized (streams) {
+            for (QueuedUlawInputStream stream : streams) {
+                max = Math.max(max, stream.getBufferedMillis());
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public long getDroppedMillis() {
+        return droppedBytes.get() / BYTES_PER_MILLI;
+    }
+
+    @Override
+    public long getSpilledMillis() {
+        return spilledBytes.get() / BYTES_PER_MILLI;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import java.util.Map;
+
+/**
+ * JMX view of the playout buffers holding Nova audio for each call.
+ */
+public interface PlayoutBufferMetricsMXBean {
+    /**
+     * @return The number of live playout buffers.
+     */
+    int getActiveStreams();
+
+    /**
+     * @return Milliseconds of audio currently buffered, by stream name.
+     */
+    Map<String, Integer> getBufferedMillis();
+
+    /**
+     * @return Milliseconds of audio currently buffered across all streams.
+     */
+    long getTotalBufferedMillis();
+
+    /**
+     * @return The largest number of milliseconds currently buffered by a single stream.
+     */
+    int getMaxBufferedMillis();
+
+    /**
+     * @return Milliseconds of audio dropped by the drop_oldest overflow policy since startup.
+     */
+    long getDroppedMillis();
+
+    /**
+     * @return Milliseconds of audio written to off-heap spill regions since startup.
+     */
+    long getSpilledMillis();
+}
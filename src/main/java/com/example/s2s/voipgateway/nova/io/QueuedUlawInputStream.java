@@ -1,5 +1,6 @@
 package com.example.s2s.voipgateway.nova.io;
 
+import com.example.s2s.voipgateway.nova.transcode.Base64ToUlawDecoder;
 import com.example.s2s.voipgateway.nova.transcode.PcmToULawTranscoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,23 +9,106 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * An InputStream backed by a queue for sending outbound ULAW audio.
+ * An InputStream backed by a ring buffer for sending outbound ULAW audio.  Nova audio is written by the Bedrock
+ * response thread and read by the RTP sender thread.
+ *
+ * The ring buffer holds at most AUDIO_BUFFER_MS of audio ahead of playback.  What happens when Nova gets further
+ * ahead than that is set by AUDIO_BUFFER_OVERFLOW, see {@link OverflowPolicy}.
+ *
+ * Prompts queued with {@link #appendUlaw(ByteBuffer)} are not copied into the ring buffer.  The reader plays them
+ * straight from their own buffer once it has read the ring buffer up to where they were queued.
  */
 public class QueuedUlawInputStream extends InputStream {
     private static final Logger log = LoggerFactory.getLogger(QueuedUlawInputStream.class);
     private static final byte SILENCE = 127;
-    private LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(50000);
-    private byte[] currentChunk = null;
-    private int currentIndex = -1;
-    private boolean open = true;
+    private static final int BYTES_PER_MILLI = 8;
+    private static final int BUFFER_MILLIS = Integer.parseInt(System.getenv().getOrDefault("AUDIO_BUFFER_MS", "4000"));
+    private static final OverflowPolicy OVERFLOW_POLICY = OverflowPolicy.fromEnvironment();
+    private static final int SPILL_MILLIS = Integer.parseInt(System.getenv().getOrDefault("AUDIO_SPILL_MS", "300000"));
+    private static final AtomicInteger STREAM_COUNT = new AtomicInteger();
+    // A multiple of three samples, so Base64 input can be decoded in whole slices
+    private static final int SCRATCH_SIZE = 960;
+    private static final int BASE64_SLICE_CHARS = SCRATCH_SIZE / 3 * 8;
+    private final UlawRingBuffer buffer = UlawRingBuffer.forDuration(BUFFER_MILLIS);
+    // Off-heap overflow for the spill policy, allocated on first use.  Everything in it is newer than everything
+    // in the ring buffer, because the producer only writes to the ring buffer while the spill region is empty.
+    private volatile UlawRingBuffer spill;
+    private final String name = "playout-" + STREAM_COUNT.incrementAndGet();
+    // Guards the scratch buffer and keeps the ring buffer single-producer when several threads append audio
+    private final Object appendLock = new Object();
+    private final byte[] scratch = new byte[SCRATCH_SIZE];
+    private final ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch);
+    private volatile boolean open = true;
     private OutputStream testOutput;
+    // Guarded by appendLock
+    private OutputStream bedrockOutput;
     private boolean debugAudioSent = System.getenv().getOrDefault("DEBUG_AUDIO_SENT", "false").equalsIgnoreCase("true");
     private final AtomicBoolean interrupted = new AtomicBoolean(false);
+    // Prompts waiting for the ring buffer to be read up to where they were queued
+    private final Queue<Cue> cues = new ConcurrentLinkedQueue<>();
+    // Set by interrupt() to have the reader drop the prompt it is part way through
+    private volatile boolean cuesFlushed;
+    // Reader thread only
+    private ByteBuffer playingCue;
+    private final byte[] single = new byte[1];
+    // The producer parked waiting for room, which the reader wakes once it has made some
+    private volatile Thread blockedProducer;
+    private volatile CallRecorder recorder;
+
+    /**
+     * What to do with Nova audio that arrives when the stream already holds AUDIO_BUFFER_MS ahead of playback.
+     */
+    public enum OverflowPolicy {
+        /** Hold the producer until playback makes room. */
+        BLOCK,
+        /** Discard the oldest buffered audio to make room for the newest. */
+        DROP_OLDEST,
+        /** Move the excess to an off-heap region of AUDIO_SPILL_MS, blocking only when that is full too. */
+        SPILL;
+
+        /**
+         * @return The policy set by AUDIO_BUFFER_OVERFLOW.  An unknown value is logged and BLOCK used instead, rather
+         * than failing every call.
+         */
+        static OverflowPolicy fromEnvironment() {
+            String value = System.getenv().getOrDefault("AUDIO_BUFFER_OVERFLOW", "block");
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown AUDIO_BUFFER_OVERFLOW {}, using block", value);
+                return BLOCK;
+            }
+        }
+    }
+
+    /**
+     * A prompt to play once the ring buffer has been read up to the given count.
+     */
+    private static final class Cue {
+        private final long at;
+        private final ByteBuffer audio;
+
+        private Cue(long at, ByteBuffer audio) {
+            this.at = at;
+            this.audio = audio;
+        }
+    }
+
+    public QueuedUlawInputStream() {
+        PlayoutBufferMetrics.getInstance().register(this);
+    }
 
     /**
      * Appends PCM audio data to the queue.  The data is expected to be 8000 khz sample rate, 16 bit samples, 1 channel.
@@ -33,25 +117,219 @@ public class QueuedUlawInputStream extends InputStream {
      * @throws InterruptedException If an interrupt is thrown while appending audio data to the queue.
      */
     public void append(byte[] data) throws InterruptedException {
+        append(data, 0, data.length);
+    }
+
+    /**
+     * Appends a region of a PCM audio buffer to the queue.  The data is expected to be 8000 khz sample rate,
+     * 16 bit samples, 1 channel.  The caller may reuse the buffer once this method returns.
+     *
+     * @param data The audio data.
+     * @param offset Offset of the first byte to append.
+     * @param length Number of bytes to append.
+     * @throws InterruptedException If an interrupt is thrown while appending audio data to the queue.
+     */
+    public void append(byte[] data, int offset, int length) throws InterruptedException {
         if (interrupted.get()) {
             log.debug("Ignoring audio data due to interruption");
             return;
         }
-        data = PcmToULawTranscoder.transcodeBytes(data);
-        queue.put(data);
+        int end = offset + length - length % 2;
+        synchronized (appendLock) {
+            for (int position = offset; position < end; ) {
+                int sliceLength = Math.min(end - position, SCRATCH_SIZE * 2);
+                int count = PcmToULawTranscoder.transcodeBytes(data, position, sliceLength, scratch, 0);
+                position += sliceLength;
+                if (!enqueueScratch(count)) {
+                    return;
+                }
+            }
+        }
+    }
 
+    /**
+     * Appends Base64 encoded PCM audio, as delivered by Nova Sonic, to the queue.  The text is decoded straight to
+     * μ-law without an intermediate PCM buffer.  The data is expected to be 8000 khz sample rate, 16 bit samples,
+     * 1 channel.
+     *
+     * @param base64 The Base64 encoded audio data.
+     * @throws InterruptedException If an interrupt is thrown while appending audio data to the queue.
+     */
+    public void appendBase64(CharSequence base64) throws InterruptedException {
+        if (interrupted.get()) {
+            log.debug("Ignoring audio data due to interruption");
+            return;
+        }
+        synchronized (appendLock) {
+            for (int position = 0; position < base64.length(); position += BASE64_SLICE_CHARS) {
+                int sliceEnd = Math.min(base64.length(), position + BASE64_SLICE_CHARS);
+                int count = Base64ToUlawDecoder.decode(base64, position, sliceEnd, scratch, 0);
+                if (!enqueueScratch(count)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends μ-law audio to the queue as is, without any transcoding.  The data is expected to be 8000 khz sample
+     * rate, 1 channel.  The caller may reuse the buffer once this method returns.
+     *
+     * @param data The μ-law audio data.
+     * @param offset Offset of the first byte to append.
+     * @param length Number of bytes to append.
+     * @throws InterruptedException If an interrupt is thrown while appending audio data to the queue.
+     */
+    public void appendUlaw(byte[] data, int offset, int length) throws InterruptedException {
+        Objects.checkFromIndexSize(offset, length, data.length);
+        if (interrupted.get()) {
+            log.debug("Ignoring audio data due to interruption");
+            return;
+        }
+        synchronized (appendLock) {
+            enqueue(ByteBuffer.wrap(data, offset, length));
+        }
+    }
+
+    /**
+     * Appends μ-law audio to the queue as is, without any transcoding or copying.  The audio between the buffer's
+     * position and limit is played straight from the buffer, after everything queued before it.  The buffer's
+     * position is not modified, so a shared read-only or memory-mapped buffer can be played by several calls at
+     * once, but its contents must not change until played.  Such audio takes no room in the ring buffer, so it never
+     * waits for playback however long it is.
+     *
+     * @param audio The μ-law audio data.
+     * @throws InterruptedException If an interrupt is thrown while appending audio data to the queue.
+     */
+    public void appendUlaw(ByteBuffer audio) throws InterruptedException {
+        if (interrupted.get()) {
+            log.debug("Ignoring audio data due to interruption");
+            return;
+        }
+        synchronized (appendLock) {
+            UlawRingBuffer spill = this.spill;
+            if (spill != null && spill.available() > 0) {
+                // Spilled audio plays after the whole ring buffer, so a prompt can't be cued behind it and is copied
+                enqueue(audio.duplicate());
+                return;
+            }
+            if (debugAudioSent) {
+                writeDebugAudio(audio);
+            }
+            cues.add(new Cue(buffer.writeCount(), audio.slice()));
+        }
+    }
+
+    /**
+     * Enqueues the first count bytes of the scratch buffer.
+     */
+    private boolean enqueueScratch(int count) throws InterruptedException {
+        scratchBuffer.clear();
+        scratchBuffer.limit(count);
+        return enqueue(scratchBuffer);
+    }
+
+    /**
+     * Moves μ-law audio into the ring buffer.  If the buffer is full the overflow policy applies: DROP_OLDEST
+     * discards the oldest audio and writes straight into its space, while the other policies park until the reader
+     * makes room for whatever could not be placed.
+     *
+     * @param src The μ-law audio, which is consumed from its position to its limit.
+     * @return false if the audio was discarded because of an interruption or the stream closing.
+     * @throws InterruptedException If the thread is interrupted while waiting for room.
+     */
+    private boolean enqueue(ByteBuffer src) throws InterruptedException {
         if (debugAudioSent) {
-            // Transcoded audio will be written to a .raw file for debugging purposes.  This can be opened
-            // with an audio editor like Audacity (File -> Import -> Raw Data, then use U-Law encoding,
-            // 8000 khz sample rate, 1 channel).
-            //
-            try {
-                OutputStream testOutput = new FileOutputStream("bedrock.raw", true);
-                testOutput.write(data);
-                testOutput.close();
-            } catch (IOException e) {
-                log.warn("Failed to write debugging audio output", e);
+            writeDebugAudio(src);
+        }
+
+        write(src);
+        if (!src.hasRemaining()) {
+            return true;
+        }
+        blockedProducer = Thread.currentThread();
+        try {
+            while (true) {
+                if (interrupted.get() || !open) {
+                    return false;
+                }
+                if (OVERFLOW_POLICY == OverflowPolicy.DROP_OLDEST) {
+                    // Discarded space is reused at once, so the producer never waits for the reader
+                    PlayoutBufferMetrics.getInstance().recordDropped(
+                            buffer.discardOldest(src.remaining() - buffer.free()));
+                }
+                // Tried again after publishing this thread, so room the reader makes before the park isn't missed
+                write(src);
+                if (!src.hasRemaining()) {
+                    return true;
+                }
+                if (OVERFLOW_POLICY != OverflowPolicy.DROP_OLDEST) {
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            }
+        } finally {
+            blockedProducer = null;
+        }
+    }
+
+    /**
+     * Wakes the producer if it is parked waiting for room.  Called after the reader has made room, or when waiting
+     * is no longer needed.
+     */
+    private void wakeProducer() {
+        // Orders the reader's release of space before the check, pairing with the producer publishing itself
+        // before it tries again
+        VarHandle.fullFence();
+        Thread producer = blockedProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    /**
+     * Writes audio as received from Nova to a .raw file for debugging purposes.  This can be opened with an audio
+     * editor like Audacity (File -> Import -> Raw Data, then use U-Law encoding, 8000 khz sample rate, 1 channel).
+     * The file is named after the stream and held open until it closes, so calls don't interleave in one file.
+     *
+     * @param src The μ-law audio.  Its position is not changed.
+     */
+    private void writeDebugAudio(ByteBuffer src) {
+        try {
+            if (bedrockOutput == null) {
+                bedrockOutput = new FileOutputStream(name + "-bedrock.raw");
+            }
+            if (src.hasArray()) {
+                bedrockOutput.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            } else {
+                byte[] copy = new byte[src.remaining()];
+                src.duplicate().get(copy);
+                bedrockOutput.write(copy);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to write debugging audio output", e);
+        }
+    }
+
+    /**
+     * Writes as much of the audio as fits, keeping it in order across the ring buffer and the spill region.
+     *
+     * @param src The μ-law audio.  Its position is advanced past what was written.
+     */
+    private void write(ByteBuffer src) {
+        UlawRingBuffer spill = this.spill;
+        if (spill == null || spill.available() == 0) {
+            buffer.write(src);
+        }
+        if (src.hasRemaining() && OVERFLOW_POLICY == OverflowPolicy.SPILL) {
+            if (spill == null) {
+                spill = new UlawRingBuffer(SPILL_MILLIS * BYTES_PER_MILLI, true);
+                this.spill = spill;
+                log.debug("Allocated {} byte spill region for {}", spill.capacity(), name);
             }
+            PlayoutBufferMetrics.getInstance().recordSpilled(spill.write(src));
         }
     }
 
@@ -60,45 +338,123 @@ public class QueuedUlawInputStream extends InputStream {
         if (!open) {
             throw new IOException("Stream is closed!");
         }
+        if (interrupted.get() || readAudio(single, 0, 1) == 0) {
+            single[0] = SILENCE; // silence is represented by 0x7f.
+        }
+        sent(single, 0, 1);
+        byte readByte = single[0];
+        // -1 indicates end of stream .. just use 0 instead
+        return readByte != -1 ? readByte : SILENCE;
+    }
+
+    /**
+     * Reads a whole frame at once.  Buffered Nova audio is copied in bulk and any shortfall is filled with
+     * silence, so this always returns len bytes and never blocks.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (!open) {
+            throw new IOException("Stream is closed!");
+        }
+        int count = interrupted.get() ? 0 : readAudio(b, off, len);
+        if (count < len) {
+            Arrays.fill(b, off + count, off + len, SILENCE);
+        }
+        sent(b, off, len);
+        return len;
+    }
+
+    /**
+     * Passes audio that has been read, and so sent to the caller, to the debug output and the call recorder.
+     */
+    private void sent(byte[] b, int off, int len) throws IOException {
         if (testOutput == null && debugAudioSent) {
-            testOutput = new FileOutputStream("sent.raw");
+            testOutput = new FileOutputStream(name + "-sent.raw");
         }
-        if (open && (currentChunk == null || currentIndex >= currentChunk.length)) {
-            try {
-                if (queue.isEmpty() || interrupted.get()) {
-                    if (testOutput != null) {
-                        testOutput.write(SILENCE);
-                    }
-                    return SILENCE;
+        if (testOutput != null) {
+            testOutput.write(b, off, len);
+        }
+        CallRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.recordNova(b, off, len);
+        }
+    }
+
+    /**
+     * Reads up to len bytes of queued audio, in the order it was queued across the ring buffer, the spill region and
+     * any cued prompts, and wakes the producer if it is waiting for room.
+     *
+     * @return The number of bytes read, 0 if nothing is queued.
+     */
+    private int readAudio(byte[] b, int off, int len) {
+        if (cuesFlushed) {
+            cuesFlushed = false;
+            playingCue = null;
+        }
+        int count = 0;
+        while (count < len) {
+            ByteBuffer cue = playingCue;
+            if (cue != null) {
+                int more = Math.min(len - count, cue.remaining());
+                cue.get(b, off + count, more);
+                count += more;
+                if (!cue.hasRemaining()) {
+                    playingCue = null;
                 }
-                currentChunk = queue.poll(1, TimeUnit.MICROSECONDS);
-                currentIndex = 0;
-                //log.debug("Advance read queue to {}", currentChunk);
-            } catch (InterruptedException e) {
+                continue;
             }
-            if (currentChunk == null) {
-                if (testOutput != null) {
-                    testOutput.write(SILENCE);
+            int more;
+            Cue next = cues.peek();
+            if (next != null) {
+                long ahead = next.at - buffer.readCount();
+                if (ahead <= 0) {
+                    cues.poll();
+                    playingCue = next.audio;
+                    continue;
                 }
-                return SILENCE; // silence is represented by 0x7f.
+                more = buffer.read(b, off + count, (int) Math.min(len - count, ahead));
+            } else {
+                more = buffer.read(b, off + count, len - count);
+                UlawRingBuffer spill = this.spill;
+                if (more == 0 && spill != null && spill.available() > 0) {
+                    // The producer may have refilled the ring buffer, or cued a prompt, just before spilling the rest
+                    // of a chunk.  Having seen the spilled audio, those are visible too and must be played first.
+                    if (!cues.isEmpty()) {
+                        continue;
+                    }
+                    more = buffer.read(b, off + count, len - count);
+                    if (more == 0) {
+                        more = spill.read(b, off + count, len - count);
+                    }
+                }
+            }
+            if (more == 0) {
+                break;
             }
+            count += more;
         }
-        byte readByte = currentChunk[currentIndex];
-        currentIndex++;
-        if (testOutput != null) {
-            testOutput.write(readByte);
+        if (count > 0) {
+            wakeProducer();
         }
-        // -1 indicates end of stream .. just use 0 instead
-        return readByte != -1 ? readByte : SILENCE;
+        return count;
     }
 
     @Override
     public void close() throws IOException {
         this.open = false;
+        wakeProducer();
+        PlayoutBufferMetrics.getInstance().unregister(this);
         if (testOutput != null) {
             testOutput.close();
             testOutput = null;
         }
+        synchronized (appendLock) {
+            if (bedrockOutput != null) {
+                bedrockOutput.close();
+                bedrockOutput = null;
+            }
+        }
     }
 
     /**
@@ -108,9 +464,14 @@ public class QueuedUlawInputStream extends InputStream {
     public void interrupt() {
         log.info("Interrupting audio output for barge-in");
         interrupted.set(true);
-        queue.clear();
-        currentChunk = null;
-        currentIndex = -1;
+        buffer.flush();
+        UlawRingBuffer spill = this.spill;
+        if (spill != null) {
+            spill.flush();
+        }
+        cues.clear();
+        cuesFlushed = true;
+        wakeProducer();
     }
 
     /**
@@ -129,6 +490,31 @@ public class QueuedUlawInputStream extends InputStream {
         return interrupted.get();
     }
 
+    /**
+     * Sets the recorder that frames read from this stream, i.e. the audio actually sent to the caller, are
+     * recorded to.
+     * @param recorder The call recorder.
+     */
+    public void setRecorder(CallRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * @return The name this stream is reported under in {@link PlayoutBufferMetrics}.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Milliseconds of audio buffered ahead of playback, including any spilled audio but not cued prompts.
+     */
+    public int getBufferedMillis() {
+        UlawRingBuffer spill = this.spill;
+        int bytes = buffer.available() + (spill != null ? spill.available() : 0);
+        return bytes / BYTES_PER_MILLI;
+    }
+
     @Override
     public synchronized void reset() throws IOException {
     }
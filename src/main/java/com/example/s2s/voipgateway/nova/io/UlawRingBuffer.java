@@ -0,0 +1,277 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer/single-consumer ring buffer of μ-law audio bytes.
+ *
+ * One thread may write and one thread may read concurrently without locks; neither side ever waits on the other.
+ * Positions are running byte counts, so the buffer holds (writePosition - readPosition) bytes.  Any thread may
+ * request a flush, which the reader applies as a single move of its position on its next access.
+ *
+ * Discarded space is free for the writer as soon as it is marked, without waiting for the reader to move past it.
+ * The reader may therefore be copying bytes that are discarded and overwritten under it; after each copy it checks
+ * the flush mark again, and drops what it copied and reads again from the mark if the mark has passed it.
+ *
+ * The storage is either on the heap or, for large overflow regions, a direct buffer outside of it.
+ */
+public class UlawRingBuffer {
+    private final int capacity;
+    private final int mask;
+    // Each side positions its own view of the storage, so neither touches the other's buffer state
+    private final ByteBuffer writeView;
+    private final ByteBuffer readView;
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+    private final AtomicLong flushPosition = new AtomicLong();
+
+    /**
+     * Creates a heap ring buffer with room for at least the given number of bytes.  The capacity is rounded up to
+     * a power of two.
+     *
+     * @param minimumCapacity The minimum capacity in bytes.
+     */
+    public UlawRingBuffer(int minimumCapacity) {
+        this(minimumCapacity, false);
+    }
+
+    /**
+     * Creates a ring buffer with room for at least the given number of bytes.  The capacity is rounded up to a
+     * power of two.
+     *
+     * @param minimumCapacity The minimum capacity in bytes.
+     * @param direct true to allocate the storage outside of the heap.
+     */
+    public UlawRingBuffer(int minimumCapacity, boolean direct) {
+        if (minimumCapacity <= 0 || minimumCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity: " + minimumCapacity);
+        }
+        int size = Integer.highestOneBit(minimumCapacity);
+        if (size < minimumCapacity) {
+            size <<= 1;
+        }
+        ByteBuffer storage = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        this.capacity = size;
+        this.mask = size - 1;
+        this.writeView = storage.duplicate();
+        this.readView = storage.duplicate();
+    }
+
+    /**
+     * Creates a heap ring buffer that holds the given duration of 8000 Hz μ-law audio.
+     *
+     * @param millis The duration in milliseconds.
+     * @return The ring buffer.
+     */
+    public static UlawRingBuffer forDuration(int millis) {
+        return new UlawRingBuffer(millis * 8);
+    }
+
+    /**
+     * @return The capacity in bytes.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of bytes waiting to be read.  Exact on the reader thread, a snapshot elsewhere.
+     */
+    public int available() {
+        long read = Math.max(readPosition.get(), flushPosition.get());
+        return (int) Math.max(0, writePosition.get() - read);
+    }
+
+    /**
+     * @return The running count of bytes written.
+     */
+    public long writeCount() {
+        return writePosition.get();
+    }
+
+    /**
+     * @return The running count of bytes read or discarded.  Exact on the reader thread, a snapshot elsewhere.
+     */
+    public long readCount() {
+        return consumedPosition();
+    }
+
+    /**
+     * @return The number of bytes that can be written.  Exact on the writer thread, a lower bound elsewhere.
+     */
+    public int free() {
+        return capacity - (int) (writePosition.get() - consumedPosition());
+    }
+
+    /**
+     * Writes as many bytes as fit.  Writer thread only.
+     *
+     * @param src The source.
+     * @param offset Offset of the first byte.
+     * @param length Number of bytes to write.
+     * @return The number of bytes written, which is less than length if the buffer is full.
+     */
+    public int write(byte[] src, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, src.length);
+        long write = writePosition.get();
+        int count = Math.min(length, capacity - (int) (write - consumedPosition()));
+        if (count <= 0) {
+            return 0;
+        }
+        int index = (int) write & mask;
+        int first = Math.min(count, capacity - index);
+        writeView.position(index);
+        writeView.put(src, offset, first);
+        writeView.position(0);
+        writeView.put(src, offset + first, count - first);
+        writePosition.lazySet(write + count);
+        return count;
+    }
+
+    /**
+     * Writes as many of the source's remaining bytes as fit, advancing its position.  Writer thread only.
+     *
+     * @param src The source.
+     * @return The number of bytes written, which is less than src.remaining() if the buffer is full.
+     */
+    public int write(ByteBuffer src) {
+        long write = writePosition.get();
+        int count = Math.min(src.remaining(), capacity - (int) (write - consumedPosition()));
+        if (count <= 0) {
+            return 0;
+        }
+        int index = (int) write & mask;
+        int first = Math.min(count, capacity - index);
+        int limit = src.limit();
+        writeView.position(index);
+        src.limit(src.position() + first);
+        writeView.put(src);
+        writeView.position(0);
+        src.limit(src.position() + count - first);
+        writeView.put(src);
+        src.limit(limit);
+        writePosition.lazySet(write + count);
+        return count;
+    }
+
+    /**
+     * Reads a single byte.  Reader thread only.
+     *
+     * @return The byte as 0-255, or -1 if the buffer is empty.
+     */
+    public int read() {
+        long read = applyFlush();
+        while (true) {
+            if (read == writePosition.get()) {
+                return -1;
+            }
+            int value = readView.get((int) read & mask) & 0xFF;
+            long mark = discardedSince(read);
+            if (mark < 0) {
+                readPosition.lazySet(read + 1);
+                return value;
+            }
+            read = mark;
+        }
+    }
+
+    /**
+     * Reads up to length bytes.  Reader thread only.
+     *
+     * @param dst The destination.
+     * @param offset Offset in the destination to start writing at.
+     * @param length Maximum number of bytes to read.
+     * @return The number of bytes read, 0 if the buffer is empty.
+     */
+    public int read(byte[] dst, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, dst.length);
+        long read = applyFlush();
+        while (true) {
+            int count = (int) Math.min(length, writePosition.get() - read);
+            if (count <= 0) {
+                return 0;
+            }
+            int index = (int) read & mask;
+            int first = Math.min(count, capacity - index);
+            readView.position(index);
+            readView.get(dst, offset, first);
+            readView.position(0);
+            readView.get(dst, offset + first, count - first);
+            long mark = discardedSince(read);
+            if (mark < 0) {
+                readPosition.lazySet(read + count);
+                return count;
+            }
+            read = mark;
+        }
+    }
+
+    /**
+     * Discards everything written so far.  Safe to call from any thread; the reader skips the discarded bytes on
+     * its next access, so the writer may keep writing and newer audio is kept.
+     */
+    public void flush() {
+        discardTo(writePosition.get());
+    }
+
+    /**
+     * Discards up to the given number of the oldest buffered bytes.  Safe to call from any thread; the space is
+     * free for the writer straight away.
+     *
+     * @param count The number of bytes to discard.
+     * @return The number of bytes newly marked as discarded.
+     */
+    public int discardOldest(int count) {
+        long write = writePosition.get();
+        long from = Math.max(readPosition.get(), flushPosition.get());
+        long to = Math.min(write, from + count);
+        discardTo(to);
+        return (int) Math.max(0, to - from);
+    }
+
+    /**
+     * Raises the flush mark to the given position.
+     */
+    private void discardTo(long position) {
+        long mark;
+        do {
+            mark = flushPosition.get();
+        } while (mark < position && !flushPosition.compareAndSet(mark, position));
+    }
+
+    /**
+     * @return The position up to which bytes have been read or discarded, and their space can be reused.
+     */
+    private long consumedPosition() {
+        return Math.max(readPosition.get(), flushPosition.get());
+    }
+
+    /**
+     * Checks, after a copy starting at the given position, whether some of the copied bytes were discarded while
+     * they were being copied.  The writer may already have overwritten them.
+     * @return The flush mark to read from instead, or -1 if the copy is good.
+     */
+    private long discardedSince(long read) {
+        // Keeps the copy from being reordered after the check, as in a seqlock
+        VarHandle.acquireFence();
+        long mark = flushPosition.get();
+        return mark > read ? mark : -1;
+    }
+
+    /**
+     * Moves the read position past any flushed bytes.
+     * @return The current read position.
+     */
+    private long applyFlush() {
+        long read = readPosition.get();
+        long mark = flushPosition.get();
+        if (mark > read) {
+            readPosition.lazySet(mark);
+            return mark;
+        }
+        return read;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.s2s.voipgateway.nova.observer;
+
+import com.example.s2s.voipgateway.nova.event.NovaSonicEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+/**
+ * The events that open a session - session start, prompt start and the system prompt - serialized once and reused
+ * for every call with the same configuration.  Only the prompt and content names differ between calls, and since
+ * they are UUIDs, which are always 36 ASCII characters, rendering a call's events is a copy with the names written
+ * over slots in the template.
+ */
+public class BootstrapTemplate {
+    private static final int NAME_LENGTH = 36;
+    private final List<byte[]> templates = new ArrayList<>();
+    private final List<int[]> promptNameSlots = new ArrayList<>();
+    private final List<int[]> contentNameSlots = new ArrayList<>();
+
+    /**
+     * Compiles a template.
+     * @param events Creates the bootstrap events for a prompt name and system prompt content name.  It is called once,
+     * with placeholder names.
+     */
+    public BootstrapTemplate(BiFunction<String, String, List<NovaSonicEvent>> events) {
+        // Random placeholders can't turn up by chance in the prompt or configuration
+        byte[] promptName = UUID.randomUUID().toString().getBytes(StandardCharsets.US_ASCII);
+        byte[] contentName = UUID.randomUUID().toString().getBytes(StandardCharsets.US_ASCII);
+        NovaEventSerializer serializer = new NovaEventSerializer();
+        for (NovaSonicEvent event : events.apply(new String(promptName, StandardCharsets.US_ASCII),
+                new String(contentName, StandardCharsets.US_ASCII))) {
+            byte[] template = serializer.serialize(event);
+            templates.add(template);
+            promptNameSlots.add(find(template, promptName));
+            contentNameSlots.add(find(template, contentName));
+        }
+    }
+
+    /**
+     * Renders the bootstrap events for a call.
+     * @param promptName The prompt name, a UUID.
+     * @param contentName The content name of the system prompt, a UUID.
+     * @return The serialized events, in the order they are to be sent.
+     */
+    public List<byte[]> render(String promptName, String contentName) {
+        byte[] prompt = toName(promptName);
+        byte[] content = toName(contentName);
+        List<byte[]> rendered = new ArrayList<>(templates.size());
+        for (int i = 0; i < templates.size(); i++) {
+            byte[] event = templates.get(i).clone();
+            fill(event, promptNameSlots.get(i), prompt);
+            fill(event, contentNameSlots.get(i), content);
+            rendered.add(event);
+        }
+        return rendered;
+    }
+
+    private static byte[] toName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length != NAME_LENGTH || name.length() != NAME_LENGTH) {
+            throw new IllegalArgumentException("Expected a UUID but got " + name);
+        }
+        return bytes;
+    }
+
+    private static void fill(byte[] event, int[] slots, byte[] name) {
+        for (int slot : slots) {
+            System.arraycopy(name, 0, event, slot, NAME_LENGTH);
+        }
+    }
+
+    /**
+     * Finds every occurrence of a placeholder.
+     * @return The offsets.
+     */
+    private static int[] find(byte[] template, byte[] placeholder) {
+        int[] slots = new int[0];
+        for (int i = 0; i <= template.length - placeholder.length; i++) {
+            if (Arrays.equals(template, i, i + placeholder.length, placeholder, 0, placeholder.length)) {
+                slots = Arrays.copyOf(slots, slots.length + 1);
+                slots[slots.length - 1] = i;
+                i += placeholder.length - 1;
+            }
+        }
+        return slots;
+    }
+}
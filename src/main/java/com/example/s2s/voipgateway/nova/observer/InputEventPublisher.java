@@ -0,0 +1,350 @@
+package com.example.s2s.voipgateway.nova.observer;
+
+import com.example.s2s.voipgateway.constants.SonicAudioConfig;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.bedrockruntime.model.BidirectionalInputPayloadPart;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidirectionalStreamInput;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Publishes a session's input events to the Bedrock SDK as fast as it asks for them.
+ *
+ * Events are held only until they are delivered.  The exception is the bootstrap events that open the session,
+ * which are kept so that a subscriber arriving late, after another has cancelled, still sees the session start.
+ * Audio the subscriber hasn't asked for yet is buffered up to INPUT_BUFFER_EVENTS events; beyond that
+ * INPUT_BUFFER_OVERFLOW decides what happens.  Other events are never dropped.  A subscriber arriving once the
+ * stream has completed or failed is sent onComplete or onError straight away.
+ */
+public class InputEventPublisher implements Publisher<InvokeModelWithBidirectionalStreamInput> {
+    private static final Logger log = LoggerFactory.getLogger(InputEventPublisher.class);
+    private static final int CAPACITY = Integer.parseInt(System.getenv().getOrDefault("INPUT_BUFFER_EVENTS", "50"));
+    private static final Overflow OVERFLOW = Overflow.fromEnvironment();
+    // A coalesced event holds at most a second of audio
+    private static final int MAX_COALESCED_BYTES = SonicAudioConfig.SAMPLE_RATE * SonicAudioConfig.SAMPLE_SIZE / 8
+            * SonicAudioConfig.CHANNEL_COUNT;
+    private final int capacity;
+    private final Overflow overflow;
+    private final List<InvokeModelWithBidirectionalStreamInput> bootstrap = new ArrayList<>();
+    private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+    private boolean bootstrapping = true;
+    private int queuedAudio;
+    private long overflowedAudio;
+    private InputSubscription current;
+    private boolean subscribedBefore;
+    private boolean draining;
+    private boolean done;
+    private boolean terminated;
+    private Throwable error;
+
+    /**
+     * What to do with audio once INPUT_BUFFER_EVENTS audio events are waiting for the subscriber.
+     */
+    public enum Overflow {
+        /**
+         * Merge the new audio into the newest waiting audio event, so no audio is lost, up to a second per event;
+         * after that, drop the oldest.
+         */
+        COALESCE,
+        /**
+         * Drop the oldest waiting audio.
+         */
+        DROP,
+        /**
+         * Fail the stream.
+         */
+        FAIL;
+
+        /**
+         * @return The policy set by INPUT_BUFFER_OVERFLOW.  An unknown value is logged and COALESCE used instead.
+         */
+        static Overflow fromEnvironment() {
+            String value = System.getenv().getOrDefault("INPUT_BUFFER_OVERFLOW", "coalesce");
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown INPUT_BUFFER_OVERFLOW {}, using coalesce", value);
+                return COALESCE;
+            }
+        }
+    }
+
+    /**
+     * Creates a publisher that buffers and overflows as INPUT_BUFFER_EVENTS and INPUT_BUFFER_OVERFLOW say.
+     */
+    public InputEventPublisher() {
+        this(CAPACITY, OVERFLOW);
+    }
+
+    /**
+     * @param capacity The most audio events that may wait for the subscriber.
+     * @param overflow What to do with audio beyond that.
+     */
+    InputEventPublisher(int capacity, Overflow overflow) {
+        this.capacity = capacity;
+        this.overflow = overflow;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super InvokeModelWithBidirectionalStreamInput> subscriber) {
+        InputSubscription subscription = new InputSubscription(subscriber);
+        boolean ended = false;
+        Throwable failure = null;
+        synchronized (this) {
+            if (terminated || (done && error != null)) {
+                // The stream is over, so a late subscriber is told how it ended rather than being refused
+                subscription.cancelled = true;
+                ended = true;
+                failure = error;
+            } else if (current != null) {
+                // Rule 1.9 allows rejecting a second subscriber, as long as it is through onError
+                subscription.cancelled = true;
+                failure = new IllegalStateException("Input events already have a subscriber");
+            } else {
+                if (subscribedBefore) {
+                    // The previous subscriber may have consumed the bootstrap events, so they go out again first
+                    for (int i = bootstrap.size() - 1; i >= 0; i--) {
+                        queue.addFirst(new Queued(bootstrap.get(i), false));
+                    }
+                }
+                subscribedBefore = true;
+                current = subscription;
+            }
+        }
+        subscriber.onSubscribe(subscription);
+        if (failure != null) {
+            subscriber.onError(failure);
+            return;
+        }
+        if (ended) {
+            subscriber.onComplete();
+            return;
+        }
+        synchronized (this) {
+            subscription.ready = true;
+        }
+        drain();
+    }
+
+    /**
+     * Publishes an event.  Calls must not overlap.
+     * @param input The event.
+     * @param audio true if the event is audio, which may be dropped or coalesced if the subscriber falls behind.
+     */
+    void publish(InvokeModelWithBidirectionalStreamInput input, boolean audio) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            if (bootstrapping && !audio) {
+                bootstrap.add(input);
+            }
+            if (audio && queuedAudio >= capacity) {
+                overflow(input);
+            } else {
+                enqueue(input, audio);
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Marks the end of the bootstrap events.  Nothing published after this is kept once delivered.
+     */
+    synchronized void endBootstrap() {
+        bootstrapping = false;
+    }
+
+    /**
+     * Completes the stream once everything published so far has been delivered.
+     */
+    public void complete() {
+        synchronized (this) {
+            done = true;
+        }
+        drain();
+    }
+
+    /**
+     * Fails the stream straight away, dropping anything not yet delivered.
+     * @param error The error.
+     */
+    public void fail(Throwable error) {
+        synchronized (this) {
+            if (done && this.error != null) {
+                return;
+            }
+            done = true;
+            this.error = error;
+            clear();
+        }
+        drain();
+    }
+
+    private void enqueue(InvokeModelWithBidirectionalStreamInput input, boolean audio) {
+        queue.add(new Queued(input, audio));
+        if (audio) {
+            queuedAudio++;
+        }
+    }
+
+    private void overflow(InvokeModelWithBidirectionalStreamInput input) {
+        if (overflowedAudio++ == 0) {
+            log.warn("Input events are backing up, applying overflow policy {}", overflow);
+        }
+        switch (overflow) {
+            case FAIL:
+                done = true;
+                error = new IllegalStateException("More than " + capacity + " audio events waiting to be sent");
+                clear();
+                return;
+            case COALESCE:
+                Queued newest = queue.peekLast();
+                if (newest != null && newest.audio) {
+                    byte[] merged = NovaEventSerializer.mergeAudio(bytes(newest.input), bytes(input), MAX_COALESCED_BYTES);
+                    if (merged != null) {
+                        newest.input = InvokeModelWithBidirectionalStreamInput.chunkBuilder()
+                                .bytes(SdkBytes.fromByteArrayUnsafe(merged))
+                                .build();
+                        return;
+                    }
+                }
+                // Fall through to dropping the oldest
+            case DROP:
+            default:
+                for (Iterator<Queued> iterator = queue.iterator(); iterator.hasNext(); ) {
+                    Queued queued = iterator.next();
+                    if (queued.audio) {
+                        iterator.remove();
+                        queuedAudio--;
+                        break;
+                    }
+                }
+                enqueue(input, true);
+        }
+    }
+
+    private static byte[] bytes(InvokeModelWithBidirectionalStreamInput input) {
+        return ((BidirectionalInputPayloadPart) input).bytes().asByteArrayUnsafe();
+    }
+
+    private void clear() {
+        queue.clear();
+        queuedAudio = 0;
+    }
+
+    /**
+     * Delivers what the subscriber has asked for.  Only one thread delivers at a time, so signals never overlap; the
+     * others leave their events for it.  Signals are sent outside the lock, since the subscriber may call back in.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            InputSubscription subscription;
+            InvokeModelWithBidirectionalStreamInput next = null;
+            Throwable failure = null;
+            synchronized (this) {
+                subscription = current;
+                if (subscription == null || !subscription.ready || terminated) {
+                    draining = false;
+                    return;
+                }
+                if (!queue.isEmpty() && subscription.requested > 0) {
+                    Queued queued = queue.poll();
+                    if (queued.audio) {
+                        queuedAudio--;
+                    }
+                    subscription.requested--;
+                    next = queued.input;
+                } else if (queue.isEmpty() && done) {
+                    terminated = true;
+                    failure = error;
+                    if (overflowedAudio > 0) {
+                        log.info("{} audio events overflowed the input buffer", overflowedAudio);
+                    }
+                } else {
+                    draining = false;
+                    return;
+                }
+            }
+            if (next != null) {
+                subscription.subscriber.onNext(next);
+            } else if (failure != null) {
+                subscription.subscriber.onError(failure);
+            } else {
+                subscription.subscriber.onComplete();
+            }
+        }
+    }
+
+    /**
+     * A waiting event.
+     */
+    private static class Queued {
+        private InvokeModelWithBidirectionalStreamInput input;
+        private final boolean audio;
+
+        private Queued(InvokeModelWithBidirectionalStreamInput input, boolean audio) {
+            this.input = input;
+            this.audio = audio;
+        }
+    }
+
+    /**
+     * The subscriber's demand.  Guarded by the publisher.
+     */
+    private class InputSubscription implements Subscription {
+        private final Subscriber<? super InvokeModelWithBidirectionalStreamInput> subscriber;
+        private long requested;
+        private boolean ready;
+        private boolean cancelled;
+
+        private InputSubscription(Subscriber<? super InvokeModelWithBidirectionalStreamInput> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (InputEventPublisher.this) {
+                if (cancelled) {
+                    return;
+                }
+                if (n > 0) {
+                    requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+                } else {
+                    // Rule 3.9: the subscription fails, leaving the events for another subscriber
+                    cancel();
+                }
+            }
+            if (n <= 0) {
+                subscriber.onError(new IllegalArgumentException("request(" + n + ") must be positive"));
+                return;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (InputEventPublisher.this) {
+                cancelled = true;
+                if (current == this) {
+                    current = null;
+                }
+            }
+        }
+    }
+}
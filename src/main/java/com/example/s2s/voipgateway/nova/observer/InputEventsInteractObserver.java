@@ -3,16 +3,14 @@ package com.example.s2s.voipgateway.nova.observer;
 
 import com.example.s2s.voipgateway.nova.event.AudioInputEvent;
 import com.example.s2s.voipgateway.nova.event.NovaSonicEvent;
-import com.example.s2s.voipgateway.nova.event.NovaSonicEventContainer;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.reactivestreams.Subscriber;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.bedrockruntime.model.BidirectionalInputPayloadPart;
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidirectionalStreamInput;
 
+import java.nio.charset.StandardCharsets;
+
 import static software.amazon.awssdk.thirdparty.io.netty.util.internal.ObjectUtil.checkNotNull;
 
 /**
@@ -20,30 +18,53 @@ import static software.amazon.awssdk.thirdparty.io.netty.util.internal.ObjectUti
  */
 public class InputEventsInteractObserver implements InteractObserver<NovaSonicEvent> {
     private static final Logger log = LoggerFactory.getLogger(InputEventsInteractObserver.class);
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     private static final String SESSION_END = "{\"event\": {\"sessionEnd\": {}}}";
-    private final Subscriber<InvokeModelWithBidirectionalStreamInput> subscriber;
+    private final InputEventPublisher publisher;
+    private final NovaEventSerializer serializer = new NovaEventSerializer();
     private boolean active = true;
 
-    public InputEventsInteractObserver(Subscriber<InvokeModelWithBidirectionalStreamInput> subscriber) {
-        this.subscriber = checkNotNull(subscriber, "subscriber cannot be null");
+    public InputEventsInteractObserver(InputEventPublisher publisher) {
+        this.publisher = checkNotNull(publisher, "publisher cannot be null");
     }
 
+    /**
+     * Sends an event.  Audio, the flush timer and tool results are sent from different threads, and reactive-streams
+     * requires onNext calls to be serialized, so this is synchronized.
+     */
     @Override
-    public void onNext(NovaSonicEvent event) {
-        String msg = writeJson(new NovaSonicEventContainer(event));
-        if (!(event instanceof AudioInputEvent)) {
-            log.info("publishing message {}", msg);
+    public synchronized void onNext(NovaSonicEvent event) {
+        byte[] msg = serializer.serialize(event);
+        if (!(event instanceof AudioInputEvent) && log.isInfoEnabled()) {
+            log.info("publishing message {}", new String(msg, StandardCharsets.UTF_8));
         }
-        this.subscriber.onNext(inputBuilder(msg));
+        // Wrapped without a copy, since the serializer never reuses a payload it has returned
+        this.publisher.publish(inputBuilder(SdkBytes.fromByteArrayUnsafe(msg)), event instanceof AudioInputEvent);
+    }
+
+    /**
+     * Sends an event that has already been serialized, such as one rendered from a {@link BootstrapTemplate}.
+     * @param msg The UTF-8 JSON of the event, wrapped in its event container.  It must not be modified afterwards.
+     */
+    public synchronized void onNext(byte[] msg) {
+        if (log.isInfoEnabled()) {
+            log.info("publishing message {}", new String(msg, StandardCharsets.UTF_8));
+        }
+        this.publisher.publish(inputBuilder(SdkBytes.fromByteArrayUnsafe(msg)), false);
+    }
+
+    /**
+     * Marks the end of the events that open the session, which are the only ones the publisher keeps once sent.
+     */
+    public void endBootstrap() {
+        publisher.endBootstrap();
     }
 
     @Override
-    public void onComplete() {
+    public synchronized void onComplete() {
         try {
             log.info("onComplete()");
-            this.subscriber.onNext(inputBuilder(SESSION_END));
-            this.subscriber.onComplete();
+            this.publisher.publish(inputBuilder(SdkBytes.fromUtf8String(SESSION_END)), false);
+            this.publisher.complete();
         } finally {
             active=false;
         }
@@ -59,22 +80,9 @@ public class InputEventsInteractObserver implements InteractObserver<NovaSonicEv
         return active;
     }
 
-    private BidirectionalInputPayloadPart inputBuilder (String input) {
+    private BidirectionalInputPayloadPart inputBuilder (SdkBytes input) {
         return InvokeModelWithBidirectionalStreamInput.chunkBuilder()
-                .bytes(SdkBytes.fromUtf8String(input))
+                .bytes(input)
                 .build();
     }
-
-    /**
-     * Converts a value to a JSON string.
-     * @param value The value
-     * @return The JSON string
-     */
-    private static String writeJson(Object value) {
-        try {
-            return OBJECT_MAPPER.writeValueAsString(value);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
-    }
 }
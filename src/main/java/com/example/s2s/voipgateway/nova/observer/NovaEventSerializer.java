@@ -0,0 +1,644 @@
+package com.example.s2s.voipgateway.nova.observer;
+
+import com.example.s2s.voipgateway.nova.event.*;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Serializes outbound Nova Sonic events to UTF-8 JSON without reflection.  The JSON is written straight into a
+ * reusable buffer rather than going through a String, and produces the same document Jackson would for the
+ * nova.event types.  Events of other types, and property values other than strings, numbers, booleans, maps, lists
+ * and MediaConfigurations, are handed to Jackson.
+ *
+ * Audio input events take a faster path: everything up to the Base64 content is encoded once per content block and
+ * reused, and the payload is sized exactly and spliced in.  The content is written last so that the tail of the
+ * template is constant.  Digital silence is served from a cached payload, so silence allocates no payload arrays at
+ * all.
+ *
+ * One serializer is used per stream; it is thread safe since events may be sent from several threads.
+ */
+public class NovaEventSerializer {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final byte[] AUDIO_SUFFIX = "\"}}}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private byte[] buffer = new byte[1024];
+    private int count;
+    // The audio template for the current content block
+    private String audioPromptName;
+    private String audioContentName;
+    private String audioRole;
+    private byte[] audioPrefix;
+    // Shared by every silent audio event of the current content block
+    private String silenceContent;
+    private byte[] silencePayload;
+
+    /**
+     * Serializes an event, wrapped in its event container.
+     * @param event The event.
+     * @return The UTF-8 JSON, in an array of exactly its size.  Silence payloads are shared, so audio payloads must not
+     * be modified.
+     */
+    public synchronized byte[] serialize(NovaSonicEvent event) {
+        if (event instanceof AudioInputEvent) {
+            byte[] payload = serializeAudio(((AudioInputEvent) event).getAudioInput());
+            if (payload != null) {
+                return payload;
+            }
+        }
+        count = 0;
+        writeRaw("{\"event\":");
+        writeEvent(event);
+        writeByte('}');
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Serializes audio input from the template for its content block.
+     * @return The payload, or null if the event needs the general path.
+     */
+    private byte[] serializeAudio(AudioInputEvent.AudioInput input) {
+        String content = input != null ? input.getContent() : null;
+        if (content == null) {
+            return null;
+        }
+        byte[] prefix = audioPrefix(input);
+        if (isSilence(content)) {
+            if (silencePayload == null) {
+                silencePayload = splice(prefix, content, new byte[prefix.length + content.length() + AUDIO_SUFFIX.length]);
+            }
+            return silencePayload;
+        }
+        return splice(prefix, content, new byte[prefix.length + content.length() + AUDIO_SUFFIX.length]);
+    }
+
+    /**
+     * Writes the template with the content spliced in.
+     * @return The payload, or null if the content needs escaping.
+     */
+    private static byte[] splice(byte[] prefix, String content, byte[] payload) {
+        System.arraycopy(prefix, 0, payload, 0, prefix.length);
+        int position = prefix.length;
+        for (int i = 0, length = content.length(); i < length; i++) {
+            char c = content.charAt(i);
+            // Base64 never needs escaping; anything else takes the general path
+            if (c < 0x20 || c > 0x7E || c == '"' || c == '\\') {
+                return null;
+            }
+            payload[position++] = (byte) c;
+        }
+        System.arraycopy(AUDIO_SUFFIX, 0, payload, position, AUDIO_SUFFIX.length);
+        return payload;
+    }
+
+    /**
+     * Merges two consecutive audio payloads of the same content block into one, with the audio of both.
+     * @param first The earlier payload.
+     * @param second The later payload.
+     * @param maxAudioBytes The most decoded audio the merged payload may hold.
+     * @return The merged payload, or null if the payloads are from different content blocks, aren't audio, or the
+     * result would be too big.
+     */
+    static byte[] mergeAudio(byte[] first, byte[] second, int maxAudioBytes) {
+        int firstContent = contentStart(first);
+        int secondContent = contentStart(second);
+        if (firstContent < 0 || firstContent != secondContent
+                || !Arrays.equals(first, 0, firstContent, second, 0, secondContent)) {
+            return null;
+        }
+        byte[] audio1;
+        byte[] audio2;
+        try {
+            audio1 = Base64.getDecoder().decode(Arrays.copyOfRange(first, firstContent, first.length - AUDIO_SUFFIX.length));
+            audio2 = Base64.getDecoder().decode(Arrays.copyOfRange(second, secondContent, second.length - AUDIO_SUFFIX.length));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (audio1.length + audio2.length > maxAudioBytes) {
+            return null;
+        }
+        byte[] audio = Arrays.copyOf(audio1, audio1.length + audio2.length);
+        System.arraycopy(audio2, 0, audio, audio1.length, audio2.length);
+        byte[] content = Base64.getEncoder().encode(audio);
+        byte[] merged = new byte[firstContent + content.length + AUDIO_SUFFIX.length];
+        System.arraycopy(first, 0, merged, 0, firstContent);
+        System.arraycopy(content, 0, merged, firstContent, content.length);
+        System.arraycopy(AUDIO_SUFFIX, 0, merged, firstContent + content.length, AUDIO_SUFFIX.length);
+        return merged;
+    }
+
+    /**
+     * Finds the start of the content in an audio payload from the template.  Base64 has no quotes, so the content
+     * starts after the last quote before the suffix.
+     * @return The offset, or -1 if the payload didn't come from the template.
+     */
+    private static int contentStart(byte[] payload) {
+        int contentEnd = payload.length - AUDIO_SUFFIX.length;
+        if (contentEnd <= 0 || !Arrays.equals(payload, contentEnd, payload.length, AUDIO_SUFFIX, 0, AUDIO_SUFFIX.length)) {
+            return -1;
+        }
+        for (int i = contentEnd - 1; i >= 0; i--) {
+            if (payload[i] == '"') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether audio content is digital silence, i.e. the Base64 of all zero PCM, which is what both µ-law
+     * zeros decode to.
+     */
+    private boolean isSilence(String content) {
+        int length = content.length();
+        if (length < 4) {
+            return false;
+        }
+        if (silenceContent == null || silenceContent.length() != length
+                || padding(content) != padding(silenceContent)) {
+            // Zero bytes encode as 'A's, followed by the padding the content has
+            char[] silence = new char[length];
+            Arrays.fill(silence, 'A');
+            Arrays.fill(silence, length - padding(content), length, '=');
+            silenceContent = new String(silence);
+            silencePayload = null;
+        }
+        return content.equals(silenceContent);
+    }
+
+    private static int padding(String base64) {
+        int length = base64.length();
+        return base64.charAt(length - 1) != '=' ? 0 : base64.charAt(length - 2) != '=' ? 1 : 2;
+    }
+
+    /**
+     * @return The encoded audio event up to the opening quote of its content.
+     */
+    private byte[] audioPrefix(AudioInputEvent.AudioInput input) {
+        if (audioPrefix == null || !Objects.equals(audioPromptName, input.getPromptName())
+                || !Objects.equals(audioContentName, input.getContentName()) || !Objects.equals(audioRole, input.getRole())) {
+            count = 0;
+            writeRaw("{\"event\":{\"audioInput\":{\"promptName\":");
+            writeString(input.getPromptName());
+            writeRaw(",\"contentName\":");
+            writeString(input.getContentName());
+            writeRaw(",\"role\":");
+            writeString(input.getRole());
+            writeRaw(",\"content\":\"");
+            audioPrefix = Arrays.copyOf(buffer, count);
+            silencePayload = null;
+            audioPromptName = input.getPromptName();
+            audioContentName = input.getContentName();
+            audioRole = input.getRole();
+        }
+        return audioPrefix;
+    }
+
+    private void writeEvent(NovaSonicEvent event) {
+        if (event instanceof AudioInputEvent) {
+            AudioInputEvent.AudioInput input = ((AudioInputEvent) event).getAudioInput();
+            writeRaw("{\"audioInput\":");
+            if (input == null) {
+                writeRaw("null");
+            } else {
+                writeRaw("{\"promptName\":");
+                writeString(input.getPromptName());
+                writeRaw(",\"contentName\":");
+                writeString(input.getContentName());
+                writeRaw(",\"content\":");
+                writeString(input.getContent());
+                writeRaw(",\"role\":");
+                writeString(input.getRole());
+                writeByte('}');
+            }
+        } else if (event instanceof TextInputEvent) {
+            TextInputEvent.TextInput input = ((TextInputEvent) event).getTextInput();
+            writeRaw("{\"textInput\":");
+            if (input == null) {
+                writeRaw("null");
+            } else {
+                writeRaw("{\"promptName\":");
+                writeString(input.getPromptName());
+                writeRaw(",\"contentName\":");
+                writeString(input.getContentName());
+                writeRaw(",\"content\":");
+                writeString(input.getContent());
+                writeRaw(",\"role\":");
+                writeString(input.getRole());
+                writeByte('}');
+            }
+        } else if (event instanceof StartAudioContent) {
+            writeRaw("{\"contentStart\":");
+            writeStartAudioContent(((StartAudioContent) event).getContentStart());
+        } else if (event instanceof ContentStartEvent) {
+            writeRaw("{\"contentStart\":");
+            writeContentStart(((ContentStartEvent) event).getContentStart());
+        } else if (event instanceof ContentEndEvent) {
+            ContentEndEvent.ContentEnd end = ((ContentEndEvent) event).getContentEnd();
+            writeRaw("{\"contentEnd\":");
+            if (end == null) {
+                writeRaw("null");
+            } else {
+                writeContentEnd(end.getPromptName(), end.getContentName());
+            }
+        } else if (event instanceof EndAudioContent) {
+            EndAudioContent.ContentEnd end = ((EndAudioContent) event).getContentEnd();
+            writeRaw("{\"contentEnd\":");
+            if (end == null) {
+                writeRaw("null");
+            } else {
+                writeContentEnd(end.getPromptName(), end.getContentName());
+            }
+        } else if (event instanceof PromptEndEvent) {
+            PromptEndEvent.PromptEnd end = ((PromptEndEvent) event).getPromptEnd();
+            writeRaw("{\"promptEnd\":");
+            if (end == null) {
+                writeRaw("null");
+            } else {
+                writeRaw("{\"promptName\":");
+                writeString(end.getPromptName());
+                writeByte('}');
+            }
+        } else if (event instanceof ToolResultEvent) {
+            ToolResultEvent.ToolResult result = ((ToolResultEvent) event).getToolResult();
+            writeRaw("{\"toolResult\":");
+            if (result == null) {
+                writeRaw("null");
+            } else {
+                writeByte('{');
+                writeProperties(result.getProperties(), true);
+                writeByte('}');
+            }
+        } else if (event instanceof SessionStartEvent) {
+            writeRaw("{\"sessionStart\":");
+            writeSessionStart(((SessionStartEvent) event).getSessionStart());
+        } else if (event instanceof PromptStartEvent) {
+            writeRaw("{\"promptStart\":");
+            writePromptStart(((PromptStartEvent) event).getPromptStart());
+        } else {
+            writeJackson(event);
+            return;
+        }
+        writeByte('}');
+    }
+
+    private void writeContentEnd(String promptName, String contentName) {
+        writeRaw("{\"promptName\":");
+        writeString(promptName);
+        writeRaw(",\"contentName\":");
+        writeString(contentName);
+        writeByte('}');
+    }
+
+    private void writeStartAudioContent(StartAudioContent.ContentStart start) {
+        if (start == null) {
+            writeRaw("null");
+            return;
+        }
+        writeRaw("{\"promptName\":");
+        writeString(start.getPromptName());
+        writeRaw(",\"contentName\":");
+        writeString(start.getContentName());
+        writeRaw(",\"type\":");
+        writeString(start.getType());
+        writeRaw(",\"interactive\":");
+        writeRaw(start.isInteractive() ? "true" : "false");
+        writeRaw(",\"audioInputConfiguration\":");
+        StartAudioContent.AudioInputConfiguration config = start.getAudioInputConfiguration();
+        if (config == null) {
+            writeRaw("null");
+        } else {
+            writeRaw("{\"mediaType\":");
+            writeString(config.getMediaType());
+            writeRaw(",\"sampleRateHertz\":");
+            writeRaw(Integer.toString(config.getSampleRateHertz()));
+            writeRaw(",\"sampleSizeBits\":");
+            writeRaw(Short.toString(config.getSampleSizeBits()));
+            writeRaw(",\"channelCount\":");
+            writeRaw(Short.toString(config.getChannelCount()));
+            writeRaw(",\"audioType\":");
+            writeString(config.getAudioType());
+            writeRaw(",\"encoding\":");
+            writeString(config.getEncoding());
+            writeByte('}');
+        }
+        writeByte('}');
+    }
+
+    private void writeContentStart(ContentStartEvent.ContentStart start) {
+        if (start == null) {
+            writeRaw("null");
+            return;
+        }
+        writeRaw("{\"promptName\":");
+        writeString(start.getPromptName());
+        writeRaw(",\"contentName\":");
+        writeString(start.getContentName());
+        writeRaw(",\"type\":");
+        writeString(start.getType());
+        writeRaw(",\"interactive\":");
+        writeRaw(start.isInteractive() ? "true" : "false");
+        writeRaw(",\"textInputConfiguration\":");
+        writeMediaConfiguration(start.getTextInputConfiguration());
+        writeProperties(start.getProperties(), false);
+        writeByte('}');
+    }
+
+    private void writeSessionStart(SessionStartEvent.SessionStart start) {
+        if (start == null) {
+            writeRaw("null");
+            return;
+        }
+        writeRaw("{\"inferenceConfiguration\":");
+        SessionStartEvent.InferenceConfiguration inference = start.getInferenceConfiguration();
+        if (inference == null) {
+            writeRaw("null");
+        } else {
+            writeRaw("{\"maxTokens\":");
+            writeRaw(Integer.toString(inference.getMaxTokens()));
+            writeRaw(",\"topP\":");
+            writeNumber(inference.getTopP());
+            writeRaw(",\"temperature\":");
+            writeNumber(inference.getTemperature());
+            writeByte('}');
+        }
+        writeRaw(",\"guardrailConfiguration\":");
+        SessionStartEvent.GuardrailConfiguration guardrail = start.getGuardrailConfiguration();
+        if (guardrail == null) {
+            writeRaw("null");
+        } else {
+            writeRaw("{\"guardrailIdentifier\":");
+            writeString(guardrail.getGuardrailIdentifier());
+            writeRaw(",\"guardrailVersion\":");
+            writeString(guardrail.getGuardrailVersion());
+            writeRaw(",\"trace\":");
+            writeRaw(guardrail.isTrace() ? "true" : "false");
+            writeByte('}');
+        }
+        writeByte('}');
+    }
+
+    private void writePromptStart(PromptStartEvent.PromptStart start) {
+        if (start == null) {
+            writeRaw("null");
+            return;
+        }
+        writeRaw("{\"promptName\":");
+        writeString(start.getPromptName());
+        writeRaw(",\"textOutputConfiguration\":");
+        writeMediaConfiguration(start.getTextOutputConfiguration());
+        writeRaw(",\"audioOutputConfiguration\":");
+        PromptStartEvent.AudioOutputConfiguration audio = start.getAudioOutputConfiguration();
+        if (audio == null) {
+            writeRaw("null");
+        } else {
+            writeRaw("{\"mediaType\":");
+            writeString(audio.getMediaType());
+            writeRaw(",\"sampleRateHertz\":");
+            writeRaw(Integer.toString(audio.getSampleRateHertz()));
+            writeRaw(",\"sampleSizeBits\":");
+            writeRaw(Short.toString(audio.getSampleSizeBits()));
+            writeRaw(",\"channelCount\":");
+            writeRaw(Short.toString(audio.getChannelCount()));
+            writeRaw(",\"voiceId\":");
+            writeString(audio.getVoiceId());
+            writeRaw(",\"encoding\":");
+            writeString(audio.getEncoding());
+            writeRaw(",\"audioType\":");
+            writeString(audio.getAudioType());
+            writeByte('}');
+        }
+        writeRaw(",\"toolUseOutputConfiguration\":");
+        writeMediaConfiguration(start.getToolUseOutputConfiguration());
+        writeRaw(",\"toolConfiguration\":");
+        PromptStartEvent.ToolConfiguration tools = start.getToolConfiguration();
+        if (tools == null) {
+            writeRaw("null");
+        } else {
+            writeRaw("{\"tools\":");
+            if (tools.getTools() == null) {
+                writeRaw("null");
+            } else {
+                writeByte('[');
+                boolean first = true;
+                for (PromptStartEvent.Tool tool : tools.getTools()) {
+                    if (!first) {
+                        writeByte(',');
+                    }
+                    first = false;
+                    writeTool(tool);
+                }
+                writeByte(']');
+            }
+            writeByte('}');
+        }
+        writeByte('}');
+    }
+
+    private void writeTool(PromptStartEvent.Tool tool) {
+        if (tool == null) {
+            writeRaw("null");
+            return;
+        }
+        writeRaw("{\"toolSpec\":");
+        PromptStartEvent.ToolSpec spec = tool.getToolSpec();
+        if (spec == null) {
+            writeRaw("null");
+        } else {
+            writeRaw("{\"name\":");
+            writeString(spec.getName());
+            writeRaw(",\"description\":");
+            writeString(spec.getDescription());
+            writeRaw(",\"inputSchema\":");
+            writeValue(spec.getInputSchema());
+            writeByte('}');
+        }
+        writeByte('}');
+    }
+
+    private void writeMediaConfiguration(MediaConfiguration config) {
+        if (config == null) {
+            writeRaw("null");
+            return;
+        }
+        writeRaw("{\"mediaType\":");
+        writeString(config.getMediaType());
+        writeProperties(config.getProperties(), false);
+        writeByte('}');
+    }
+
+    /**
+     * Writes the entries of a map as members of the enclosing object, the way Jackson writes a JsonAnyGetter.
+     * @param first Whether no members have been written to the object yet.
+     */
+    private void writeProperties(Map<String, ?> properties, boolean first) {
+        if (properties == null) {
+            return;
+        }
+        for (Map.Entry<String, ?> entry : properties.entrySet()) {
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            writeString(entry.getKey());
+            writeByte(':');
+            writeValue(entry.getValue());
+        }
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            writeRaw("null");
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Boolean) {
+            writeRaw(value.toString());
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeRaw(value.toString());
+        } else if (value instanceof Float || value instanceof Double) {
+            writeNumber(((Number) value).doubleValue(), value.toString());
+        } else if (value instanceof Map) {
+            writeByte('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    writeByte(',');
+                }
+                first = false;
+                writeString(String.valueOf(entry.getKey()));
+                writeByte(':');
+                writeValue(entry.getValue());
+            }
+            writeByte('}');
+        } else if (value instanceof Iterable) {
+            writeByte('[');
+            boolean first = true;
+            for (Object item : (Iterable<?>) value) {
+                if (!first) {
+                    writeByte(',');
+                }
+                first = false;
+                writeValue(item);
+            }
+            writeByte(']');
+        } else if (value instanceof MediaConfiguration) {
+            writeMediaConfiguration((MediaConfiguration) value);
+        } else {
+            writeJackson(value);
+        }
+    }
+
+    private void writeNumber(float value) {
+        writeNumber(value, Float.toString(value));
+    }
+
+    /**
+     * Writes a floating point number.  Like Jackson, NaN and infinities are written as strings.
+     */
+    private void writeNumber(double value, String text) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeString(text);
+        } else {
+            writeRaw(text);
+        }
+    }
+
+    /**
+     * Writes a value Jackson has to serialize.
+     */
+    private void writeJackson(Object value) {
+        try {
+            byte[] json = OBJECT_MAPPER.writeValueAsBytes(value);
+            ensureCapacity(json.length);
+            System.arraycopy(json, 0, buffer, count, json.length);
+            count += json.length;
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes a string as a quoted, escaped JSON string, encoding it as UTF-8.
+     */
+    private void writeString(String value) {
+        if (value == null) {
+            writeRaw("null");
+            return;
+        }
+        int length = value.length();
+        // At most 6 bytes per char for \\u escapes, plus the quotes
+        ensureCapacity(length * 6 + 2);
+        byte[] buf = buffer;
+        int position = count;
+        buf[position++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    buf[position++] = '\\';
+                }
+                buf[position++] = (byte) c;
+            } else if (c < 0x20) {
+                buf[position++] = '\\';
+                switch (c) {
+                    case '\n': buf[position++] = 'n'; break;
+                    case '\r': buf[position++] = 'r'; break;
+                    case '\t': buf[position++] = 't'; break;
+                    case '\b': buf[position++] = 'b'; break;
+                    case '\f': buf[position++] = 'f'; break;
+                    default:
+                        buf[position++] = 'u';
+                        buf[position++] = '0';
+                        buf[position++] = '0';
+                        buf[position++] = HEX[c >> 4];
+                        buf[position++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x800) {
+                buf[position++] = (byte) (0xC0 | (c >> 6));
+                buf[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buf[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buf[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buf[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, which has no UTF-8 encoding
+                buf[position++] = '?';
+            } else {
+                buf[position++] = (byte) (0xE0 | (c >> 12));
+                buf[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buf[position++] = '"';
+        count = position;
+    }
+
+    /**
+     * Writes ASCII text that needs no escaping.
+     */
+    private void writeRaw(String text) {
+        int length = text.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[count++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer[count++] = (byte) c;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (count + needed > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + needed));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.s2s.voipgateway.nova.tools;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Tells Nova Sonic the current date in the TZ time zone.
+ */
+public class GetDateTool implements NovaTool {
+    private static final String TIMEZONE = System.getenv().getOrDefault("TZ", "America/Los_Angeles");
+
+    @Override
+    public String getName() {
+        return "getDateTool";
+    }
+
+    @Override
+    public String getDescription() {
+        return "get information about the current date";
+    }
+
+    @Override
+    public long getCacheTtlMillis() {
+        // A minute stale at most, at midnight
+        return 60000;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> invoke(String content, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            LocalDate currentDate = LocalDate.now(ZoneId.of(TIMEZONE));
+            Map<String, Object> contentNode = new HashMap<>();
+            contentNode.put("date", currentDate.format(DateTimeFormatter.ISO_DATE));
+            contentNode.put("year", currentDate.getYear());
+            contentNode.put("month", currentDate.getMonthValue());
+            contentNode.put("day", currentDate.getDayOfMonth());
+            contentNode.put("dayOfWeek", currentDate.getDayOfWeek().toString());
+            contentNode.put("timezone", TIMEZONE);
+            return contentNode;
+        }, executor);
+    }
+}
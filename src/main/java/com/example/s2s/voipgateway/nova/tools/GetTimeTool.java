@@ -0,0 +1,43 @@
+package com.example.s2s.voipgateway.nova.tools;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Tells Nova Sonic the current time in the TZ time zone.
+ */
+public class GetTimeTool implements NovaTool {
+    private static final String TIMEZONE = System.getenv().getOrDefault("TZ", "America/Los_Angeles");
+
+    @Override
+    public String getName() {
+        return "getTimeTool";
+    }
+
+    @Override
+    public String getDescription() {
+        return "get information about the current time";
+    }
+
+    @Override
+    public long getCacheTtlMillis() {
+        // The time is only given to the minute
+        return 5000;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> invoke(String content, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            ZonedDateTime localTime = ZonedDateTime.now(ZoneId.of(TIMEZONE));
+            Map<String, Object> contentNode = new HashMap<>();
+            contentNode.put("timezone", TIMEZONE);
+            contentNode.put("formattedTime", localTime.format(DateTimeFormatter.ofPattern("HH:mm")));
+            return contentNode;
+        }, executor);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.s2s.voipgateway.nova.tools;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A tool Nova Sonic can call.  Tools are discovered with ServiceLoader: list implementations in
+ * META-INF/services/com.example.s2s.voipgateway.nova.tools.NovaTool.  Each needs a public no-argument constructor,
+ * and one instance serves every call, so implementations must be thread safe.
+ */
+public interface NovaTool {
+    /**
+     * @return The tool name given to Nova Sonic.
+     */
+    String getName();
+
+    /**
+     * @return A description of what the tool does, which Nova Sonic uses to decide when to call it.
+     */
+    String getDescription();
+
+    /**
+     * @return The tool's input schema.
+     */
+    default Map<String, String> getInputSchema() {
+        return ToolSpecs.DEFAULT_TOOL_SPEC;
+    }
+
+    /**
+     * @return How long the tool may take before its fallback result is sent instead.
+     */
+    default long getTimeoutMillis() {
+        return ToolRegistry.DEFAULT_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * @return How long a result may be reused for identical input, by this call or any other, or 0 to run the tool
+     * every time.  Tools with side effects, or whose results depend on the caller, must return 0.
+     */
+    default long getCacheTtlMillis() {
+        return ToolResultCache.DEFAULT_TTL_MILLIS;
+    }
+
+    /**
+     * Invokes the tool.  Work that blocks should be run on the given executor, or be asynchronous, rather than done
+     * before returning.
+     * @param content The content Nova Sonic provided as the tool's input.
+     * @param executor The bounded pool tools share.
+     * @return The result, which is sent to Nova Sonic as JSON.
+     */
+    CompletableFuture<Map<String, Object>> invoke(String content, Executor executor);
+
+    /**
+     * Produces the result sent when the tool fails or times out, so that Nova Sonic always gets an answer.
+     * @param content The content the tool was invoked with.
+     * @param error What went wrong.
+     * @return The result.
+     */
+    default Map<String, Object> fallback(String content, Throwable error) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("error", "The " + getName() + " tool is not available right now.");
+        return result;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.s2s.voipgateway.nova.tools;
+
+import com.example.s2s.voipgateway.nova.event.PromptStartEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The tools available to Nova Sonic, as discovered through ServiceLoader, and the pool they run on.
+ *
+ * Invocations are asynchronous: several toolUse events can run in parallel, and a slow tool never holds up event
+ * handling or audio playout.  Every invocation completes within its tool's timeout, with the tool's fallback result
+ * if it failed, timed out or could not be scheduled.
+ */
+public class ToolRegistry {
+    private static final Logger log = LoggerFactory.getLogger(ToolRegistry.class);
+    static final long DEFAULT_TIMEOUT_MILLIS = Long.parseLong(System.getenv().getOrDefault("TOOL_TIMEOUT_MS", "5000"));
+    private static final int THREADS = Integer.parseInt(System.getenv().getOrDefault("TOOL_THREADS", "16"));
+    private static final int QUEUE_SIZE = 256;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ToolRegistry DEFAULT = new ToolRegistry(ServiceLoader.load(NovaTool.class));
+    private final Map<String, NovaTool> tools = new LinkedHashMap<>();
+    private final ExecutorService executor;
+    private final ToolResultCache cache = ToolResultCache.getInstance();
+
+    /**
+     * @param tools The tools.  If two have the same name the first one wins.
+     */
+    public ToolRegistry(Iterable<NovaTool> tools) {
+        for (NovaTool tool : tools) {
+            if (this.tools.putIfAbsent(tool.getName(), tool) != null) {
+                log.warn("Ignoring {}, a tool named {} is already registered", tool.getClass().getName(), tool.getName());
+            }
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+            Thread thread = new Thread(r, "nova-tool-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+        log.info("Registered tools {}", this.tools.keySet());
+    }
+
+    /**
+     * @return The registry of the tools found on the classpath.
+     */
+    public static ToolRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return The tool configuration to send to Nova Sonic.
+     */
+    public PromptStartEvent.ToolConfiguration getToolConfiguration() {
+        List<PromptStartEvent.Tool> specs = new ArrayList<>();
+        for (NovaTool tool : tools.values()) {
+            specs.add(PromptStartEvent.Tool.builder()
+                    .toolSpec(PromptStartEvent.ToolSpec.builder()
+                            .name(tool.getName())
+                            .description(tool.getDescription())
+                            .inputSchema(tool.getInputSchema())
+                            .build())
+                    .build());
+        }
+        return PromptStartEvent.ToolConfiguration.builder()
+                .tools(specs)
+                .build();
+    }
+
+    /**
+     * Runs a tool on the pool.
+     * @return The tool's result, which fails with a TimeoutException if the tool takes longer than its timeout.
+     */
+    private CompletableFuture<Map<String, Object>> execute(NovaTool tool, String content) {
+        CompletableFuture<Map<String, Object>> result;
+        try {
+            // A dependent future, so the timeout can't complete a future the tool shares with other invocations
+            result = tool.invoke(content, executor).thenApply(output -> output);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        return result.orTimeout(tool.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Invokes a tool.  Tools with a cache TTL are answered from the {@link ToolResultCache} when they can be.
+     * @param toolName The tool name.
+     * @param content The content Nova Sonic provided as the tool's input.
+     * @return The result.  It never completes exceptionally; failures and timeouts complete it with the tool's
+     * fallback result, and an unknown tool with an empty result.
+     */
+    public CompletableFuture<Map<String, Object>> invoke(String toolName, String content) {
+        NovaTool tool = toolName != null ? tools.get(toolName) : null;
+        if (tool == null) {
+            log.warn("Unhandled tool: {}", toolName);
+            return CompletableFuture.completedFuture(new HashMap<>());
+        }
+        CompletableFuture<Map<String, Object>> result = tool.getCacheTtlMillis() > 0
+                ? cache.get(toolName, content, tool.getCacheTtlMillis(), () -> execute(tool, content))
+                : execute(tool, content);
+        return result
+                .handle((output, error) -> {
+                    if (error == null) {
+                        return output;
+                    }
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    if (cause instanceof TimeoutException) {
+                        log.warn("Tool {} timed out after {} ms, sending its fallback result", toolName, tool.getTimeoutMillis());
+                    } else {
+                        log.warn("Tool {} failed, sending its fallback result", toolName, cause);
+                    }
+                    try {
+                        return tool.fallback(content, cause);
+                    } catch (RuntimeException e) {
+                        log.error("Fallback for tool {} failed", toolName, e);
+                        return new HashMap<>();
+                    }
+                });
+    }
+}
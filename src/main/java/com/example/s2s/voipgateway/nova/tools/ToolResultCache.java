@@ -0,0 +1,192 @@
+package com.example.s2s.voipgateway.nova.tools;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A process wide cache of tool results, keyed on the tool name and its normalized input, and published over JMX as
+ * com.example.s2s.voipgateway:type=ToolResultCache.
+ *
+ * Results expire after their tool's TTL and the least recently used are evicted once TOOL_CACHE_SIZE are held.
+ * Identical invocations made while one is already running wait for its result rather than running the tool again.
+ * Failures, including timeouts, are not cached.
+ */
+public class ToolResultCache implements ToolResultCacheMXBean {
+    private static final Logger log = LoggerFactory.getLogger(ToolResultCache.class);
+    private static final String OBJECT_NAME = "com.example.s2s.voipgateway:type=ToolResultCache";
+    static final long DEFAULT_TTL_MILLIS = Long.parseLong(System.getenv().getOrDefault("TOOL_CACHE_TTL_MS", "0"));
+    private static final int MAX_ENTRIES = Integer.parseInt(System.getenv().getOrDefault("TOOL_CACHE_SIZE", "1000"));
+    private static final ObjectMapper NORMALIZER = new ObjectMapper()
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+    private static final ToolResultCache INSTANCE = new ToolResultCache(MAX_ENTRIES);
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException | RuntimeException e) {
+            log.warn("Failed to register tool result cache metrics", e);
+        }
+    }
+
+    private final LinkedHashMap<String, CachedResult> entries;
+    private long hits;
+    private long coalesced;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxEntries The most results to hold.
+     */
+    ToolResultCache(int maxEntries) {
+        this.entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                if (size() > maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return The process wide cache.
+     */
+    public static ToolResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets a tool's result, from the cache if there is a live one, otherwise by invoking the tool.
+     * @param toolName The tool name.
+     * @param content The content Nova Sonic provided as the tool's input.
+     * @param ttlMillis How long the result may be reused.
+     * @param invocation Invokes the tool.  The future it returns must complete within the tool's timeout.
+     * @return The result, which is shared with other invocations and must not be modified.
+     */
+    CompletableFuture<Map<String, Object>> get(String toolName, String content, long ttlMillis,
+                                               Supplier<CompletableFuture<Map<String, Object>>> invocation) {
+        String key = toolName + '\0' + normalize(content);
+        CachedResult entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(System.nanoTime())) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry != null) {
+                if (entry.result.isDone()) {
+                    hits++;
+                } else {
+                    coalesced++;
+                }
+                return entry.result;
+            }
+            entry = new CachedResult();
+            entries.put(key, entry);
+            misses++;
+        }
+        CachedResult loading = entry;
+        CompletableFuture<Map<String, Object>> invoked;
+        try {
+            invoked = invocation.get();
+        } catch (RuntimeException e) {
+            // Failed like any other invocation, or the entry would keep the key loading forever
+            invoked = new CompletableFuture<>();
+            invoked.completeExceptionally(e);
+        }
+        invoked.whenComplete((output, error) -> {
+            synchronized (entries) {
+                if (error != null) {
+                    entries.remove(key, loading);
+                } else {
+                    loading.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+                    loading.loaded = true;
+                }
+            }
+            if (error != null) {
+                loading.result.completeExceptionally(error);
+            } else {
+                loading.result.complete(output);
+            }
+        });
+        return loading.result;
+    }
+
+    /**
+     * Normalizes tool input so that requests differing only in whitespace or key order share a result.
+     * @param content The content Nova Sonic provided as the tool's input.
+     * @return The normalized content.
+     */
+    static String normalize(String content) {
+        if (content == null) {
+            return "";
+        }
+        try {
+            return NORMALIZER.writeValueAsString(NORMALIZER.readValue(content, Object.class));
+        } catch (IOException e) {
+            return content.trim();
+        }
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public long getHits() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    @Override
+    public long getCoalesced() {
+        synchronized (entries) {
+            return coalesced;
+        }
+    }
+
+    @Override
+    public long getMisses() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+
+    @Override
+    public long getEvictions() {
+        synchronized (entries) {
+            return evictions;
+        }
+    }
+
+    /**
+     * A cached result, or an invocation in flight.
+     */
+    private static class CachedResult {
+        private final CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+        private boolean loaded;
+        private long expiresAt;
+
+        private boolean isExpired(long now) {
+            return loaded && now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.s2s.voipgateway.nova.tools;
+
+/**
+ * JMX view of the tool result cache shared by all calls.
+ */
+public interface ToolResultCacheMXBean {
+    /**
+     * @return The number of cached results, including invocations still in flight.
+     */
+    int getSize();
+
+    /**
+     * @return Invocations answered from a cached result since startup.
+     */
+    long getHits();
+
+    /**
+     * @return Invocations that joined an identical invocation already in flight since startup.
+     */
+    long getCoalesced();
+
+    /**
+     * @return Invocations that had to run the tool since startup.
+     */
+    long getMisses();
+
+    /**
+     * @return Results evicted to keep the cache within its size since startup.
+     */
+    long getEvictions();
+}
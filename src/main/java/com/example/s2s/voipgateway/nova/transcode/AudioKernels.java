@@ -0,0 +1,62 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import java.util.Objects;
+
+/**
+ * Bulk audio kernels used on the media hot paths.
+ *
+ * This is the portable implementation.  When running on Java 17 or later from the packaged JAR, a multi-release
+ * version of this class is used instead, which runs the kernels on the Vector API if the jdk.incubator.vector
+ * module has been added to the JVM (java --add-modules jdk.incubator.vector).
+ */
+public class AudioKernels {
+
+    /**
+     * Describes the kernel implementation in use.
+     * @return The implementation name.
+     */
+    public static String implementation() {
+        return "scalar";
+    }
+
+    /**
+     * Converts µ-law data to little-endian linear PCM.
+     *
+     * @param ulawData The µ-law encoded source
+     * @param offset Offset of the first µ-law byte
+     * @param length Number of µ-law bytes to convert
+     * @param pcmData The destination buffer, which must have room for length * 2 bytes
+     * @param pcmOffset Offset in the destination to start writing at
+     */
+    public static void ulawToPcm(byte[] ulawData, int offset, int length, byte[] pcmData, int pcmOffset) {
+        Objects.checkFromIndexSize(offset, length, ulawData.length);
+        Objects.checkFromIndexSize(pcmOffset, length * 2, pcmData.length);
+        ScalarKernels.ulawToPcm(ulawData, offset, length, pcmData, pcmOffset);
+    }
+
+    /**
+     * Calculates the sum of the squared samples of 16-bit little-endian PCM data.  A trailing odd byte is ignored.
+     *
+     * @param pcmData The PCM data
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     * @return The sum of squares
+     */
+    public static long pcmSumOfSquares(byte[] pcmData, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, pcmData.length);
+        return ScalarKernels.pcmSumOfSquares(pcmData, offset, length);
+    }
+
+    /**
+     * Calculates the sum of the squared linear samples of µ-law data.
+     *
+     * @param ulawData The µ-law data
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     * @return The sum of squares
+     */
+    public static long ulawSumOfSquares(byte[] ulawData, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, ulawData.length);
+        return ScalarKernels.ulawSumOfSquares(ulawData, offset, length);
+    }
+}
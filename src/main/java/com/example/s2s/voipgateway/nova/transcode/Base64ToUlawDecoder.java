@@ -0,0 +1,152 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Decodes the Base64 representation of 16-bit little-endian linear PCM, as delivered in Nova Sonic audioOutput
+ * events, directly to µ-law (G.711) without materializing the intermediate PCM buffer.
+ *
+ * Input: Base64 (RFC 4648, padded) text of 8000Hz, 16-bit little-endian PCM
+ * Output: 8000Hz, 8-bit µ-law samples
+ *
+ * Decoding may be done in slices: any range whose start is a multiple of 8 characters from the beginning of the
+ * text (three samples) can be decoded independently, so callers can stream a large payload through a small buffer.
+ */
+public class Base64ToUlawDecoder {
+    private static final int[] DECODE_TABLE = new int[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = i;
+        }
+    }
+
+    /**
+     * Calculates the number of µ-law samples a range of Base64 text decodes to.
+     *
+     * @param base64 The Base64 text
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @return The number of µ-law bytes
+     */
+    public static int decodedLength(CharSequence base64, int start, int end) {
+        Objects.checkFromToIndex(start, end, base64.length());
+        int padding = 0;
+        if (end > start && base64.charAt(end - 1) == '=') {
+            padding++;
+            if (end - 1 > start && base64.charAt(end - 2) == '=') {
+                padding++;
+            }
+        }
+        // Like java.util.Base64, the padding may be left off; two or three characters of a last quantum still
+        // hold one or two bytes
+        int length = end - start - padding;
+        int pcmBytes = length / 4 * 3 + Math.max(0, length % 4 - 1);
+        return pcmBytes / 2;
+    }
+
+    /**
+     * Decodes a range of Base64 PCM text to µ-law into a caller supplied buffer.  A trailing odd PCM byte is
+     * ignored.  Text is accepted and rejected as java.util.Base64's basic decoder would: padding is optional, but
+     * line breaks, whitespace, a lone character in the last quantum and characters after the padding are errors.
+     *
+     * @param base64 The Base64 text
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @param target The destination buffer, which must have room for decodedLength(base64, start, end) bytes
+     * @param targetOffset Offset in the destination to start writing at
+     * @return The number of µ-law bytes written
+     * @throws IllegalArgumentException If the text is not valid Base64
+     */
+    public static int decode(CharSequence base64, int start, int end, byte[] target, int targetOffset) {
+        Objects.checkFromIndexSize(targetOffset, decodedLength(base64, start, end), target.length);
+
+        int in = start;
+        int out = targetOffset;
+
+        // Eight characters are six PCM bytes, which is exactly three samples.  Padding can only occur in the
+        // last quantum, which is left to the tail loop.
+        int fastEnd = end - 8;
+        if (end > start && base64.charAt(end - 1) != '=') {
+            fastEnd = end;
+        }
+        while (in + 8 <= fastEnd) {
+            int q0 = quantum(base64, in);
+            int q1 = quantum(base64, in + 4);
+            in += 8;
+            // q0 holds bytes b0 b1 b2 and q1 holds b3 b4 b5, each sample is low byte first
+            target[out++] = PcmToULawTranscoder.encode((short) (((q0 >> 16) & 0xFF) | (q0 & 0xFF00)));
+            target[out++] = PcmToULawTranscoder.encode((short) ((q0 & 0xFF) | ((q1 >> 8) & 0xFF00)));
+            target[out++] = PcmToULawTranscoder.encode((short) (((q1 >> 8) & 0xFF) | ((q1 & 0xFF) << 8)));
+        }
+
+        // Remaining characters, including any padding, are decoded bit by bit
+        int bits = 0;
+        int bitCount = 0;
+        int lowByte = -1;
+        int tailStart = in;
+        while (in < end) {
+            char c = base64.charAt(in++);
+            if (c == '=') {
+                checkPadding(base64, in - 1, end, in - 1 - tailStart);
+                break;
+            }
+            bits = (bits << 6) | sextet(c, in - 1);
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                int pcmByte = (bits >> bitCount) & 0xFF;
+                if (lowByte < 0) {
+                    lowByte = pcmByte;
+                } else {
+                    target[out++] = PcmToULawTranscoder.encode((short) (lowByte | (pcmByte << 8)));
+                    lowByte = -1;
+                }
+            }
+        }
+        if ((in - tailStart) % 4 == 1 && base64.charAt(in - 1) != '=') {
+            throw new IllegalArgumentException("Truncated base64 quantum at " + (in - 1));
+        }
+        return out - targetOffset;
+    }
+
+    /**
+     * Checks that padding starting at the given index is the rest of the text, and fills out its quantum.
+     * @param dataChars The number of data characters in the tail before the padding.
+     */
+    private static void checkPadding(CharSequence base64, int index, int end, int dataChars) {
+        int quantumChars = dataChars % 4;
+        if (quantumChars < 2 || quantumChars + end - index != 4) {
+            throw new IllegalArgumentException("Illegal base64 padding at " + index);
+        }
+        for (int i = index; i < end; i++) {
+            if (base64.charAt(i) != '=') {
+                throw new IllegalArgumentException("Illegal base64 character " + Integer.toHexString(base64.charAt(i)) + " at " + i);
+            }
+        }
+    }
+
+    /**
+     * Decodes four Base64 characters into a 24-bit group.
+     */
+    private static int quantum(CharSequence base64, int index) {
+        return (sextet(base64.charAt(index), index) << 18)
+                | (sextet(base64.charAt(index + 1), index + 1) << 12)
+                | (sextet(base64.charAt(index + 2), index + 2) << 6)
+                | sextet(base64.charAt(index + 3), index + 3);
+    }
+
+    /**
+     * Decodes a single Base64 character.
+     */
+    private static int sextet(char c, int index) {
+        int value = c < 128 ? DECODE_TABLE[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Illegal base64 character " + Integer.toHexString(c) + " at " + index);
+        }
+        return value;
+    }
+}
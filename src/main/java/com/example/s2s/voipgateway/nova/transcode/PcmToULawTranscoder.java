@@ -1,5 +1,8 @@
 package com.example.s2s.voipgateway.nova.transcode;
 
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
 /**
  * Implementation of ITU-T G.711 μ-law encoding for transcoding linear PCM to μ-law
  * - Input: 8000Hz, 16-bit samples, 1 channel (mono) linear PCM
@@ -32,9 +35,30 @@ public class PcmToULawTranscoder {
     // BIAS value for u-law encoding as defined in the G.711 standard
     private static final int BIAS = 0x84;
 
+    // μ-law byte for every possible 16-bit sample, indexed by the unsigned value of the sample
+    private static final byte[] LINEAR_TO_ULAW_TABLE = new byte[65536];
+
+    // Initialize the encoding table from the reference algorithm
+    static {
+        for (int i = 0; i < LINEAR_TO_ULAW_TABLE.length; i++) {
+            LINEAR_TO_ULAW_TABLE[i] = linearToULaw((short) i);
+        }
+    }
+
+    /**
+     * Encode a 16-bit signed linear PCM sample to 8-bit μ-law using the precomputed table.
+     *
+     * @param pcmSample 16-bit signed linear PCM sample
+     * @return 8-bit μ-law encoded sample
+     */
+    public static byte encode(short pcmSample) {
+        return LINEAR_TO_ULAW_TABLE[pcmSample & 0xFFFF];
+    }
+
     /**
      * Encode a 16-bit signed linear PCM sample to 8-bit μ-law
-     * Algorithm follows the ITU-T G.711 specification
+     * Algorithm follows the ITU-T G.711 specification.  This is the reference implementation used to build the
+     * lookup table; the bulk transcoding methods use the table instead.
      *
      * @param pcmSample 16-bit signed linear PCM sample
      * @return 8-bit μ-law encoded sample
@@ -81,16 +105,79 @@ public class PcmToULawTranscoder {
      */
     public static byte[] transcodeBytes(byte[] pcmData) {
         // Ensure we have complete samples
-        int validBytes = pcmData.length - (pcmData.length % 2);
-        int sampleCount = validBytes / 2;
-        byte[] ulawData = new byte[sampleCount];
-
-        for (int i = 0; i < validBytes; i += 2) {
-            // Convert byte pair to short - handle little-endian encoding
-            short sample = (short)((pcmData[i] & 0xFF) | ((pcmData[i + 1] & 0xFF) << 8));
-            ulawData[i/2] = linearToULaw(sample);
+        byte[] ulawData = new byte[pcmData.length / 2];
+        transcodeBytes(pcmData, 0, pcmData.length, ulawData, 0);
+        return ulawData;
+    }
+
+    /**
+     * Transcode PCM data to μ-law into a caller supplied buffer.  A trailing odd byte is ignored.
+     *
+     * @param pcmData Raw 16-bit PCM data (little-endian)
+     * @param offset Offset of the first PCM byte
+     * @param length Number of PCM bytes to transcode
+     * @param ulawData The destination buffer, which must have room for length / 2 bytes
+     * @param ulawOffset Offset in the destination to start writing at
+     * @return The number of μ-law bytes written
+     */
+    public static int transcodeBytes(byte[] pcmData, int offset, int length, byte[] ulawData, int ulawOffset) {
+        Objects.checkFromIndexSize(offset, length, pcmData.length);
+        int sampleCount = length / 2;
+        Objects.checkFromIndexSize(ulawOffset, sampleCount, ulawData.length);
+
+        int out = ulawOffset;
+        for (int i = offset; i < offset + sampleCount * 2; i += 2) {
+            // The little-endian byte pair is the unsigned table index of the sample
+            ulawData[out++] = LINEAR_TO_ULAW_TABLE[(pcmData[i] & 0xFF) | ((pcmData[i + 1] & 0xFF) << 8)];
         }
+        return sampleCount;
+    }
 
-        return ulawData;
+    /**
+     * Transcode PCM samples to μ-law into a caller supplied buffer.
+     *
+     * @param samples 16-bit PCM samples
+     * @param offset Offset of the first sample
+     * @param length Number of samples to transcode
+     * @param ulawData The destination buffer
+     * @param ulawOffset Offset in the destination to start writing at
+     * @return The number of μ-law bytes written
+     */
+    public static int transcode(short[] samples, int offset, int length, byte[] ulawData, int ulawOffset) {
+        Objects.checkFromIndexSize(offset, length, samples.length);
+        Objects.checkFromIndexSize(ulawOffset, length, ulawData.length);
+
+        for (int i = 0; i < length; i++) {
+            ulawData[ulawOffset + i] = LINEAR_TO_ULAW_TABLE[samples[offset + i] & 0xFFFF];
+        }
+        return length;
+    }
+
+    /**
+     * Transcode PCM data to μ-law, writing at the target buffer's position.  The position is advanced by the
+     * number of bytes written.  A trailing odd byte is ignored.
+     *
+     * @param pcmData Raw 16-bit PCM data (little-endian)
+     * @param offset Offset of the first PCM byte
+     * @param length Number of PCM bytes to transcode
+     * @param target The destination buffer, which must have at least length / 2 bytes remaining
+     * @return The number of μ-law bytes written
+     */
+    public static int transcode(byte[] pcmData, int offset, int length, ByteBuffer target) {
+        Objects.checkFromIndexSize(offset, length, pcmData.length);
+        int sampleCount = length / 2;
+        if (target.remaining() < sampleCount) {
+            throw new IndexOutOfBoundsException("Not enough room in target buffer for " + sampleCount + " samples");
+        }
+        if (target.hasArray()) {
+            int written = transcodeBytes(pcmData, offset, length, target.array(),
+                    target.arrayOffset() + target.position());
+            target.position(target.position() + written);
+            return written;
+        }
+        for (int i = offset; i < offset + sampleCount * 2; i += 2) {
+            target.put(LINEAR_TO_ULAW_TABLE[(pcmData[i] & 0xFF) | ((pcmData[i + 1] & 0xFF) << 8)]);
+        }
+        return sampleCount;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,38 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+/**
+ * Portable implementations of the bulk audio kernels.  Callers are expected to have validated the ranges.
+ */
+final class ScalarKernels {
+    private ScalarKernels() { }
+
+    static void ulawToPcm(byte[] ulawData, int offset, int length, byte[] pcmData, int pcmOffset) {
+        int out = pcmOffset;
+        for (int i = offset; i < offset + length; i++) {
+            short linearSample = UlawToPcmTranscoder.decode(ulawData[i]);
+
+            // Little-endian conversion (low byte first)
+            pcmData[out++] = (byte) (linearSample & 0xFF);
+            pcmData[out++] = (byte) ((linearSample >> 8) & 0xFF);
+        }
+    }
+
+    static long pcmSumOfSquares(byte[] pcmData, int offset, int length) {
+        long sum = 0;
+        for (int i = offset; i < offset + length - 1; i += 2) {
+            // Convert bytes to 16-bit sample
+            short sample = (short) ((pcmData[i + 1] << 8) | (pcmData[i] & 0xFF));
+            sum += sample * sample;
+        }
+        return sum;
+    }
+
+    static long ulawSumOfSquares(byte[] ulawData, int offset, int length) {
+        long sum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            short sample = UlawToPcmTranscoder.decode(ulawData[i]);
+            sum += sample * sample;
+        }
+        return sum;
+    }
+}
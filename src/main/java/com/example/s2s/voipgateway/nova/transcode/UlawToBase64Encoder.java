@@ -0,0 +1,104 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Encodes µ-law (G.711) audio directly to the Base64 representation of 16-bit little-endian linear PCM, which is
+ * the format Nova Sonic expects for audio input, without materializing the intermediate PCM buffer.
+ *
+ * Input: 8000Hz, 8-bit µ-law samples
+ * Output: Base64 (RFC 4648, padded) ASCII of 8000Hz, 16-bit little-endian PCM
+ */
+public class UlawToBase64Encoder {
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte PAD = '=';
+
+    // PCM byte pair for each µ-law byte, in stream order: the low byte of the sample in bits 8-15, the high byte
+    // in bits 0-7
+    private static final int[] PCM_PAIR_TABLE = new int[256];
+
+    static {
+        byte[] ulaw = new byte[256];
+        byte[] pcm = new byte[512];
+        for (int i = 0; i < 256; i++) {
+            ulaw[i] = (byte) i;
+        }
+        UlawToPcmTranscoder.convertByteArray(ulaw, 0, 256, pcm, 0);
+        for (int i = 0; i < 256; i++) {
+            PCM_PAIR_TABLE[i] = ((pcm[i * 2] & 0xFF) << 8) | (pcm[i * 2 + 1] & 0xFF);
+        }
+    }
+
+    /**
+     * Calculates the number of Base64 characters produced for a number of µ-law samples.
+     *
+     * @param ulawLength The number of µ-law bytes
+     * @return The encoded length in bytes
+     */
+    public static int encodedLength(int ulawLength) {
+        return ((ulawLength * 2 + 2) / 3) * 4;
+    }
+
+    /**
+     * Encodes µ-law data as Base64 PCM into a caller supplied buffer.
+     *
+     * @param ulawData The µ-law encoded source
+     * @param offset Offset of the first µ-law byte
+     * @param length Number of µ-law bytes to encode
+     * @param target The destination buffer, which must have room for encodedLength(length) bytes
+     * @param targetOffset Offset in the destination to start writing at
+     * @return The number of Base64 bytes written
+     */
+    public static int encode(byte[] ulawData, int offset, int length, byte[] target, int targetOffset) {
+        Objects.checkFromIndexSize(offset, length, ulawData.length);
+        Objects.checkFromIndexSize(targetOffset, encodedLength(length), target.length);
+
+        int in = offset;
+        int out = targetOffset;
+        int end = offset + length - length % 3;
+
+        // Three samples are six PCM bytes, which is exactly two Base64 quanta
+        while (in < end) {
+            int p0 = PCM_PAIR_TABLE[ulawData[in] & 0xFF];
+            int p1 = PCM_PAIR_TABLE[ulawData[in + 1] & 0xFF];
+            int p2 = PCM_PAIR_TABLE[ulawData[in + 2] & 0xFF];
+            in += 3;
+            out = writeQuantum(target, out, (p0 << 8) | (p1 >> 8));
+            out = writeQuantum(target, out, ((p1 & 0xFF) << 16) | p2);
+        }
+
+        int remaining = offset + length - in;
+        if (remaining == 1) {
+            // Two PCM bytes: three characters and one pad
+            int bits = PCM_PAIR_TABLE[ulawData[in] & 0xFF] << 8;
+            target[out++] = ALPHABET[(bits >> 18) & 0x3F];
+            target[out++] = ALPHABET[(bits >> 12) & 0x3F];
+            target[out++] = ALPHABET[(bits >> 6) & 0x3F];
+            target[out++] = PAD;
+        } else if (remaining == 2) {
+            // Four PCM bytes: one full quantum, then two characters and two pads
+            int p0 = PCM_PAIR_TABLE[ulawData[in] & 0xFF];
+            int p1 = PCM_PAIR_TABLE[ulawData[in + 1] & 0xFF];
+            out = writeQuantum(target, out, (p0 << 8) | (p1 >> 8));
+            int bits = (p1 & 0xFF) << 16;
+            target[out++] = ALPHABET[(bits >> 18) & 0x3F];
+            target[out++] = ALPHABET[(bits >> 12) & 0x3F];
+            target[out++] = PAD;
+            target[out++] = PAD;
+        }
+        return out - targetOffset;
+    }
+
+    /**
+     * Writes a 24-bit group as four Base64 characters.
+     */
+    private static int writeQuantum(byte[] target, int out, int bits) {
+        target[out] = ALPHABET[(bits >> 18) & 0x3F];
+        target[out + 1] = ALPHABET[(bits >> 12) & 0x3F];
+        target[out + 2] = ALPHABET[(bits >> 6) & 0x3F];
+        target[out + 3] = ALPHABET[bits & 0x3F];
+        return out + 4;
+    }
+}
@@ -1,5 +1,8 @@
 package com.example.s2s.voipgateway.nova.transcode;
 
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
 /**
  * A utility for converting µ-law (G.711) encoded audio to Linear PCM.
  *
@@ -40,6 +43,17 @@ public class UlawToPcmTranscoder {
         // Apply sign and return the 16-bit sample
         return (short) (sign == 1 ? -magnitude : magnitude);
     }
+
+    /**
+     * Looks up the 16-bit linear PCM sample for a µ-law encoded byte.
+     *
+     * @param ulawByte The µ-law encoded byte
+     * @return The 16-bit linear PCM sample
+     */
+    public static short decode(byte ulawByte) {
+        return ULAW_TO_LINEAR_TABLE[ulawByte & 0xFF];
+    }
+
     /**
      * Converts µ-law byte array to linear PCM.
      *
@@ -48,15 +62,71 @@ public class UlawToPcmTranscoder {
      */
     public static byte[] convertByteArray(byte[] ulawData) {
         byte[] pcmData = new byte[ulawData.length * 2];
+        convertByteArray(ulawData, 0, ulawData.length, pcmData, 0);
+        return pcmData;
+    }
 
-        for (int i = 0; i < ulawData.length; i++) {
-            short linearSample = ULAW_TO_LINEAR_TABLE[ulawData[i] & 0xFF];
+    /**
+     * Converts µ-law data to little-endian linear PCM in a caller supplied buffer.
+     *
+     * @param ulawData The µ-law encoded source
+     * @param offset Offset of the first µ-law byte
+     * @param length Number of µ-law bytes to convert
+     * @param pcmData The destination buffer, which must have room for length * 2 bytes
+     * @param pcmOffset Offset in the destination to start writing at
+     * @return The number of PCM bytes written
+     */
+    public static int convertByteArray(byte[] ulawData, int offset, int length, byte[] pcmData, int pcmOffset) {
+        AudioKernels.ulawToPcm(ulawData, offset, length, pcmData, pcmOffset);
+        return length * 2;
+    }
 
-            // Little-endian conversion (low byte first)
-            pcmData[i * 2] = (byte) (linearSample & 0xFF);
-            pcmData[i * 2 + 1] = (byte) ((linearSample >> 8) & 0xFF);
+    /**
+     * Converts µ-law data to linear PCM samples in a caller supplied buffer.
+     *
+     * @param ulawData The µ-law encoded source
+     * @param offset Offset of the first µ-law byte
+     * @param length Number of µ-law bytes to convert
+     * @param samples The destination sample buffer
+     * @param sampleOffset Offset in the destination to start writing at
+     * @return The number of samples written
+     */
+    public static int convert(byte[] ulawData, int offset, int length, short[] samples, int sampleOffset) {
+        Objects.checkFromIndexSize(offset, length, ulawData.length);
+        Objects.checkFromIndexSize(sampleOffset, length, samples.length);
+
+        for (int i = 0; i < length; i++) {
+            samples[sampleOffset + i] = ULAW_TO_LINEAR_TABLE[ulawData[offset + i] & 0xFF];
         }
+        return length;
+    }
 
-        return pcmData;
+    /**
+     * Converts µ-law data to little-endian linear PCM, writing at the target buffer's position.  The position is
+     * advanced by the number of bytes written.
+     *
+     * @param ulawData The µ-law encoded source
+     * @param offset Offset of the first µ-law byte
+     * @param length Number of µ-law bytes to convert
+     * @param target The destination buffer, which must have at least length * 2 bytes remaining
+     * @return The number of PCM bytes written
+     */
+    public static int convert(byte[] ulawData, int offset, int length, ByteBuffer target) {
+        Objects.checkFromIndexSize(offset, length, ulawData.length);
+        if (target.remaining() < length * 2) {
+            throw new IndexOutOfBoundsException("Not enough room in target buffer for " + length + " samples");
+        }
+        if (target.hasArray()) {
+            int written = convertByteArray(ulawData, offset, length, target.array(),
+                    target.arrayOffset() + target.position());
+            target.position(target.position() + written);
+            return written;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            short linearSample = ULAW_TO_LINEAR_TABLE[ulawData[i] & 0xFF];
+            target.put((byte) (linearSample & 0xFF));
+            target.put((byte) ((linearSample >> 8) & 0xFF));
+        }
+        return length * 2;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,83 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import java.util.Objects;
+
+/**
+ * Bulk audio kernels used on the media hot paths.
+ *
+ * This is the Java 17 version from the multi-release JAR.  The kernels run on the Vector API when the
+ * jdk.incubator.vector module has been added to the JVM (java --add-modules jdk.incubator.vector) and fall back
+ * to the portable implementation otherwise.  Set ENABLE_VECTOR_KERNELS=false to force the portable implementation.
+ */
+public class AudioKernels {
+    private static final boolean VECTOR_ENABLED = isVectorAvailable();
+
+    /**
+     * Checks whether the Vector API can be used.
+     * @return true if the incubator module is resolved, the platform has vectors of at least 256 bits and the
+     * kernels have not been disabled.
+     */
+    private static boolean isVectorAvailable() {
+        if (!"true".equalsIgnoreCase(System.getenv().getOrDefault("ENABLE_VECTOR_KERNELS", "true"))) {
+            return false;
+        }
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorKernels.SUPPORTED;
+    }
+
+    /**
+     * Describes the kernel implementation in use.
+     * @return The implementation name.
+     */
+    public static String implementation() {
+        return VECTOR_ENABLED ? VectorKernels.describe() : "scalar";
+    }
+
+    /**
+     * Converts µ-law data to little-endian linear PCM.
+     *
+     * @param ulawData The µ-law encoded source
+     * @param offset Offset of the first µ-law byte
+     * @param length Number of µ-law bytes to convert
+     * @param pcmData The destination buffer, which must have room for length * 2 bytes
+     * @param pcmOffset Offset in the destination to start writing at
+     */
+    public static void ulawToPcm(byte[] ulawData, int offset, int length, byte[] pcmData, int pcmOffset) {
+        Objects.checkFromIndexSize(offset, length, ulawData.length);
+        Objects.checkFromIndexSize(pcmOffset, length * 2, pcmData.length);
+        if (VECTOR_ENABLED) {
+            VectorKernels.ulawToPcm(ulawData, offset, length, pcmData, pcmOffset);
+        } else {
+            ScalarKernels.ulawToPcm(ulawData, offset, length, pcmData, pcmOffset);
+        }
+    }
+
+    /**
+     * Calculates the sum of the squared samples of 16-bit little-endian PCM data.  A trailing odd byte is ignored.
+     *
+     * @param pcmData The PCM data
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     * @return The sum of squares
+     */
+    public static long pcmSumOfSquares(byte[] pcmData, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, pcmData.length);
+        return VECTOR_ENABLED
+                ? VectorKernels.pcmSumOfSquares(pcmData, offset, length)
+                : ScalarKernels.pcmSumOfSquares(pcmData, offset, length);
+    }
+
+    /**
+     * Calculates the sum of the squared linear samples of µ-law data.
+     *
+     * @param ulawData The µ-law data
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     * @return The sum of squares
+     */
+    public static long ulawSumOfSquares(byte[] ulawData, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, ulawData.length);
+        return VECTOR_ENABLED
+                ? VectorKernels.ulawSumOfSquares(ulawData, offset, length)
+                : ScalarKernels.ulawSumOfSquares(ulawData, offset, length);
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteOrder;
+
+/**
+ * Vector API implementations of the bulk audio kernels.  Samples are widened to int lanes for the arithmetic, so
+ * the byte and short species are chosen to carry the same number of lanes as the preferred int species.  Only
+ * loaded when the jdk.incubator.vector module is present; callers are expected to have validated the ranges.
+ */
+final class VectorKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final int LANES = INTS.length();
+    // The narrowest vector shape is 64 bits, so the byte species needs at least eight int lanes
+    static final boolean SUPPORTED = LANES >= 8;
+    private static final VectorSpecies<Byte> BYTES = SUPPORTED
+            ? ByteVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(LANES * Byte.SIZE)) : null;
+    private static final VectorSpecies<Short> SHORTS = SUPPORTED
+            ? ShortVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(LANES * Short.SIZE)) : null;
+
+    private VectorKernels() { }
+
+    static String describe() {
+        return "vector (" + LANES + " x int)";
+    }
+
+    static void ulawToPcm(byte[] ulawData, int offset, int length, byte[] pcmData, int pcmOffset) {
+        int i = 0;
+        for (int bound = length - length % LANES; i < bound; i += LANES) {
+            IntVector samples = decode(ByteVector.fromArray(BYTES, ulawData, offset + i));
+            ((ShortVector) samples.convertShape(VectorOperators.I2S, SHORTS, 0))
+                    .intoByteArray(pcmData, pcmOffset + i * 2, ByteOrder.LITTLE_ENDIAN);
+        }
+        if (i < length) {
+            ScalarKernels.ulawToPcm(ulawData, offset + i, length - i, pcmData, pcmOffset + i * 2);
+        }
+    }
+
+    static long pcmSumOfSquares(byte[] pcmData, int offset, int length) {
+        int sampleCount = length / 2;
+        LongVector sum = LongVector.zero(LONGS);
+        int i = 0;
+        for (int bound = sampleCount - sampleCount % LANES; i < bound; i += LANES) {
+            IntVector samples = (IntVector) ShortVector
+                    .fromByteArray(SHORTS, pcmData, offset + i * 2, ByteOrder.LITTLE_ENDIAN)
+                    .convertShape(VectorOperators.S2I, INTS, 0);
+            sum = accumulateSquares(sum, samples);
+        }
+        long total = sum.reduceLanes(VectorOperators.ADD);
+        if (i < sampleCount) {
+            total += ScalarKernels.pcmSumOfSquares(pcmData, offset + i * 2, (sampleCount - i) * 2);
+        }
+        return total;
+    }
+
+    static long ulawSumOfSquares(byte[] ulawData, int offset, int length) {
+        LongVector sum = LongVector.zero(LONGS);
+        int i = 0;
+        for (int bound = length - length % LANES; i < bound; i += LANES) {
+            // The sign does not change the square, so only the magnitude is decoded
+            sum = accumulateSquares(sum, decodeMagnitude(ByteVector.fromArray(BYTES, ulawData, offset + i)));
+        }
+        long total = sum.reduceLanes(VectorOperators.ADD);
+        if (i < length) {
+            total += ScalarKernels.ulawSumOfSquares(ulawData, offset + i, length - i);
+        }
+        return total;
+    }
+
+    /**
+     * Decodes µ-law bytes to linear samples with the same arithmetic as the scalar lookup table.
+     */
+    private static IntVector decode(ByteVector ulaw) {
+        IntVector flipped = flip(ulaw);
+        IntVector magnitude = magnitude(flipped);
+        VectorMask<Integer> negative = flipped.and(0x80).compare(VectorOperators.NE, 0);
+        return magnitude.blend(magnitude.neg(), negative);
+    }
+
+    /**
+     * Decodes the absolute value of µ-law samples.
+     */
+    private static IntVector decodeMagnitude(ByteVector ulaw) {
+        return magnitude(flip(ulaw));
+    }
+
+    /**
+     * Widens µ-law bytes to int lanes and undoes the G.711 bit inversion.
+     */
+    private static IntVector flip(ByteVector ulaw) {
+        return ((IntVector) ulaw.convertShape(VectorOperators.B2I, INTS, 0)).not().and(0xFF);
+    }
+
+    /**
+     * Calculates the linear magnitude from the exponent and mantissa bits.
+     */
+    private static IntVector magnitude(IntVector flipped) {
+        IntVector exponent = flipped.lanewise(VectorOperators.LSHR, 4).and(0x07);
+        IntVector mantissa = flipped.and(0x0F);
+        return mantissa.lanewise(VectorOperators.LSHL, 1).add(33)
+                .lanewise(VectorOperators.LSHL, exponent).sub(33);
+    }
+
+    /**
+     * Squares the samples and adds them to 64-bit lane sums so long frames cannot overflow.
+     */
+    private static LongVector accumulateSquares(LongVector sum, IntVector samples) {
+        IntVector squares = samples.mul(samples);
+        int parts = LANES / LONGS.length();
+        for (int part = 0; part < parts; part++) {
+            sum = sum.add((LongVector) squares.convertShape(VectorOperators.I2L, LONGS, part));
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.s2s.voipgateway.nova;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks which text the conversation history keeps, how it merges turns and how it trims to its limit.
+ */
+class ConversationHistoryTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void keepsFinalTextAndSkipsSpeculative() {
+        ConversationHistory history = new ConversationHistory(1000);
+        history.onContentStart(contentStart("speculative", "SPECULATIVE"));
+        history.onTextOutput(textOutput("speculative", "ASSISTANT", "It might be noon."));
+        history.onContentEnd(contentEnd("speculative"));
+        history.onContentStart(contentStart("final", "FINAL"));
+        history.onTextOutput(textOutput("final", "ASSISTANT", "It is noon."));
+        history.onContentEnd(contentEnd("final"));
+        // Text whose block wasn't seen starting counts as final
+        history.onTextOutput(textOutput("unseen", "USER", "Thanks."));
+
+        List<ConversationHistory.Turn> turns = history.getTurns();
+        assertEquals(2, turns.size());
+        assertTurn("ASSISTANT", "It is noon.", turns.get(0));
+        assertTurn("USER", "Thanks.", turns.get(1));
+    }
+
+    @Test
+    void mergesTextFromTheSameSpeaker() {
+        ConversationHistory history = new ConversationHistory(1000);
+        history.onTextOutput(textOutput("1", "user", "What time"));
+        history.onTextOutput(textOutput("2", "USER", " is it? "));
+        history.onTextOutput(textOutput("3", "ASSISTANT", "Noon."));
+        history.onTextOutput(textOutput("4", "USER", "Thanks."));
+
+        List<ConversationHistory.Turn> turns = history.getTurns();
+        assertEquals(3, turns.size());
+        assertTurn("USER", "What time is it?", turns.get(0));
+        assertTurn("ASSISTANT", "Noon.", turns.get(1));
+        assertTurn("USER", "Thanks.", turns.get(2));
+    }
+
+    @Test
+    void dropsTheOldestTurnsBeyondTheLimit() {
+        ConversationHistory history = new ConversationHistory(12);
+        history.onTextOutput(textOutput("1", "USER", "Hello there"));
+        history.onTextOutput(textOutput("2", "ASSISTANT", "Hi"));
+        history.onTextOutput(textOutput("3", "USER", "Time?"));
+
+        List<ConversationHistory.Turn> turns = history.getTurns();
+        assertEquals(2, turns.size());
+        assertTurn("ASSISTANT", "Hi", turns.get(0));
+        assertTurn("USER", "Time?", turns.get(1));
+    }
+
+    @Test
+    void cutsASingleTurnLongerThanTheLimitToItsEnd() {
+        ConversationHistory history = new ConversationHistory(10);
+        history.onTextOutput(textOutput("1", "USER", "Hello"));
+        history.onTextOutput(textOutput("2", "ASSISTANT", "The time is twelve noon"));
+
+        List<ConversationHistory.Turn> turns = history.getTurns();
+        assertEquals(1, turns.size());
+        assertTurn("ASSISTANT", "welve noon", turns.get(0));
+        // The cut turn still merges, and is cut again
+        history.onTextOutput(textOutput("3", "ASSISTANT", "today"));
+        assertTurn("ASSISTANT", "noon today", history.getTurns().get(0));
+    }
+
+    @Test
+    void skipsInterruptionMarkersAndTextWithoutASpeaker() {
+        ConversationHistory history = new ConversationHistory(1000);
+        history.onTextOutput(textOutput("1", "ASSISTANT", "{ \"interrupted\" : true }"));
+        history.onTextOutput(textOutput("2", "ASSISTANT", "{not json"));
+        history.onTextOutput(textOutput("3", null, "No role"));
+        history.onTextOutput(textOutput("4", "SYSTEM", "Be brief."));
+        history.onTextOutput(textOutput("5", "USER", "   "));
+
+        List<ConversationHistory.Turn> turns = history.getTurns();
+        assertEquals(1, turns.size());
+        assertTurn("ASSISTANT", "{not json", turns.get(0));
+    }
+
+    @Test
+    void turnsAreCopies() {
+        ConversationHistory history = new ConversationHistory(1000);
+        history.onTextOutput(textOutput("1", "USER", "Hello"));
+        List<ConversationHistory.Turn> turns = history.getTurns();
+        history.onTextOutput(textOutput("2", "USER", "again"));
+        assertTurn("USER", "Hello", turns.get(0));
+        assertTrue(history.getTurns().get(0).getContent().endsWith("again"));
+    }
+
+    private static void assertTurn(String role, String content, ConversationHistory.Turn turn) {
+        assertEquals(role, turn.getRole());
+        assertEquals(content, turn.getContent());
+    }
+
+    private static JsonNode contentStart(String contentId, String generationStage) {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("contentId", contentId);
+        node.put("type", "TEXT");
+        node.put("role", "ASSISTANT");
+        node.put("additionalModelFields", "{\"generationStage\":\"" + generationStage + "\"}");
+        return node;
+    }
+
+    private static JsonNode textOutput(String contentId, String role, String content) {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("contentId", contentId);
+        if (role != null) {
+            node.put("role", role);
+        }
+        node.put("content", content);
+        return node;
+    }
+
+    private static JsonNode contentEnd(String contentId) {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("contentId", contentId);
+        return node;
+    }
+}
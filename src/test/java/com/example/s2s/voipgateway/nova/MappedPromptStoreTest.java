@@ -0,0 +1,148 @@
+package com.example.s2s.voipgateway.nova;
+
+import com.example.s2s.voipgateway.nova.transcode.PcmToULawTranscoder;
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that packed prompts come back from the mapped store under their relative names, that repacking replaces the
+ * store without disturbing a mapping of the old one, and that the packer rejects what its file layout can't hold.
+ */
+class MappedPromptStoreTest {
+    private static final AudioFormat PCM = new AudioFormat(8000, 16, 1, true, false);
+
+    @Test
+    void packedPromptsAreFoundByTheirRelativeNames() throws Exception {
+        Path root = Files.createTempDirectory("prompts");
+        try {
+            byte[] a = pcm(400, 1000);
+            byte[] b = pcm(240, -3000);
+            Path store = root.resolve("prompts.ulaw");
+            MappedPromptStore.pack(store, root, Arrays.asList(
+                    wav(root.resolve("tenants/a/greeting.wav"), a), wav(root.resolve("tenants/b/greeting.wav"), b)));
+
+            MappedPromptStore opened = MappedPromptStore.open(store);
+            assertEquals(new HashSet<>(Arrays.asList("tenants/a/greeting.wav", "tenants/b/greeting.wav")),
+                    opened.names());
+            assertArrayEquals(PcmToULawTranscoder.transcodeBytes(a), bytes(opened.get("tenants/a/greeting.wav")));
+            assertArrayEquals(PcmToULawTranscoder.transcodeBytes(b), bytes(opened.get("tenants/b/greeting.wav")));
+            assertArrayEquals(PcmToULawTranscoder.transcodeBytes(b),
+                    bytes(opened.get("tenants/a/../b/greeting.wav")));
+            assertNull(opened.get("greeting.wav"));
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    void repackingLeavesAnOpenStoreIntact() throws Exception {
+        Path root = Files.createTempDirectory("prompts");
+        try {
+            byte[] first = pcm(400, 1000);
+            Path store = root.resolve("prompts.ulaw");
+            MappedPromptStore.pack(store, root, Collections.singletonList(wav(root.resolve("greeting.wav"), first)));
+            MappedPromptStore opened = MappedPromptStore.open(store);
+
+            byte[] second = pcm(80, -3000);
+            MappedPromptStore.pack(store, root, Collections.singletonList(wav(root.resolve("greeting.wav"), second)));
+
+            assertArrayEquals(PcmToULawTranscoder.transcodeBytes(first), bytes(opened.get("greeting.wav")));
+            assertArrayEquals(PcmToULawTranscoder.transcodeBytes(second),
+                    bytes(MappedPromptStore.open(store).get("greeting.wav")));
+            try (Stream<Path> files = Files.list(root)) {
+                assertEquals(2, files.count(), "Temporary file left behind");
+            }
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    void packRejectsTwoFilesWithTheSameName() throws Exception {
+        Path root = Files.createTempDirectory("prompts");
+        try {
+            Path greeting = wav(root.resolve("tenants/a/greeting.wav"), pcm(80, 1000));
+            Path store = root.resolve("prompts.ulaw");
+            IOException e = assertThrows(IOException.class, () -> MappedPromptStore.pack(store, root,
+                    Arrays.asList(greeting, root.resolve("tenants/b/../a/greeting.wav"))));
+            assertEquals("More than one prompt is named tenants/a/greeting.wav", e.getMessage());
+            assertFalse(Files.exists(store));
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    void packRejectsNamesLongerThanTheirLengthPrefix() throws IOException {
+        Path root = Files.createTempDirectory("prompts");
+        Path store = root.resolve("prompts.ulaw");
+        char[] name = new char[65536];
+        Arrays.fill(name, 'a');
+        try {
+            // Rejected before the file is read, which would fail too, as it doesn't exist
+            IOException e = assertThrows(IOException.class, () -> MappedPromptStore.pack(store, root,
+                    Collections.singletonList(root.resolve(new String(name)))));
+            assertTrue(e.getMessage().startsWith("Prompt name is longer than 65535 bytes"), e.getMessage());
+            assertFalse(Files.exists(store));
+        } finally {
+            Files.deleteIfExists(store);
+            Files.delete(root);
+        }
+    }
+
+    /**
+     * A tone's PCM samples, little-endian.
+     */
+    private static byte[] pcm(int samples, int level) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) (level * Math.sin(i * 0.3));
+            pcm[i * 2] = (byte) sample;
+            pcm[i * 2 + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    private static Path wav(Path file, byte[] pcm) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (AudioInputStream audio = new AudioInputStream(new ByteArrayInputStream(pcm), PCM, pcm.length / 2)) {
+            AudioSystem.write(audio, AudioFileFormat.Type.WAVE, file.toFile());
+        }
+        return file;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
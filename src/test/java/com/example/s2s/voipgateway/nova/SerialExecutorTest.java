@@ -0,0 +1,62 @@
+package com.example.s2s.voipgateway.nova;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that an executor keeps running its tasks in order after one of them fails, whether with an exception or an
+ * Error that ends its worker.
+ */
+class SerialExecutorTest {
+
+    @Test
+    void tasksRunInOrderAfterAnException() throws InterruptedException {
+        checkTasksRunAfter(() -> {
+            throw new IllegalStateException("Expected by the test");
+        });
+    }
+
+    @Test
+    void tasksRunInOrderAfterAnError() throws InterruptedException {
+        checkTasksRunAfter(() -> {
+            throw new AssertionError("Expected by the test");
+        });
+    }
+
+    private static void checkTasksRunAfter(Runnable failing) throws InterruptedException {
+        SerialExecutor executor = new SerialExecutor("test");
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch queued = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        // Held until the rest are queued, so they are waiting behind the failure
+        executor.execute(() -> await(queued));
+        executor.execute(failing);
+        executor.execute(() -> ran.add(1));
+        executor.execute(() -> ran.add(2));
+        queued.countDown();
+        executor.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS), "Tasks behind the failure never ran");
+
+        // The executor is idle again and takes new work
+        CountDownLatch later = new CountDownLatch(1);
+        executor.execute(later::countDown);
+        assertTrue(later.await(5, TimeUnit.SECONDS), "Executor stuck after the failure");
+        assertEquals(List.of(1, 2), ran);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
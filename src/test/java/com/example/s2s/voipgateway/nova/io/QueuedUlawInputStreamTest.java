@@ -0,0 +1,148 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a producer held back by a full playout buffer is woken by playback, barge-in and closing, and that
+ * cued prompts play in order without taking room in the buffer.  Runs with the default AUDIO_BUFFER_MS and
+ * AUDIO_BUFFER_OVERFLOW=block.
+ */
+class QueuedUlawInputStreamTest {
+    private static final int FRAME = 160;
+    private static final byte AUDIO = 0x10;
+    // 16 seconds, four times the default buffer
+    private static final int MORE_THAN_BUFFERED = 16000 * 8;
+
+    private final QueuedUlawInputStream stream = new QueuedUlawInputStream();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    @AfterEach
+    void close() throws IOException {
+        stream.close();
+    }
+
+    @Test
+    void blockedProducerResumesWhenPlaybackMakesRoom() throws Exception {
+        byte[] audio = new byte[MORE_THAN_BUFFERED];
+        Arrays.fill(audio, AUDIO);
+        Thread producer = startProducer(audio);
+        awaitParked(producer);
+
+        byte[] frame = new byte[FRAME];
+        int played = 0;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (played < audio.length && System.currentTimeMillis() < deadline) {
+            stream.read(frame, 0, frame.length);
+            for (byte b : frame) {
+                if (b == AUDIO) {
+                    played++;
+                }
+            }
+        }
+        producer.join(1000);
+        assertFalse(producer.isAlive(), "Producer still blocked");
+        assertNull(failure.get());
+        assertEquals(audio.length, played);
+    }
+
+    @Test
+    void bargeInReleasesBlockedProducer() throws Exception {
+        Thread producer = startProducer(new byte[MORE_THAN_BUFFERED]);
+        awaitParked(producer);
+        stream.interrupt();
+        producer.join(1000);
+        assertFalse(producer.isAlive(), "Producer still blocked");
+        assertNull(failure.get());
+        assertEquals(0, stream.getBufferedMillis());
+    }
+
+    @Test
+    void closeReleasesBlockedProducer() throws Exception {
+        Thread producer = startProducer(new byte[MORE_THAN_BUFFERED]);
+        awaitParked(producer);
+        stream.close();
+        producer.join(1000);
+        assertFalse(producer.isAlive(), "Producer still blocked");
+        assertNull(failure.get());
+    }
+
+    @Test
+    void cuedPromptPlaysInOrderWithoutCopying() throws Exception {
+        stream.appendUlaw(new byte[] {1, 2, 3}, 0, 3);
+        ByteBuffer prompt = ByteBuffer.wrap(new byte[] {0, 10, 11, 12, 0}, 1, 3).asReadOnlyBuffer();
+        stream.appendUlaw(prompt);
+        stream.appendUlaw(new byte[] {4, 5}, 0, 2);
+        assertEquals(1, prompt.position());
+
+        byte[] frame = new byte[4];
+        stream.read(frame, 0, frame.length);
+        assertArrayEquals(new byte[] {1, 2, 3, 10}, frame);
+        assertEquals(11, stream.read());
+        stream.read(frame, 0, frame.length);
+        assertArrayEquals(new byte[] {12, 4, 5, 127}, frame);
+        // The same buffer can be played again, by this call or another
+        assertEquals(1, prompt.position());
+    }
+
+    @Test
+    void promptLongerThanTheBufferDoesNotBlock() throws Exception {
+        // Returns at once, where copying it into the ring buffer would wait for playback
+        stream.appendUlaw(ByteBuffer.wrap(new byte[MORE_THAN_BUFFERED]).asReadOnlyBuffer());
+        stream.appendUlaw(new byte[] {7}, 0, 1);
+        byte[] frame = new byte[FRAME];
+        for (int played = 0; played < MORE_THAN_BUFFERED; played += FRAME) {
+            stream.read(frame, 0, frame.length);
+        }
+        assertEquals(7, stream.read());
+    }
+
+    @Test
+    void bargeInDropsCuedPrompts() throws Exception {
+        byte[] prompt = new byte[FRAME * 2];
+        Arrays.fill(prompt, AUDIO);
+        stream.appendUlaw(ByteBuffer.wrap(prompt));
+        stream.appendUlaw(ByteBuffer.wrap(prompt));
+        byte[] frame = new byte[FRAME];
+        stream.read(frame, 0, frame.length);
+        assertEquals(AUDIO, frame[FRAME - 1]);
+
+        stream.interrupt();
+        stream.resume();
+        stream.read(frame, 0, frame.length);
+        byte[] silence = new byte[FRAME];
+        Arrays.fill(silence, (byte) 127);
+        assertArrayEquals(silence, frame);
+    }
+
+    private Thread startProducer(byte[] audio) {
+        Thread producer = new Thread(() -> {
+            try {
+                stream.appendUlaw(audio, 0, audio.length);
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "playout-producer");
+        producer.start();
+        return producer;
+    }
+
+    private static void awaitParked(Thread producer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (producer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(producer.getState() == Thread.State.WAITING, "Producer never blocked: " + producer.getState());
+    }
+}
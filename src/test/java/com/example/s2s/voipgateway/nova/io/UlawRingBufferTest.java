@@ -0,0 +1,221 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the SPSC ring buffer, including a writer reusing discarded space while the reader is still copying it.
+ */
+class UlawRingBufferTest {
+    // Each record is a sequence number and its complement, so a torn or overwritten record doesn't check out
+    private static final int RECORD = 8;
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(16, new UlawRingBuffer(16).capacity());
+        assertEquals(32, new UlawRingBuffer(17).capacity());
+        assertEquals(1024, UlawRingBuffer.forDuration(100).capacity());
+    }
+
+    @Test
+    void readsWhatWasWrittenAcrossTheWrap() {
+        for (boolean direct : new boolean[] {false, true}) {
+            UlawRingBuffer buffer = new UlawRingBuffer(16, direct);
+            byte next = 0;
+            byte expected = 0;
+            // Chunks of 5 against a capacity of 16 start at every index, so every split of a wrapping copy happens
+            for (int lap = 0; lap < 64; lap++) {
+                byte[] chunk = new byte[5];
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = next++;
+                }
+                if (lap % 2 == 0) {
+                    assertEquals(5, buffer.write(chunk, 0, chunk.length));
+                } else {
+                    ByteBuffer source = ByteBuffer.wrap(chunk);
+                    assertEquals(5, buffer.write(source));
+                    assertEquals(0, source.remaining());
+                }
+                byte[] read = new byte[5];
+                if (lap % 3 == 0) {
+                    for (int i = 0; i < read.length; i++) {
+                        read[i] = (byte) buffer.read();
+                    }
+                } else {
+                    assertEquals(5, buffer.read(read, 0, read.length));
+                }
+                for (byte b : read) {
+                    assertEquals(expected++, b, "lap " + lap + (direct ? ", direct" : ", heap"));
+                }
+            }
+            assertEquals(-1, buffer.read());
+            assertEquals(0, buffer.read(new byte[4], 0, 4));
+        }
+    }
+
+    @Test
+    void freeAndAvailableAtCapacity() {
+        UlawRingBuffer buffer = new UlawRingBuffer(16);
+        assertEquals(16, buffer.free());
+        assertEquals(0, buffer.available());
+
+        // A write that doesn't fit is cut to the space there is
+        assertEquals(16, buffer.write(new byte[20], 0, 20));
+        assertEquals(0, buffer.free());
+        assertEquals(16, buffer.available());
+        assertEquals(0, buffer.write(new byte[1], 0, 1));
+        ByteBuffer source = ByteBuffer.wrap(new byte[3]);
+        assertEquals(0, buffer.write(source));
+        assertEquals(3, source.remaining());
+
+        buffer.read();
+        assertEquals(1, buffer.free());
+        assertEquals(15, buffer.available());
+
+        // Discarded space is free at once, before the reader has moved past it
+        assertEquals(4, buffer.discardOldest(4));
+        assertEquals(5, buffer.free());
+        assertEquals(11, buffer.available());
+        assertEquals(5, buffer.write(new byte[5], 0, 5));
+        assertEquals(0, buffer.free());
+        assertEquals(16, buffer.available());
+
+        buffer.flush();
+        assertEquals(16, buffer.free());
+        assertEquals(0, buffer.available());
+        assertEquals(0, buffer.read(new byte[16], 0, 16));
+        assertEquals(0, buffer.discardOldest(8));
+    }
+
+    @Test
+    void discardOldestKeepsTheNewestBytes() {
+        UlawRingBuffer buffer = new UlawRingBuffer(8);
+        buffer.write(new byte[] {1, 2, 3, 4, 5, 6}, 0, 6);
+        assertEquals(2, buffer.discardOldest(2));
+        byte[] read = new byte[8];
+        assertEquals(4, buffer.read(read, 0, read.length));
+        assertArrayEquals(new byte[] {3, 4, 5, 6, 0, 0, 0, 0}, read);
+        // More than is buffered only discards what there is
+        buffer.write(new byte[] {7, 8}, 0, 2);
+        assertEquals(2, buffer.discardOldest(10));
+        assertEquals(-1, buffer.read());
+    }
+
+    @Test
+    void flushKeepsWhatIsWrittenAfterIt() {
+        UlawRingBuffer buffer = new UlawRingBuffer(8);
+        buffer.write(new byte[] {1, 2, 3}, 0, 3);
+        buffer.flush();
+        buffer.write(new byte[] {4, 5}, 0, 2);
+        assertEquals(4, buffer.read());
+        assertEquals(5, buffer.read());
+        assertEquals(-1, buffer.read());
+    }
+
+    @Test
+    void discardedSpaceRefilledBeforeTheReaderGetsThere() {
+        UlawRingBuffer buffer = new UlawRingBuffer(8);
+        buffer.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}, 0, 8);
+        assertEquals(1, buffer.read());
+        // The writer laps into the discarded bytes 2-4 before the reader moves past them
+        assertEquals(3, buffer.discardOldest(3));
+        assertEquals(3, buffer.write(new byte[] {9, 10, 11}, 0, 3));
+        byte[] read = new byte[8];
+        assertEquals(7, buffer.read(read, 0, read.length));
+        assertArrayEquals(new byte[] {5, 6, 7, 8, 9, 10, 11, 0}, read);
+    }
+
+    @Test
+    void flushedSpaceRefilledBeforeTheReaderGetsThere() {
+        UlawRingBuffer buffer = new UlawRingBuffer(8);
+        buffer.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}, 0, 8);
+        buffer.flush();
+        assertEquals(8, buffer.write(new byte[] {9, 10, 11, 12, 13, 14, 15, 16}, 0, 8));
+        for (int expected = 9; expected <= 16; expected++) {
+            assertEquals(expected, buffer.read());
+        }
+        assertEquals(-1, buffer.read());
+    }
+
+    @Test
+    void concurrentReaderNeverSeesStaleOrOverwrittenBytes() throws Exception {
+        for (boolean direct : new boolean[] {false, true}) {
+            // The reader copies the whole buffer at once and the writer refills whatever is discarded, so the writer
+            // constantly reuses space the reader is still copying
+            UlawRingBuffer buffer = new UlawRingBuffer(4096, direct);
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+
+            Thread writer = new Thread(() -> {
+                ByteBuffer records = ByteBuffer.allocate(buffer.capacity());
+                int sequence = 0;
+                while (!done.get()) {
+                    // Whole records only, so flush marks always fall on a record boundary
+                    int free = buffer.free() / RECORD;
+                    if (free == 0) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    records.clear();
+                    for (int i = 0; i < free; i++, sequence++) {
+                        records.putInt(sequence).putInt(~sequence);
+                    }
+                    records.flip();
+                    int length = records.remaining();
+                    if (buffer.write(records) != length) {
+                        failure.compareAndSet(null, new AssertionError("Partial write with free space"));
+                        return;
+                    }
+                }
+            }, "ring-writer");
+            Thread discarder = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (!done.get()) {
+                    if (random.nextInt(4) == 0) {
+                        buffer.flush();
+                    } else {
+                        buffer.discardOldest(RECORD * random.nextInt(1, 64));
+                    }
+                }
+            }, "ring-discarder");
+            writer.start();
+            discarder.start();
+
+            byte[] read = new byte[buffer.capacity()];
+            ByteBuffer records = ByteBuffer.wrap(read);
+            int last = -1;
+            long recordsRead = 0;
+            try {
+                while (System.nanoTime() < deadline && failure.get() == null) {
+                    int count = buffer.read(read, 0, read.length);
+                    assertEquals(0, count % RECORD, "Read a partial record");
+                    for (int offset = 0; offset < count; offset += RECORD) {
+                        int sequence = records.getInt(offset);
+                        int check = records.getInt(offset + 4);
+                        assertEquals(~sequence, check, "Torn record " + sequence + (direct ? ", direct" : ", heap"));
+                        assertTrue(sequence > last, "Record " + sequence + " after " + last);
+                        last = sequence;
+                        recordsRead++;
+                    }
+                }
+            } finally {
+                done.set(true);
+                writer.join();
+                discarder.join();
+            }
+            assertNull(failure.get());
+            assertTrue(recordsRead > 0, "Nothing was read");
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.s2s.voipgateway.nova.observer;
+
+import com.example.s2s.voipgateway.nova.event.AudioInputEvent;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.bedrockruntime.model.BidirectionalInputPayloadPart;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidirectionalStreamInput;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the input event publisher delivers only what is requested, applies its overflow policies to audio,
+ * replays the bootstrap events to a later subscriber and tells a late subscriber how the stream ended.
+ */
+class InputEventPublisherTest {
+    private static final String PREFIX = "{\"event\":{\"audioInput\":{\"promptName\":\"prompt\",\"contentName\":\"audio\","
+            + "\"role\":\"USER\",\"content\":\"";
+
+    @Test
+    void deliversOnlyWhatIsRequested() {
+        InputEventPublisher publisher = publisher(10, InputEventPublisher.Overflow.FAIL);
+        for (int i = 0; i < 5; i++) {
+            publisher.publish(text("event" + i), false);
+        }
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertEquals(Collections.emptyList(), subscriber.received());
+
+        subscriber.subscription.request(2);
+        assertEquals(Arrays.asList("event0", "event1"), subscriber.received());
+        subscriber.subscription.request(2);
+        assertEquals(Arrays.asList("event0", "event1", "event2", "event3"), subscriber.received());
+        subscriber.subscription.request(5);
+        publisher.publish(text("event5"), false);
+        assertEquals(6, subscriber.received().size());
+
+        // Outstanding demand is used up by events published later, and no further
+        publisher.publish(text("event6"), false);
+        publisher.publish(text("event7"), false);
+        publisher.publish(text("event8"), false);
+        publisher.publish(text("event9"), false);
+        assertEquals(9, subscriber.received().size());
+        publisher.complete();
+        assertFalse(subscriber.completed, "Completed before event9 was delivered");
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(10, subscriber.received().size());
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    void requestOfZeroFailsTheSubscription() {
+        InputEventPublisher publisher = publisher(10, InputEventPublisher.Overflow.FAIL);
+        publisher.publish(text("event"), false);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException, String.valueOf(subscriber.error));
+        assertEquals(Collections.emptyList(), subscriber.received());
+
+        // The event is left for another subscriber
+        RecordingSubscriber next = new RecordingSubscriber();
+        publisher.subscribe(next);
+        next.subscription.request(1);
+        assertEquals(Collections.singletonList("event"), next.received());
+    }
+
+    @Test
+    void secondSubscriberIsRejected() {
+        InputEventPublisher publisher = publisher(10, InputEventPublisher.Overflow.FAIL);
+        publisher.subscribe(new RecordingSubscriber());
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException, String.valueOf(second.error));
+    }
+
+    @Test
+    void coalesceMergesAudioWhenFull() {
+        InputEventPublisher publisher = publisher(2, InputEventPublisher.Overflow.COALESCE);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        publisher.publish(text("start"), false);
+        for (int i = 0; i < 6; i++) {
+            byte[] pcm = {(byte) i, (byte) (i * 2), 1, 2};
+            sent.write(pcm, 0, pcm.length);
+            publisher.publish(audio(pcm), true);
+        }
+        publisher.publish(text("end"), false);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        List<String> received = subscriber.received();
+        // The first two fill the buffer and the other four are merged into the second
+        assertEquals(4, received.size());
+        assertEquals("start", received.get(0));
+        assertEquals("end", received.get(3));
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        for (String json : received.subList(1, 3)) {
+            byte[] pcm = pcm(json);
+            audio.write(pcm, 0, pcm.length);
+        }
+        assertArrayEquals(sent.toByteArray(), audio.toByteArray());
+    }
+
+    @Test
+    void coalesceDropsTheOldestWhenAudioCannotBeMerged() {
+        InputEventPublisher publisher = publisher(2, InputEventPublisher.Overflow.COALESCE);
+        publisher.publish(audio(new byte[] {1, 1}), true);
+        publisher.publish(audio(new byte[] {2, 2}), true);
+        // Not from the audio template, so it can't be merged
+        publisher.publish(text("unmergeable"), true);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(2, subscriber.received().size());
+        assertArrayEquals(new byte[] {2, 2}, pcm(subscriber.received().get(0)));
+        assertEquals("unmergeable", subscriber.received().get(1));
+    }
+
+    @Test
+    void dropDiscardsTheOldestAudioOnly() {
+        InputEventPublisher publisher = publisher(2, InputEventPublisher.Overflow.DROP);
+        publisher.publish(text("start"), false);
+        publisher.publish(audio(new byte[] {1, 1}), true);
+        publisher.publish(audio(new byte[] {2, 2}), true);
+        publisher.publish(text("middle"), false);
+        publisher.publish(audio(new byte[] {3, 3}), true);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        List<String> received = subscriber.received();
+        assertEquals(4, received.size());
+        assertEquals("start", received.get(0));
+        assertArrayEquals(new byte[] {2, 2}, pcm(received.get(1)));
+        assertEquals("middle", received.get(2));
+        assertArrayEquals(new byte[] {3, 3}, pcm(received.get(3)));
+    }
+
+    @Test
+    void failFailsTheStreamAndDiscardsWhatIsWaiting() {
+        InputEventPublisher publisher = publisher(2, InputEventPublisher.Overflow.FAIL);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        publisher.publish(text("start"), false);
+        publisher.publish(audio(new byte[] {1, 1}), true);
+        publisher.publish(audio(new byte[] {2, 2}), true);
+        assertNull(subscriber.error);
+        publisher.publish(audio(new byte[] {3, 3}), true);
+
+        assertTrue(subscriber.error instanceof IllegalStateException, String.valueOf(subscriber.error));
+        assertEquals(Collections.singletonList("start"), subscriber.received());
+        // Anything published afterwards is dropped too
+        publisher.publish(text("late"), false);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(Collections.singletonList("start"), subscriber.received());
+    }
+
+    @Test
+    void bootstrapIsReplayedToALaterSubscriber() {
+        InputEventPublisher publisher = publisher(10, InputEventPublisher.Overflow.FAIL);
+        publisher.publish(text("sessionStart"), false);
+        publisher.publish(text("promptStart"), false);
+        publisher.endBootstrap();
+        publisher.publish(text("audioStart"), false);
+
+        RecordingSubscriber first = new RecordingSubscriber();
+        publisher.subscribe(first);
+        first.subscription.request(Long.MAX_VALUE);
+        assertEquals(Arrays.asList("sessionStart", "promptStart", "audioStart"), first.received());
+        first.subscription.cancel();
+        publisher.publish(text("afterCancel"), false);
+        assertEquals(3, first.received().size());
+
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(second);
+        second.subscription.request(Long.MAX_VALUE);
+        // Only the bootstrap is kept once delivered
+        assertEquals(Arrays.asList("sessionStart", "promptStart", "afterCancel"), second.received());
+    }
+
+    @Test
+    void subscriberAfterCompletionIsCompleted() {
+        InputEventPublisher publisher = publisher(10, InputEventPublisher.Overflow.FAIL);
+        publisher.publish(text("sessionStart"), false);
+        RecordingSubscriber first = new RecordingSubscriber();
+        publisher.subscribe(first);
+        first.subscription.request(Long.MAX_VALUE);
+        publisher.complete();
+        assertTrue(first.completed);
+
+        RecordingSubscriber late = new RecordingSubscriber();
+        publisher.subscribe(late);
+        assertTrue(late.subscribed);
+        assertTrue(late.completed);
+        assertNull(late.error);
+        late.subscription.request(1);
+        assertEquals(Collections.emptyList(), late.received());
+    }
+
+    @Test
+    void subscriberAfterFailureGetsTheError() {
+        InputEventPublisher publisher = publisher(10, InputEventPublisher.Overflow.FAIL);
+        publisher.publish(text("sessionStart"), false);
+        RecordingSubscriber first = new RecordingSubscriber();
+        publisher.subscribe(first);
+        first.subscription.request(Long.MAX_VALUE);
+        IllegalStateException failure = new IllegalStateException("failed");
+        publisher.fail(failure);
+        assertSame(failure, first.error);
+
+        RecordingSubscriber late = new RecordingSubscriber();
+        publisher.subscribe(late);
+        assertTrue(late.subscribed);
+        assertSame(failure, late.error);
+        assertFalse(late.completed);
+        late.subscription.request(1);
+        assertEquals(Collections.emptyList(), late.received());
+    }
+
+    @Test
+    void subscriberAfterFailureWithoutAnEarlierOneGetsTheError() {
+        InputEventPublisher publisher = publisher(10, InputEventPublisher.Overflow.FAIL);
+        publisher.publish(text("sessionStart"), false);
+        IllegalStateException failure = new IllegalStateException("failed");
+        publisher.fail(failure);
+
+        RecordingSubscriber late = new RecordingSubscriber();
+        publisher.subscribe(late);
+        assertSame(failure, late.error);
+        assertEquals(Collections.emptyList(), late.received());
+    }
+
+    private InputEventPublisher publisher(int capacity, InputEventPublisher.Overflow overflow) {
+        return new InputEventPublisher(capacity, overflow);
+    }
+
+    private static InvokeModelWithBidirectionalStreamInput text(String text) {
+        return InvokeModelWithBidirectionalStreamInput.chunkBuilder()
+                .bytes(SdkBytes.fromUtf8String(text))
+                .build();
+    }
+
+    /**
+     * @return An audio event from the serializer's template, as the observer publishes it.
+     */
+    private static InvokeModelWithBidirectionalStreamInput audio(byte[] pcm) {
+        AudioInputEvent event = new AudioInputEvent(new AudioInputEvent.AudioInput("prompt", "audio",
+                Base64.getEncoder().encodeToString(pcm), "USER"));
+        return InvokeModelWithBidirectionalStreamInput.chunkBuilder()
+                .bytes(SdkBytes.fromByteArrayUnsafe(new NovaEventSerializer().serialize(event)))
+                .build();
+    }
+
+    private static byte[] pcm(String json) {
+        assertTrue(json.startsWith(PREFIX) && json.endsWith("\"}}}"), json);
+        return Base64.getDecoder().decode(json.substring(PREFIX.length(), json.length() - 4));
+    }
+
+    /**
+     * Records what it is sent, and asks for nothing until told to.
+     */
+    private static class RecordingSubscriber implements Subscriber<InvokeModelWithBidirectionalStreamInput> {
+        private final List<InvokeModelWithBidirectionalStreamInput> events = new ArrayList<>();
+        private Subscription subscription;
+        private boolean subscribed;
+        private boolean completed;
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscribed = true;
+        }
+
+        @Override
+        public void onNext(InvokeModelWithBidirectionalStreamInput input) {
+            events.add(input);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+
+        private List<String> received() {
+            List<String> received = new ArrayList<>();
+            for (InvokeModelWithBidirectionalStreamInput input : events) {
+                received.add(new String(((BidirectionalInputPayloadPart) input).bytes().asByteArrayUnsafe(),
+                        StandardCharsets.UTF_8));
+            }
+            return received;
+        }
+    }
+}
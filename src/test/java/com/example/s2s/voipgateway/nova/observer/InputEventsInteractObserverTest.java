@@ -0,0 +1,120 @@
+package com.example.s2s.voipgateway.nova.observer;
+
+import com.example.s2s.voipgateway.nova.event.AudioInputEvent;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.bedrockruntime.model.BidirectionalInputPayloadPart;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidirectionalStreamInput;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that audio payloads are never reused while the SDK may still be reading them.
+ */
+class InputEventsInteractObserverTest {
+    private static final String PREFIX = "{\"event\":{\"audioInput\":{\"promptName\":\"prompt\",\"contentName\":\"audio\","
+            + "\"role\":\"USER\",\"content\":\"";
+
+    @Test
+    void deliveredAudioIsNotReusedWhileTheSubscriberHoldsIt() {
+        InputEventPublisher publisher = new InputEventPublisher();
+        InputEventsInteractObserver observer = new InputEventsInteractObserver(publisher);
+        HoldingSubscriber subscriber = new HoldingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String content = content(i);
+            sent.add(content);
+            observer.onNext(audio(content));
+        }
+        // Like the SDK, the subscriber reads the bytes some time after onNext has returned
+        assertEquals(sent.size(), subscriber.held.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals(PREFIX + sent.get(i) + "\"}}}", json(subscriber.held.get(i)), "event " + i);
+        }
+    }
+
+    @Test
+    void coalescingAudioLeavesDeliveredAudioAlone() {
+        InputEventPublisher publisher = new InputEventPublisher();
+        InputEventsInteractObserver observer = new InputEventsInteractObserver(publisher);
+        HoldingSubscriber subscriber = new HoldingSubscriber();
+        publisher.subscribe(subscriber);
+
+        // A slow subscriber, so audio backs up and is coalesced
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        for (int i = 0; i < 400; i++) {
+            String content = content(i);
+            byte[] audio = Base64.getDecoder().decode(content);
+            sent.write(audio, 0, audio.length);
+            observer.onNext(audio(content));
+            if (i % 10 == 0) {
+                subscriber.subscription.request(1);
+            }
+        }
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.held.size() < 400, "Nothing was coalesced");
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        for (InvokeModelWithBidirectionalStreamInput input : subscriber.held) {
+            String json = json(input);
+            assertTrue(json.startsWith(PREFIX) && json.endsWith("\"}}}"), json);
+            byte[] audio = Base64.getDecoder().decode(json.substring(PREFIX.length(), json.length() - 4));
+            received.write(audio, 0, audio.length);
+        }
+        assertArrayEquals(sent.toByteArray(), received.toByteArray());
+    }
+
+    /**
+     * @return Distinct, non-silent Base64 audio of the same length for each event.
+     */
+    private static String content(int i) {
+        return Base64.getEncoder().encodeToString(new byte[] {(byte) i, (byte) (i >> 8), 1, 2, 3, 4});
+    }
+
+    private static AudioInputEvent audio(String content) {
+        return new AudioInputEvent(new AudioInputEvent.AudioInput("prompt", "audio", content, "USER"));
+    }
+
+    private static String json(InvokeModelWithBidirectionalStreamInput input) {
+        return new String(((BidirectionalInputPayloadPart) input).bytes().asByteArrayUnsafe(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Keeps every event it is given, without reading it.
+     */
+    private static class HoldingSubscriber implements Subscriber<InvokeModelWithBidirectionalStreamInput> {
+        private final List<InvokeModelWithBidirectionalStreamInput> held = new ArrayList<>();
+        private Subscription subscription;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(InvokeModelWithBidirectionalStreamInput input) {
+            held.add(input);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
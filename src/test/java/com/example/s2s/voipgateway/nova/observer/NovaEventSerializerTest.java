@@ -0,0 +1,244 @@
+package com.example.s2s.voipgateway.nova.observer;
+
+import com.example.s2s.voipgateway.nova.event.*;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks that the event serializer writes the same documents Jackson does for every event type, including escaped
+ * text, null fields and audio from the template.
+ */
+class NovaEventSerializerTest {
+    private static final ObjectMapper JACKSON = new ObjectMapper();
+    // Every control character, the characters JSON escapes, DEL, and two, three and four byte UTF-8
+    private static final String AWKWARD;
+    static {
+        StringBuilder text = new StringBuilder();
+        for (char c = 0; c < 0x20; c++) {
+            text.append(c);
+        }
+        AWKWARD = text.append("\"\\/\u007f café € 😀 你好").toString();
+    }
+
+    private final NovaEventSerializer serializer = new NovaEventSerializer();
+
+    @Test
+    void everyEventTypeMatchesJackson() throws Exception {
+        Map<String, String> inputSchema = new LinkedHashMap<>();
+        inputSchema.put("json", "{\"type\":\"object\",\"properties\":{}}");
+        PromptStartEvent.PromptStart promptStart = new PromptStartEvent.PromptStart("prompt",
+                new MediaConfiguration("text/plain"),
+                new PromptStartEvent.AudioOutputConfiguration("audio/lpcm", 8000, (short) 16, (short) 1, "matthew",
+                        "base64", "SPEECH"),
+                new MediaConfiguration("application/json"),
+                new PromptStartEvent.ToolConfiguration(Arrays.asList(
+                        new PromptStartEvent.Tool(new PromptStartEvent.ToolSpec("getDateTool", "Gets the date", inputSchema)),
+                        new PromptStartEvent.Tool(new PromptStartEvent.ToolSpec("hangupTool", "Hangs up", inputSchema)))));
+
+        Map<String, Object> toolResultInput = new LinkedHashMap<>();
+        toolResultInput.put("toolUseId", "tool-1");
+        toolResultInput.put("type", "TEXT");
+        toolResultInput.put("textInputConfiguration", new MediaConfiguration("text/plain"));
+        Map<String, Object> toolResultProperties = new LinkedHashMap<>();
+        toolResultProperties.put("toolResultInputConfiguration", toolResultInput);
+        ContentStartEvent toolContentStart = new ContentStartEvent(new ContentStartEvent.ContentStart("prompt",
+                "tool-content", "TOOL", false, new MediaConfiguration("text/plain"), toolResultProperties));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("promptName", "prompt");
+        result.put("contentName", "tool-content");
+        result.put("content", "{\"date\":\"2026-10-16\"}");
+        result.put("count", 3);
+        result.put("total", 12345678901L);
+        result.put("score", 0.25);
+        result.put("ratio", 0.5f);
+        result.put("found", true);
+        result.put("tags", Arrays.asList("a", 1, false, null));
+        result.put("nested", Collections.singletonMap("key", Collections.singletonList(2.5)));
+
+        List<NovaSonicEvent> events = Arrays.asList(
+                new SessionStartEvent(1024, 0.9f, 0.7f),
+                new SessionStartEvent(1024, 0.9f, 0.7f, "guardrail", "1"),
+                new PromptStartEvent(promptStart),
+                ContentStartEvent.createTextContentStart("prompt", "text-content"),
+                toolContentStart,
+                new StartAudioContent(new StartAudioContent.ContentStart("prompt", "audio-content",
+                        StartAudioContent.TYPE_AUDIO, true, new StartAudioContent.AudioInputConfiguration("audio/lpcm",
+                        8000, (short) 16, (short) 1, "SPEECH", "base64"))),
+                audio("prompt", "audio-content", base64(1, 2, 3, 4), "USER"),
+                new TextInputEvent(new TextInputEvent.TextInput("prompt", "text-content", "Hello", "SYSTEM")),
+                ContentEndEvent.create("prompt", "text-content"),
+                new EndAudioContent(new EndAudioContent.ContentEnd("prompt", "audio-content")),
+                new ToolResultEvent(new ToolResultEvent.ToolResult(result)),
+                PromptEndEvent.create("prompt"));
+        for (NovaSonicEvent event : events) {
+            assertMatchesJackson(event);
+        }
+    }
+
+    @Test
+    void textIsEscapedLikeJackson() throws Exception {
+        assertMatchesJackson(new TextInputEvent(new TextInputEvent.TextInput(AWKWARD, AWKWARD, AWKWARD, AWKWARD)));
+        assertMatchesJackson(ContentEndEvent.create(AWKWARD, AWKWARD));
+        assertMatchesJackson(PromptEndEvent.create(AWKWARD));
+        assertMatchesJackson(new SessionStartEvent(1, 1f, 1f, AWKWARD, AWKWARD));
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put(AWKWARD, AWKWARD);
+        result.put("list", Collections.singletonList(AWKWARD));
+        assertMatchesJackson(new ToolResultEvent(new ToolResultEvent.ToolResult(result)));
+        Map<String, String> inputSchema = Collections.singletonMap(AWKWARD, AWKWARD);
+        PromptStartEvent.PromptStart promptStart = new PromptStartEvent.PromptStart();
+        promptStart.setPromptName(AWKWARD);
+        promptStart.setToolConfiguration(new PromptStartEvent.ToolConfiguration(Collections.singletonList(
+                new PromptStartEvent.Tool(new PromptStartEvent.ToolSpec(AWKWARD, AWKWARD, inputSchema)))));
+        assertMatchesJackson(new PromptStartEvent(promptStart));
+        // Names that need escaping go into the audio template as well
+        assertMatchesJackson(audio(AWKWARD, AWKWARD, base64(5, 6, 7, 8), AWKWARD));
+    }
+
+    @Test
+    void nullFieldsMatchJackson() throws Exception {
+        AudioInputEvent noAudio = new AudioInputEvent();
+        noAudio.setAudioInput(null);
+        TextInputEvent noText = new TextInputEvent();
+        noText.setTextInput(null);
+        ContentEndEvent noEnd = new ContentEndEvent();
+        noEnd.setContentEnd(null);
+        EndAudioContent noAudioEnd = new EndAudioContent();
+        noAudioEnd.setContentEnd(null);
+        PromptEndEvent noPromptEnd = new PromptEndEvent();
+        noPromptEnd.setPromptEnd(null);
+        ToolResultEvent noResult = new ToolResultEvent();
+        noResult.setToolResult(null);
+        SessionStartEvent noSession = new SessionStartEvent(1, 1f, 1f);
+        noSession.setSessionStart(null);
+        SessionStartEvent noInference = new SessionStartEvent(1, 1f, 1f);
+        noInference.getSessionStart().setInferenceConfiguration(null);
+        PromptStartEvent noPromptStart = new PromptStartEvent();
+        noPromptStart.setPromptStart(null);
+        StartAudioContent noAudioStart = new StartAudioContent();
+        noAudioStart.setContentStart(null);
+        ContentStartEvent noContentStart = new ContentStartEvent();
+        noContentStart.setContentStart(null);
+
+        PromptStartEvent.ToolConfiguration noTools = new PromptStartEvent.ToolConfiguration();
+        noTools.setTools(null);
+        List<PromptStartEvent.Tool> tools = new ArrayList<>();
+        tools.add(null);
+        tools.add(new PromptStartEvent.Tool(null));
+        tools.add(new PromptStartEvent.Tool(new PromptStartEvent.ToolSpec(null, null, null)));
+        Map<String, Object> nullValues = new HashMap<>();
+        nullValues.put("value", null);
+        nullValues.put("empty", new HashMap<>());
+        nullValues.put("none", new ArrayList<>());
+
+        List<NovaSonicEvent> events = Arrays.asList(
+                noAudio, noText, noEnd, noAudioEnd, noPromptEnd, noResult, noSession, noInference, noPromptStart,
+                noAudioStart, noContentStart,
+                audio(null, null, null, null),
+                audio(null, null, base64(1, 2, 3), null),
+                new TextInputEvent(new TextInputEvent.TextInput(null, null, null, null)),
+                new ContentEndEvent(new ContentEndEvent.ContentEnd(null, null)),
+                new EndAudioContent(new EndAudioContent.ContentEnd(null, null)),
+                PromptEndEvent.create(null),
+                new ToolResultEvent(new ToolResultEvent.ToolResult(null)),
+                new ToolResultEvent(new ToolResultEvent.ToolResult(nullValues)),
+                new StartAudioContent(new StartAudioContent.ContentStart(null, null, null, false, null)),
+                new ContentStartEvent(new ContentStartEvent.ContentStart(null, null, null, false, null, null)),
+                new ContentStartEvent(new ContentStartEvent.ContentStart(null, null, null, false,
+                        new MediaConfiguration(null, null), nullValues)),
+                new PromptStartEvent(new PromptStartEvent.PromptStart(null, null, null, null, null)),
+                new PromptStartEvent(new PromptStartEvent.PromptStart(null, new MediaConfiguration(),
+                        new PromptStartEvent.AudioOutputConfiguration(), null, noTools)),
+                new PromptStartEvent(new PromptStartEvent.PromptStart(null, null, null, null,
+                        new PromptStartEvent.ToolConfiguration(tools))));
+        for (NovaSonicEvent event : events) {
+            assertMatchesJackson(event);
+        }
+    }
+
+    @Test
+    void audioTemplateFollowsTheContentBlock() throws Exception {
+        // Each change of prompt, content block or role must rebuild the prefix, and going back must too
+        assertMatchesJackson(audio("prompt", "audio-1", base64(1, 2, 3, 4), "USER"));
+        assertMatchesJackson(audio("prompt", "audio-1", base64(5, 6, 7, 8), "USER"));
+        assertMatchesJackson(audio("prompt", "audio-2", base64(1, 2, 3, 4), "USER"));
+        assertMatchesJackson(audio("prompt", "audio-2", base64(1, 2, 3, 4), null));
+        assertMatchesJackson(audio("prompt-2", "audio-2", base64(1, 2, 3, 4), null));
+        assertMatchesJackson(audio("prompt", "audio-1", base64(9, 10, 11, 12), "USER"));
+        // Other events in between use the same buffer as the template
+        assertMatchesJackson(new TextInputEvent(new TextInputEvent.TextInput("prompt", "text", AWKWARD, "USER")));
+        assertMatchesJackson(audio("prompt", "audio-1", base64(13, 14, 15, 16), "USER"));
+    }
+
+    @Test
+    void audioContentThatNeedsEscapingMatchesJackson() throws Exception {
+        // Not Base64, so it can't be spliced into the template verbatim
+        assertMatchesJackson(audio("prompt", "audio", AWKWARD, "USER"));
+        assertMatchesJackson(audio("prompt", "audio", "", "USER"));
+        assertMatchesJackson(audio("prompt", "audio", base64(1, 2, 3, 4), "USER"));
+    }
+
+    @Test
+    void audioPayloadsAreNeverReused() throws Exception {
+        byte[] first = serializer.serialize(audio("prompt", "audio", base64(1, 2, 3, 4), "USER"));
+        byte[] second = serializer.serialize(audio("prompt", "audio", base64(5, 6, 7, 8), "USER"));
+        assertNotSame(first, second);
+        // The SDK may still be reading a payload, so a later one must not overwrite it
+        assertEquals(jackson(audio("prompt", "audio", base64(1, 2, 3, 4), "USER")), JACKSON.readTree(first));
+        assertEquals(jackson(audio("prompt", "audio", base64(5, 6, 7, 8), "USER")), JACKSON.readTree(second));
+    }
+
+    @Test
+    void silenceIsSharedAndFollowsTheTemplate() throws Exception {
+        String silence = base64(0, 0, 0, 0, 0, 0);
+        byte[] first = serializer.serialize(audio("prompt", "audio-1", silence, "USER"));
+        assertSame(first, serializer.serialize(audio("prompt", "audio-1", silence, "USER")));
+        assertEquals(jackson(audio("prompt", "audio-1", silence, "USER")), JACKSON.readTree(first));
+
+        // Audio doesn't overwrite the shared payload
+        byte[] audio = serializer.serialize(audio("prompt", "audio-1", base64(1, 2, 3, 4, 5, 6), "USER"));
+        assertNotSame(first, audio);
+        assertEquals(jackson(audio("prompt", "audio-1", silence, "USER")), JACKSON.readTree(first));
+
+        // A new content block or length gets its own silence
+        assertMatchesJackson(audio("prompt", "audio-2", silence, "USER"));
+        assertMatchesJackson(audio("prompt", "audio-2", base64(0, 0, 0, 0), "USER"));
+        assertMatchesJackson(audio("prompt", "audio-2", base64(0, 0, 0, 0, 0), "USER"));
+    }
+
+    private void assertMatchesJackson(NovaSonicEvent event) throws Exception {
+        byte[] json = serializer.serialize(event);
+        assertEquals(jackson(event), JACKSON.readTree(json), new String(json, "UTF-8"));
+    }
+
+    private static JsonNode jackson(NovaSonicEvent event) throws Exception {
+        return JACKSON.readTree(JACKSON.writeValueAsBytes(new NovaSonicEventContainer(event)));
+    }
+
+    private static AudioInputEvent audio(String promptName, String contentName, String content, String role) {
+        return new AudioInputEvent(new AudioInputEvent.AudioInput(promptName, contentName, content, role));
+    }
+
+    private static String base64(int... bytes) {
+        byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            data[i] = (byte) bytes[i];
+        }
+        return Base64.getEncoder().encodeToString(data);
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.s2s.voipgateway.nova.tools;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the tool result cache's expiry, eviction and single-flight loading, including loaders that fail.
+ */
+class ToolResultCacheTest {
+    private static final long TTL = TimeUnit.MINUTES.toMillis(1);
+
+    private final AtomicInteger invocations = new AtomicInteger();
+
+    @Test
+    void liveResultIsReused() throws Exception {
+        ToolResultCache cache = new ToolResultCache(10);
+        Map<String, Object> first = cache.get("tool", "{\"a\":1,\"b\":2}", TTL, loader("one")).get();
+        // The same input, formatted differently
+        Map<String, Object> second = cache.get("tool", " {\"b\": 2, \"a\": 1} ", TTL, loader("two")).get();
+        assertSame(first, second);
+        assertEquals(1, invocations.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        // Another tool or input is a different result
+        assertEquals("three", cache.get("other", "{\"a\":1,\"b\":2}", TTL, loader("three")).get().get("result"));
+        assertEquals("four", cache.get("tool", "{\"a\":2}", TTL, loader("four")).get().get("result"));
+    }
+
+    @Test
+    void expiredResultIsLoadedAgain() throws Exception {
+        ToolResultCache cache = new ToolResultCache(10);
+        assertEquals("one", cache.get("tool", "{}", 20, loader("one")).get().get("result"));
+        assertEquals("one", cache.get("tool", "{}", 20, loader("two")).get().get("result"));
+        Thread.sleep(50);
+        assertEquals("three", cache.get("tool", "{}", 20, loader("three")).get().get("result"));
+        assertEquals(2, invocations.get());
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvictedAtCapacity() throws Exception {
+        ToolResultCache cache = new ToolResultCache(2);
+        cache.get("tool", "a", TTL, loader("a")).get();
+        cache.get("tool", "b", TTL, loader("b")).get();
+        // Using a makes b the least recently used
+        cache.get("tool", "a", TTL, loader("a2")).get();
+        cache.get("tool", "c", TTL, loader("c")).get();
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+
+        assertEquals("a", cache.get("tool", "a", TTL, loader("a3")).get().get("result"));
+        assertEquals("c", cache.get("tool", "c", TTL, loader("c2")).get().get("result"));
+        assertEquals("b2", cache.get("tool", "b", TTL, loader("b2")).get().get("result"));
+        assertEquals(4, invocations.get());
+    }
+
+    @Test
+    void concurrentRequestsShareOneInvocation() throws Exception {
+        ToolResultCache cache = new ToolResultCache(10);
+        CompletableFuture<Map<String, Object>> pending = new CompletableFuture<>();
+        CountDownLatch ready = new CountDownLatch(1);
+        int threads = 8;
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Map<String, Object>>[] results = new CompletableFuture[threads];
+        Thread[] callers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            int caller = i;
+            callers[i] = new Thread(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                results[caller] = cache.get("tool", "{}", TTL, () -> {
+                    invocations.incrementAndGet();
+                    return pending;
+                });
+            });
+            callers[i].start();
+        }
+        ready.countDown();
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        assertEquals(1, invocations.get());
+        assertEquals(threads - 1, cache.getCoalesced());
+        for (CompletableFuture<Map<String, Object>> result : results) {
+            assertFalse(result.isDone());
+        }
+
+        Map<String, Object> output = Collections.singletonMap("result", "shared");
+        pending.complete(output);
+        for (CompletableFuture<Map<String, Object>> result : results) {
+            assertSame(output, result.get(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void failedInvocationFailsItsWaitersAndIsNotCached() throws Exception {
+        ToolResultCache cache = new ToolResultCache(10);
+        CompletableFuture<Map<String, Object>> pending = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> first = cache.get("tool", "{}", TTL, () -> pending);
+        CompletableFuture<Map<String, Object>> waiter = cache.get("tool", "{}", TTL, loader("unused"));
+        assertEquals(0, invocations.get());
+
+        pending.completeExceptionally(new IllegalStateException("failed"));
+        for (CompletableFuture<Map<String, Object>> result : new CompletableFuture[] {first, waiter}) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(1, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+        }
+        assertEquals(0, cache.getSize());
+        assertEquals("retried", cache.get("tool", "{}", TTL, loader("retried")).get().get("result"));
+    }
+
+    @Test
+    void throwingLoaderFailsItsWaitersAndIsNotCached() throws Exception {
+        ToolResultCache cache = new ToolResultCache(10);
+        CompletableFuture<Map<String, Object>> result = cache.get("tool", "{}", TTL, () -> {
+            throw new IllegalStateException("failed");
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(1, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+        assertEquals(0, cache.getSize());
+        assertEquals("retried", cache.get("tool", "{}", TTL, loader("retried")).get(1, TimeUnit.SECONDS).get("result"));
+    }
+
+    @Test
+    void evictedInvocationStillCompletesItsWaiters() throws Exception {
+        ToolResultCache cache = new ToolResultCache(1);
+        CompletableFuture<Map<String, Object>> pending = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> first = cache.get("tool", "a", TTL, () -> pending);
+        CompletableFuture<Map<String, Object>> waiter = cache.get("tool", "a", TTL, loader("unused"));
+        cache.get("tool", "b", TTL, loader("b")).get();
+
+        Map<String, Object> output = Collections.singletonMap("result", "a");
+        pending.complete(output);
+        assertSame(output, first.get(1, TimeUnit.SECONDS));
+        assertSame(output, waiter.get(1, TimeUnit.SECONDS));
+        assertEquals(1, cache.getSize());
+    }
+
+    /**
+     * @return A loader that counts its invocations and completes at once.
+     */
+    private Supplier<CompletableFuture<Map<String, Object>>> loader(String result) {
+        return () -> {
+            invocations.incrementAndGet();
+            return CompletableFuture.completedFuture(Collections.singletonMap("result", result));
+        };
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the fused Base64 to µ-law decoder against Base64 decoding and transcoding the PCM.
+ */
+class Base64ToUlawDecoderTest {
+
+    @Test
+    void decodeMatchesReferenceForEverySample() {
+        // Every sample once, little-endian
+        byte[] pcm = new byte[65536 * 2];
+        for (int i = 0; i < 65536; i++) {
+            pcm[i * 2] = (byte) i;
+            pcm[i * 2 + 1] = (byte) (i >> 8);
+        }
+        String base64 = Base64.getEncoder().encodeToString(pcm);
+        assertArrayEquals(reference(base64), decode(base64, 0, base64.length()));
+    }
+
+    @Test
+    void decodeMatchesReferenceForEveryUlawValue() {
+        // The PCM each µ-law value decodes to, including the extremes the encoder clips
+        byte[] ulaw = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            ulaw[i] = (byte) i;
+        }
+        String base64 = Base64.getEncoder().encodeToString(UlawToPcmTranscoder.convertByteArray(ulaw));
+        assertArrayEquals(reference(base64), decode(base64, 0, base64.length()));
+    }
+
+    @Test
+    void decodeMatchesReferenceForEveryLength() {
+        // PCM lengths of every remainder modulo 3, so padded with none, one or two pads, including odd lengths
+        // whose trailing byte is ignored
+        for (int length = 0; length <= 30; length++) {
+            byte[] pcm = new byte[length];
+            for (int i = 0; i < length; i++) {
+                pcm[i] = (byte) (i * 53 + 7);
+            }
+            String padded = Base64.getEncoder().encodeToString(pcm);
+            String unpadded = Base64.getEncoder().withoutPadding().encodeToString(pcm);
+            assertArrayEquals(reference(padded), decode(padded, 0, padded.length()), "padded, length " + length);
+            assertArrayEquals(reference(unpadded), decode(unpadded, 0, unpadded.length()), "unpadded, length " + length);
+        }
+    }
+
+    @Test
+    void decodeInSlicesMatchesDecodingAtOnce() {
+        byte[] pcm = new byte[1000];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (byte) (i * 31);
+        }
+        String base64 = Base64.getEncoder().encodeToString(pcm);
+        byte[] expected = reference(base64);
+        // Slices start at multiples of 8 characters, as QueuedUlawInputStream.appendBase64 cuts them
+        for (int slice = 8; slice <= 64; slice += 8) {
+            byte[] target = new byte[expected.length];
+            int count = 0;
+            for (int start = 0; start < base64.length(); start += slice) {
+                count += Base64ToUlawDecoder.decode(base64, start, Math.min(base64.length(), start + slice), target, count);
+            }
+            assertEquals(expected.length, count, "slice " + slice);
+            assertArrayEquals(expected, target, "slice " + slice);
+        }
+    }
+
+    @Test
+    void decodeWritesOnlyItsRangeOfTheTarget() {
+        String base64 = Base64.getEncoder().encodeToString(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        byte[] target = new byte[10];
+        Arrays.fill(target, (byte) 0x55);
+        assertEquals(4, Base64ToUlawDecoder.decode(base64, 0, base64.length(), target, 3));
+        byte[] expected = new byte[10];
+        Arrays.fill(expected, (byte) 0x55);
+        System.arraycopy(reference(base64), 0, expected, 3, 4);
+        assertArrayEquals(expected, target);
+    }
+
+    @Test
+    void decodeRejectsMalformedInputLikeTheReference() {
+        String[] malformed = {
+                "AAAA AAA",      // whitespace
+                "AAAA\nAAAA",    // a line break
+                "AA\tA",         // a tab
+                "AAA*",          // outside the alphabet
+                "AAAé",          // outside ASCII
+                "AAAAA",         // a lone character in the last quantum
+                "AA=",           // padding short of a quantum
+                "A===",          // too much padding
+                "AA==AAAA",      // data after the padding
+                "AAAAAAA=AAAA",  // data after the padding, past the fast path
+                "AA=A",          // padding before data
+        };
+        for (String base64 : malformed) {
+            assertThrows(IllegalArgumentException.class, () -> Base64.getDecoder().decode(base64),
+                    "reference accepted \"" + base64 + "\"");
+            assertThrows(IllegalArgumentException.class,
+                    () -> Base64ToUlawDecoder.decode(base64, 0, base64.length(), new byte[16], 0),
+                    "decoder accepted \"" + base64 + "\"");
+        }
+    }
+
+    private static byte[] decode(String base64, int start, int end) {
+        byte[] target = new byte[Base64ToUlawDecoder.decodedLength(base64, start, end)];
+        assertEquals(target.length, Base64ToUlawDecoder.decode(base64, start, end, target, 0));
+        return target;
+    }
+
+    private static byte[] reference(String base64) {
+        byte[] pcm = Base64.getDecoder().decode(base64);
+        byte[] ulaw = new byte[pcm.length / 2];
+        PcmToULawTranscoder.transcodeBytes(pcm, 0, pcm.length, ulaw, 0);
+        return ulaw;
+    }
+}
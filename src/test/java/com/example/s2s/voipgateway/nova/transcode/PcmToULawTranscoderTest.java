@@ -0,0 +1,42 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the table-driven μ-law encoder against the reference algorithm it is built from.
+ */
+class PcmToULawTranscoderTest {
+
+    @Test
+    void encodeMatchesReferenceForEverySample() {
+        for (int i = Short.MIN_VALUE; i <= Short.MAX_VALUE; i++) {
+            short sample = (short) i;
+            assertEquals(PcmToULawTranscoder.linearToULaw(sample), PcmToULawTranscoder.encode(sample),
+                    "sample " + i);
+        }
+    }
+
+    @Test
+    void transcodeBytesMatchesReferenceForEverySample() {
+        // Every sample once, little-endian, at an odd offset so the byte pairs are not aligned
+        byte[] pcm = new byte[1 + 65536 * 2];
+        for (int i = 0; i < 65536; i++) {
+            pcm[1 + i * 2] = (byte) i;
+            pcm[2 + i * 2] = (byte) (i >> 8);
+        }
+        byte[] ulaw = new byte[65536];
+        assertEquals(65536, PcmToULawTranscoder.transcodeBytes(pcm, 1, pcm.length - 1, ulaw, 0));
+        for (int i = 0; i < 65536; i++) {
+            assertEquals(PcmToULawTranscoder.linearToULaw((short) i), ulaw[i], "sample " + (short) i);
+        }
+    }
+
+    @Test
+    void transcodeBytesIgnoresTrailingOddByte() {
+        byte[] ulaw = new byte[2];
+        assertEquals(1, PcmToULawTranscoder.transcodeBytes(new byte[] {0x10, 0x20, 0x30}, 0, 3, ulaw, 0));
+        assertEquals(PcmToULawTranscoder.linearToULaw((short) 0x2010), ulaw[0]);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the fused µ-law to Base64 encoder against transcoding to PCM and Base64 encoding that.
+ */
+class UlawToBase64EncoderTest {
+
+    @Test
+    void encodeMatchesReferenceForEveryUlawValue() {
+        // 256 samples, so the last quantum is padded
+        byte[] ulaw = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            ulaw[i] = (byte) i;
+        }
+        assertEquals(reference(ulaw, 0, ulaw.length), encode(ulaw, 0, ulaw.length));
+    }
+
+    @Test
+    void encodeMatchesReferenceForEveryLengthAndOffset() {
+        byte[] ulaw = new byte[40];
+        for (int i = 0; i < ulaw.length; i++) {
+            ulaw[i] = (byte) (i * 37 + 11);
+        }
+        // Lengths of every remainder modulo 3, so with no padding, one pad and two pads
+        for (int offset = 0; offset < 3; offset++) {
+            for (int length = 0; length + offset <= ulaw.length; length++) {
+                assertEquals(reference(ulaw, offset, length), encode(ulaw, offset, length),
+                        "offset " + offset + ", length " + length);
+            }
+        }
+    }
+
+    @Test
+    void encodeWritesOnlyItsRangeOfTheTarget() {
+        byte[] ulaw = {0x01, 0x7F, (byte) 0x80, (byte) 0xFF};
+        byte[] target = new byte[UlawToBase64Encoder.encodedLength(ulaw.length) + 6];
+        Arrays.fill(target, (byte) '#');
+        int written = UlawToBase64Encoder.encode(ulaw, 0, ulaw.length, target, 3);
+        assertEquals(UlawToBase64Encoder.encodedLength(ulaw.length), written);
+        assertEquals("###" + reference(ulaw, 0, ulaw.length) + "###", new String(target, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void encodeRejectsATargetThatIsTooSmall() {
+        byte[] ulaw = new byte[3];
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> UlawToBase64Encoder.encode(ulaw, 0, 3, new byte[UlawToBase64Encoder.encodedLength(3) - 1], 0));
+    }
+
+    private static String encode(byte[] ulaw, int offset, int length) {
+        byte[] target = new byte[UlawToBase64Encoder.encodedLength(length)];
+        assertEquals(target.length, UlawToBase64Encoder.encode(ulaw, offset, length, target, 0));
+        return new String(target, StandardCharsets.US_ASCII);
+    }
+
+    private static String reference(byte[] ulaw, int offset, int length) {
+        byte[] pcm = UlawToPcmTranscoder.convertByteArray(Arrays.copyOfRange(ulaw, offset, offset + length));
+        return Base64.getEncoder().encodeToString(pcm);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks the Vector API kernels against the scalar kernels for every length up to several vectors and a tail, at
+ * unaligned source and destination offsets.
+ */
+class VectorKernelsTest {
+    private static final int MAX_LENGTH = 99;
+    private static final int MAX_OFFSET = 3;
+
+    private final Random random = new Random(42);
+
+    @BeforeEach
+    void vectorsAreSupported() {
+        assumeTrue(VectorKernels.SUPPORTED, "Preferred vectors are narrower than 256 bits");
+    }
+
+    @Test
+    void ulawToPcmMatchesScalar() {
+        byte[] ulaw = randomBytes(MAX_OFFSET + MAX_LENGTH);
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            for (int offset = 0; offset <= MAX_OFFSET; offset++) {
+                for (int pcmOffset = 0; pcmOffset <= MAX_OFFSET; pcmOffset++) {
+                    // Prefilled, so anything written outside the destination range shows up too
+                    byte[] expected = new byte[MAX_OFFSET + MAX_LENGTH * 2 + 8];
+                    Arrays.fill(expected, (byte) 0x5A);
+                    byte[] actual = expected.clone();
+                    ScalarKernels.ulawToPcm(ulaw, offset, length, expected, pcmOffset);
+                    VectorKernels.ulawToPcm(ulaw, offset, length, actual, pcmOffset);
+                    assertArrayEquals(expected, actual, "length " + length + ", offset " + offset + ", pcm offset " + pcmOffset);
+                }
+            }
+        }
+    }
+
+    @Test
+    void ulawToPcmDecodesEveryByte() {
+        byte[] ulaw = new byte[256];
+        for (int i = 0; i < ulaw.length; i++) {
+            ulaw[i] = (byte) i;
+        }
+        byte[] expected = new byte[512];
+        byte[] actual = new byte[512];
+        ScalarKernels.ulawToPcm(ulaw, 0, ulaw.length, expected, 0);
+        VectorKernels.ulawToPcm(ulaw, 0, ulaw.length, actual, 0);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void pcmSumOfSquaresMatchesScalar() {
+        byte[] pcm = randomBytes(MAX_OFFSET + MAX_LENGTH * 2);
+        // Odd lengths check that the trailing byte is ignored
+        for (int length = 0; length <= MAX_LENGTH * 2; length++) {
+            for (int offset = 0; offset <= MAX_OFFSET; offset++) {
+                assertEquals(ScalarKernels.pcmSumOfSquares(pcm, offset, length),
+                        VectorKernels.pcmSumOfSquares(pcm, offset, length), "length " + length + ", offset " + offset);
+            }
+        }
+    }
+
+    @Test
+    void ulawSumOfSquaresMatchesScalar() {
+        byte[] ulaw = randomBytes(MAX_OFFSET + MAX_LENGTH);
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            for (int offset = 0; offset <= MAX_OFFSET; offset++) {
+                assertEquals(ScalarKernels.ulawSumOfSquares(ulaw, offset, length),
+                        VectorKernels.ulawSumOfSquares(ulaw, offset, length), "length " + length + ", offset " + offset);
+            }
+        }
+    }
+
+    @Test
+    void sumsOfLoudFramesDoNotOverflow() {
+        // Four seconds at full scale, whose sum is far beyond an int
+        byte[] pcm = new byte[64000];
+        for (int i = 0; i < pcm.length; i += 2) {
+            pcm[i + 1] = (byte) 0x80;
+        }
+        assertEquals(32000L * 32768 * 32768, VectorKernels.pcmSumOfSquares(pcm, 0, pcm.length));
+        // 0x00 is the loudest µ-law value
+        byte[] ulaw = new byte[32000];
+        long loudest = UlawToPcmTranscoder.decode((byte) 0);
+        assertEquals(32000L * loudest * loudest, VectorKernels.ulawSumOfSquares(ulaw, 0, ulaw.length));
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}